@@ -0,0 +1,94 @@
+/*
+ * Copyright 2002-2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.orm.toplink.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import oracle.toplink.logging.AbstractSessionLog;
+import oracle.toplink.logging.SessionLog;
+import oracle.toplink.logging.SessionLogEntry;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.springframework.orm.toplink.support.CommonsLoggingSessionLog;
+
+/**
+ * Compares CommonsLoggingSessionLog with a copy of its original implementation
+ * (<code>LegacyCommonsLoggingSessionLog</code>), for a FINE "sql" entry that
+ * gets logged and for a FINE "transaction" entry that is filtered out by level.
+ * Run with <code>-prof gc</code> to see the allocation per log call.
+ *
+ * @since 1.1
+ * @see org.springframework.orm.toplink.support.CommonsLoggingSessionLog
+ * @see DiscardingLog
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dorg.apache.commons.logging.Log=org.springframework.orm.toplink.benchmark.DiscardingLog")
+public class CommonsLoggingSessionLogBenchmark {
+
+	@Param({"false", "true"})
+	public boolean legacy;
+
+	private AbstractSessionLog sessionLog;
+
+	private SessionLogEntry sqlEntry;
+
+	private SessionLogEntry transactionEntry;
+
+
+	@Setup
+	public void setUp() {
+		this.sessionLog = (this.legacy ? new LegacyCommonsLoggingSessionLog() : new CommonsLoggingSessionLog());
+		this.sqlEntry = newEntry("sql", "SELECT ID, NAME FROM EMPLOYEE WHERE (ID = 42)");
+		this.transactionEntry = newEntry("transaction", "begin unit of work commit");
+	}
+
+	private static SessionLogEntry newEntry(String namespace, String message) {
+		SessionLogEntry entry = new SessionLogEntry();
+		entry.setLevel(SessionLog.FINE);
+		entry.setNameSpace(namespace);
+		entry.setMessage(message);
+		entry.setShouldTranslate(false);
+		return entry;
+	}
+
+
+	@Benchmark
+	public void logEnabled() {
+		this.sessionLog.log(this.sqlEntry);
+	}
+
+	@Benchmark
+	public void logDisabled() {
+		this.sessionLog.log(this.transactionEntry);
+	}
+
+}
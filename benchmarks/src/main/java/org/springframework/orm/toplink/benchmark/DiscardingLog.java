@@ -0,0 +1,117 @@
+/*
+ * Copyright 2002-2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.orm.toplink.benchmark;
+
+import org.apache.commons.logging.Log;
+
+/**
+ * Commons Logging Log that discards all messages. All levels are enabled
+ * for "oracle.toplink.sql", and disabled for any other log name, so that
+ * benchmarks can measure message assembly as well as the level check alone.
+ *
+ * <p>Activated through the <code>org.apache.commons.logging.Log</code>
+ * system property.
+ *
+ * @since 1.1
+ * @see CommonsLoggingSessionLogBenchmark
+ */
+public class DiscardingLog implements Log {
+
+	/** Last message logged, to keep the JIT from eliminating message assembly */
+	static volatile Object lastMessage;
+
+	private final boolean enabled;
+
+
+	public DiscardingLog(String name) {
+		this.enabled = "oracle.toplink.sql".equals(name);
+	}
+
+
+	public boolean isTraceEnabled() {
+		return this.enabled;
+	}
+
+	public boolean isDebugEnabled() {
+		return this.enabled;
+	}
+
+	public boolean isInfoEnabled() {
+		return this.enabled;
+	}
+
+	public boolean isWarnEnabled() {
+		return this.enabled;
+	}
+
+	public boolean isErrorEnabled() {
+		return this.enabled;
+	}
+
+	public boolean isFatalEnabled() {
+		return this.enabled;
+	}
+
+	public void trace(Object message) {
+		lastMessage = message;
+	}
+
+	public void trace(Object message, Throwable t) {
+		lastMessage = message;
+	}
+
+	public void debug(Object message) {
+		lastMessage = message;
+	}
+
+	public void debug(Object message, Throwable t) {
+		lastMessage = message;
+	}
+
+	public void info(Object message) {
+		lastMessage = message;
+	}
+
+	public void info(Object message, Throwable t) {
+		lastMessage = message;
+	}
+
+	public void warn(Object message) {
+		lastMessage = message;
+	}
+
+	public void warn(Object message, Throwable t) {
+		lastMessage = message;
+	}
+
+	public void error(Object message) {
+		lastMessage = message;
+	}
+
+	public void error(Object message, Throwable t) {
+		lastMessage = message;
+	}
+
+	public void fatal(Object message) {
+		lastMessage = message;
+	}
+
+	public void fatal(Object message, Throwable t) {
+		lastMessage = message;
+	}
+
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2002-2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.orm.toplink.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import oracle.toplink.sessions.Session;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.springframework.orm.toplink.SessionFactoryUtils;
+import org.springframework.orm.toplink.SessionHolder;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Measures a <code>SessionFactoryUtils.doGetSession</code> /
+ * <code>releaseSession</code> pair, both without and with a
+ * thread-bound Session.
+ *
+ * @since 1.1
+ * @see org.springframework.orm.toplink.SessionFactoryUtils#doGetSession
+ * @see org.springframework.orm.toplink.SessionFactoryUtils#releaseSession
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SessionFactoryUtilsBenchmark {
+
+	@State(Scope.Thread)
+	public static class UnboundState {
+
+		StubSessionFactory sessionFactory;
+
+		@Setup
+		public void setUp() {
+			this.sessionFactory = new StubSessionFactory();
+		}
+	}
+
+
+	@State(Scope.Thread)
+	public static class BoundState {
+
+		StubSessionFactory sessionFactory;
+
+		@Setup
+		public void setUp() {
+			this.sessionFactory = new StubSessionFactory();
+			TransactionSynchronizationManager.bindResource(
+					this.sessionFactory, new SessionHolder(this.sessionFactory.createSession()));
+		}
+
+		@TearDown
+		public void tearDown() {
+			TransactionSynchronizationManager.unbindResource(this.sessionFactory);
+		}
+	}
+
+
+	@Benchmark
+	public Session getAndReleaseNewSession(UnboundState state) {
+		Session session = SessionFactoryUtils.doGetSession(state.sessionFactory, true);
+		SessionFactoryUtils.releaseSession(session, state.sessionFactory);
+		return session;
+	}
+
+	@Benchmark
+	public Session getAndReleaseBoundSession(BoundState state) {
+		Session session = SessionFactoryUtils.doGetSession(state.sessionFactory, true);
+		SessionFactoryUtils.releaseSession(session, state.sessionFactory);
+		return session;
+	}
+
+}
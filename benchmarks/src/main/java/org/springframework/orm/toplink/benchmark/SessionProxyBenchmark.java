@@ -0,0 +1,122 @@
+/*
+ * Copyright 2002-2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.orm.toplink.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import oracle.toplink.sessions.Session;
+import oracle.toplink.sessions.UnitOfWork;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.springframework.orm.toplink.SessionHolder;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Compares the JDK dynamic proxies created by AbstractSessionFactory with
+ * the CGLIB-generated Session references ("optimizeSessionProxies" flag),
+ * for "managed" client Sessions as well as transaction-aware Sessions.
+ *
+ * @since 1.1
+ * @see org.springframework.orm.toplink.AbstractSessionFactory#setOptimizeSessionProxies
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SessionProxyBenchmark {
+
+	@Param({"false", "true"})
+	public boolean optimizeSessionProxies;
+
+	private StubSessionFactory sessionFactory;
+
+	private Session managedSession;
+
+	private Session transactionAwareSession;
+
+
+	@Setup
+	public void setUp() {
+		this.sessionFactory = new StubSessionFactory();
+		this.sessionFactory.setOptimizeSessionProxies(this.optimizeSessionProxies);
+		this.managedSession = this.sessionFactory.createManagedClientSession();
+		this.transactionAwareSession = this.sessionFactory.createTransactionAwareSession();
+		// Simulate an active transaction for the transaction-aware Session.
+		TransactionSynchronizationManager.bindResource(this.sessionFactory, new SessionHolder(this.managedSession));
+	}
+
+	@TearDown
+	public void tearDown() {
+		TransactionSynchronizationManager.unbindResource(this.sessionFactory);
+	}
+
+
+	@Benchmark
+	public UnitOfWork managedGetActiveUnitOfWork() {
+		return this.managedSession.getActiveUnitOfWork();
+	}
+
+	@Benchmark
+	public Session managedGetActiveSession() {
+		return this.managedSession.getActiveSession();
+	}
+
+	@Benchmark
+	public boolean managedDelegateWithArgument() {
+		return this.managedSession.hasDescriptor(Object.class);
+	}
+
+	@Benchmark
+	public int managedHashCode() {
+		return this.managedSession.hashCode();
+	}
+
+	@Benchmark
+	public boolean managedEquals() {
+		return this.managedSession.equals(this.transactionAwareSession);
+	}
+
+	@Benchmark
+	public Session transactionAwareGetActiveSession() {
+		return this.transactionAwareSession.getActiveSession();
+	}
+
+	@Benchmark
+	public UnitOfWork transactionAwareGetActiveUnitOfWork() {
+		return this.transactionAwareSession.getActiveUnitOfWork();
+	}
+
+	@Benchmark
+	public Session createManagedClientSession() {
+		return this.sessionFactory.createManagedClientSession();
+	}
+
+}
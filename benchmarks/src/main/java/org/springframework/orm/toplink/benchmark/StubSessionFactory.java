@@ -0,0 +1,49 @@
+/*
+ * Copyright 2002-2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.orm.toplink.benchmark;
+
+import oracle.toplink.sessions.Session;
+
+import org.springframework.orm.toplink.AbstractSessionFactory;
+
+/**
+ * SessionFactory for benchmarks, built like the MockSessionFactory of the
+ * unit tests: hands out the same stub client Session on every call, so that
+ * only the cost of the Spring TopLink support layer itself gets measured.
+ *
+ * @since 1.1
+ * @see StubSessions
+ */
+public class StubSessionFactory extends AbstractSessionFactory {
+
+	private final Session masterSession = StubSessions.newSession();
+
+	private final Session clientSession = StubSessions.newSession();
+
+
+	protected Session getMasterSession() {
+		return this.masterSession;
+	}
+
+	protected Session createClientSession() {
+		return this.clientSession;
+	}
+
+	public void close() {
+	}
+
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2002-2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.orm.toplink.benchmark;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import oracle.toplink.sessions.Session;
+import oracle.toplink.sessions.UnitOfWork;
+
+/**
+ * Factory for stub TopLink Sessions and UnitOfWorks that do no work at all.
+ * Every method returns the default value for its return type, except for
+ * <code>acquireUnitOfWork</code> (which returns a stub UnitOfWork) and
+ * <code>getActiveSession</code> (which returns the stub itself).
+ *
+ * <p>Used as target for the benchmarks, so that the measured cost is the
+ * overhead of the Spring TopLink support layer rather than TopLink's own.
+ *
+ * @since 1.1
+ */
+public abstract class StubSessions {
+
+	/**
+	 * Create a new stub Session.
+	 */
+	public static Session newSession() {
+		return (Session) Proxy.newProxyInstance(StubSessions.class.getClassLoader(),
+				new Class<?>[] {Session.class}, new StubInvocationHandler());
+	}
+
+	/**
+	 * Create a new stub UnitOfWork.
+	 */
+	public static UnitOfWork newUnitOfWork() {
+		return (UnitOfWork) Proxy.newProxyInstance(StubSessions.class.getClassLoader(),
+				new Class<?>[] {UnitOfWork.class}, new StubInvocationHandler());
+	}
+
+
+	private static class StubInvocationHandler implements InvocationHandler {
+
+		public Object invoke(Object proxy, Method method, Object[] args) {
+			String name = method.getName();
+			if (name.equals("equals")) {
+				return (proxy == args[0]);
+			}
+			if (name.equals("hashCode")) {
+				return System.identityHashCode(proxy);
+			}
+			if (name.equals("getActiveSession")) {
+				return proxy;
+			}
+			if (name.equals("acquireUnitOfWork")) {
+				return newUnitOfWork();
+			}
+			return defaultValue(method.getReturnType());
+		}
+
+		private static Object defaultValue(Class<?> type) {
+			if (!type.isPrimitive() || type == void.class) {
+				return null;
+			}
+			if (type == boolean.class) {
+				return Boolean.FALSE;
+			}
+			if (type == char.class) {
+				return Character.valueOf((char) 0);
+			}
+			if (type == long.class) {
+				return Long.valueOf(0);
+			}
+			if (type == float.class) {
+				return Float.valueOf(0);
+			}
+			if (type == double.class) {
+				return Double.valueOf(0);
+			}
+			if (type == byte.class) {
+				return Byte.valueOf((byte) 0);
+			}
+			if (type == short.class) {
+				return Short.valueOf((short) 0);
+			}
+			return Integer.valueOf(0);
+		}
+	}
+
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2002-2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.orm.toplink.benchmark;
+
+import java.lang.reflect.AccessibleObject;
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+import org.aopalliance.intercept.MethodInvocation;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.springframework.orm.toplink.TopLinkInterceptor;
+
+/**
+ * Measures <code>TopLinkInterceptor.invoke</code> around a no-op method
+ * invocation, without a pre-bound Session (that is, binding and releasing
+ * a new Session for every call).
+ *
+ * @since 1.1
+ * @see org.springframework.orm.toplink.TopLinkInterceptor#invoke
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TopLinkInterceptorBenchmark {
+
+	private TopLinkInterceptor interceptor;
+
+	private MethodInvocation invocation;
+
+
+	@Setup
+	public void setUp() throws NoSuchMethodException {
+		this.interceptor = new TopLinkInterceptor();
+		this.interceptor.setSessionFactory(new StubSessionFactory());
+		this.interceptor.afterPropertiesSet();
+		this.invocation = new NoOpMethodInvocation(Object.class.getMethod("toString"));
+	}
+
+
+	@Benchmark
+	public Object invoke() throws Throwable {
+		return this.interceptor.invoke(this.invocation);
+	}
+
+
+	/**
+	 * MethodInvocation that returns a constant result without calling anything.
+	 */
+	private static class NoOpMethodInvocation implements MethodInvocation {
+
+		private static final Object[] NO_ARGS = new Object[0];
+
+		private final Method method;
+
+		public NoOpMethodInvocation(Method method) {
+			this.method = method;
+		}
+
+		public Method getMethod() {
+			return this.method;
+		}
+
+		public Object[] getArguments() {
+			return NO_ARGS;
+		}
+
+		public Object proceed() {
+			return this;
+		}
+
+		public Object getThis() {
+			return this;
+		}
+
+		public AccessibleObject getStaticPart() {
+			return this.method;
+		}
+	}
+
+}
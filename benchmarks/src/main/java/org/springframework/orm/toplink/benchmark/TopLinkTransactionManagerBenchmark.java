@@ -0,0 +1,82 @@
+/*
+ * Copyright 2002-2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.orm.toplink.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.springframework.orm.toplink.TopLinkTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.DefaultTransactionDefinition;
+
+/**
+ * Measures a complete empty transaction on TopLinkTransactionManager, that is,
+ * the <code>doBegin</code> / <code>doCommit</code> /
+ * <code>doCleanupAfterCompletion</code> cycle as driven through the
+ * PlatformTransactionManager API, for read-write and read-only transactions.
+ *
+ * @since 1.1
+ * @see org.springframework.orm.toplink.TopLinkTransactionManager
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TopLinkTransactionManagerBenchmark {
+
+	@Param({"false", "true"})
+	public boolean readOnly;
+
+	@Param({"false", "true"})
+	public boolean optimizeSessionProxies;
+
+	private TopLinkTransactionManager transactionManager;
+
+	private DefaultTransactionDefinition definition;
+
+
+	@Setup
+	public void setUp() {
+		StubSessionFactory sessionFactory = new StubSessionFactory();
+		sessionFactory.setOptimizeSessionProxies(this.optimizeSessionProxies);
+		this.transactionManager = new TopLinkTransactionManager(sessionFactory);
+		this.definition = new DefaultTransactionDefinition();
+		this.definition.setReadOnly(this.readOnly);
+	}
+
+
+	@Benchmark
+	public TransactionStatus beginAndCommit() {
+		TransactionStatus status = this.transactionManager.getTransaction(this.definition);
+		this.transactionManager.commit(status);
+		return status;
+	}
+
+}
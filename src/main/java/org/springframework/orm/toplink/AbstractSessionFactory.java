@@ -27,11 +27,21 @@ import oracle.toplink.sessions.UnitOfWork;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import org.springframework.util.Assert;
+
 /**
  * Abstract SessionFactory implementation that creates proxies for
  * "managed" client Sessions and transaction-aware Session references.
  *
- * <p>Delegates to two template methods:
+ * <p>Delegates to two template methods: {@link #getMasterSession()} for the
+ * Session that transaction-aware Session references delegate to, and
+ * {@link #createClientSession()} for the client Sessions behind plain and
+ * "managed" Sessions.
+ *
+ * <p>By default, those Session references are JDK dynamic proxies. Switch the
+ * {@link #setOptimizeSessionProxies "optimizeSessionProxies"} flag on to use
+ * CGLIB-generated Session implementations instead, which delegate to the target
+ * Session without reflection or per-call allocation.
  *
  * @author Juergen Hoeller
  * @since Spring framework 1.2.6
@@ -40,9 +50,118 @@ import org.apache.commons.logging.LogFactory;
  */
 public abstract class AbstractSessionFactory implements SessionFactory {
 
+	/**
+	 * Policies for the UnitOfWork of a "managed" client Session exceeding
+	 * the {@link #setMaxUnitOfWorkSize "maxUnitOfWorkSize"}.
+	 */
+	public enum UnitOfWorkSizePolicy {
+
+		/** Log a warning and report to TopLinkMetrics, once per UnitOfWork */
+		WARN,
+
+		/**
+		 * Report to TopLinkMetrics and throw an InvalidDataAccessApiUsageException
+		 * on each further access to the UnitOfWork, including the commit
+		 */
+		FAIL
+	}
+
+
+	/** Operation name for oversized UnitOfWorks, as reported to TopLinkMetrics */
+	public static final String UNIT_OF_WORK_SIZE_EXCEEDED_OPERATION = "unitOfWorkSizeExceeded";
+
+
 	/** Logger available to subclasses */
 	protected final Log logger = LogFactory.getLog(getClass());
 
+	private volatile boolean optimizeSessionProxies = false;
+
+	private volatile int maxUnitOfWorkSize = 0;
+
+	private volatile UnitOfWorkSizePolicy unitOfWorkSizePolicy = UnitOfWorkSizePolicy.WARN;
+
+	private volatile TopLinkMetrics metrics = NoOpTopLinkMetrics.INSTANCE;
+
+
+	/**
+	 * Set whether to create "managed" client Sessions and transaction-aware
+	 * Sessions as CGLIB-generated Session implementations rather than as
+	 * JDK dynamic proxies.
+	 * <p>Default is "false". Switch this flag to "true" for heavily used
+	 * Session references: Plain Session methods will then be invoked directly
+	 * on the target Session, without reflection, and <code>equals</code>,
+	 * <code>hashCode</code>, <code>getActiveSession</code>,
+	 * <code>getActiveUnitOfWork</code> and <code>release</code> calls will
+	 * be handled without any per-call allocation.
+	 * @see #createManagedClientSession()
+	 * @see #createTransactionAwareSession(SessionFactory)
+	 */
+	public void setOptimizeSessionProxies(boolean optimizeSessionProxies) {
+		this.optimizeSessionProxies = optimizeSessionProxies;
+	}
+
+	/**
+	 * Return whether to create CGLIB-generated Session references
+	 * instead of JDK dynamic proxies.
+	 */
+	public boolean isOptimizeSessionProxies() {
+		return this.optimizeSessionProxies;
+	}
+
+	/**
+	 * Set the maximum number of objects to register in the UnitOfWork of a
+	 * "managed" client Session, as used by TopLinkTransactionManager for
+	 * read-write transactions. Default is 0, meaning no limit.
+	 * <p>Large UnitOfWorks take long to commit, as TopLink calculates the
+	 * changes of every registered object, and hold a backup clone per object.
+	 * The size gets checked on each access to the active UnitOfWork, that is,
+	 * once per TopLinkTemplate write operation; the
+	 * {@link #setUnitOfWorkSizePolicy "unitOfWorkSizePolicy"} determines the
+	 * action taken once the maximum is exceeded.
+	 * <p>Requires UnitOfWorks derived from
+	 * <code>oracle.toplink.publicinterface.UnitOfWork</code>.
+	 * @see oracle.toplink.publicinterface.UnitOfWork#getCloneMapping()
+	 */
+	public void setMaxUnitOfWorkSize(int maxUnitOfWorkSize) {
+		this.maxUnitOfWorkSize = maxUnitOfWorkSize;
+	}
+
+	/**
+	 * Return the maximum number of objects to register in the UnitOfWork
+	 * of a "managed" client Session (0 for no limit).
+	 */
+	public int getMaxUnitOfWorkSize() {
+		return this.maxUnitOfWorkSize;
+	}
+
+	/**
+	 * Set the action to take once the UnitOfWork of a "managed" client Session
+	 * exceeds the {@link #setMaxUnitOfWorkSize "maxUnitOfWorkSize"}.
+	 * Default is {@link UnitOfWorkSizePolicy#WARN}.
+	 */
+	public void setUnitOfWorkSizePolicy(UnitOfWorkSizePolicy unitOfWorkSizePolicy) {
+		Assert.notNull(unitOfWorkSizePolicy, "unitOfWorkSizePolicy must not be null");
+		this.unitOfWorkSizePolicy = unitOfWorkSizePolicy;
+	}
+
+	/**
+	 * Set the metrics strategy to report oversized UnitOfWorks to, as
+	 * {@link #UNIT_OF_WORK_SIZE_EXCEEDED_OPERATION} operations (failed with
+	 * the FAIL policy), along with any events reported by subclasses.
+	 * Default is {@link NoOpTopLinkMetrics}.
+	 * @see org.springframework.orm.toplink.support.HdrHistogramTopLinkMetrics
+	 */
+	public void setMetrics(TopLinkMetrics metrics) {
+		this.metrics = (metrics != null ? metrics : NoOpTopLinkMetrics.INSTANCE);
+	}
+
+	/**
+	 * Return the metrics strategy to report to (never <code>null</code>).
+	 */
+	protected TopLinkMetrics getMetrics() {
+		return this.metrics;
+	}
+
 
 	/**
 	 * Create a plain client Session for this factory's master Session.
@@ -61,8 +180,14 @@ public abstract class AbstractSessionFactory implements SessionFactory {
 	public Session createManagedClientSession() throws TopLinkException {
 		logger.debug("Creating managed TopLink client Session");
 		Session target = createClientSession();
+		UnitOfWork uow = target.acquireUnitOfWork();
+		UnitOfWorkSizeGuard sizeGuard = (this.maxUnitOfWorkSize > 0 ?
+				new UnitOfWorkSizeGuard(uow, this.maxUnitOfWorkSize, this.unitOfWorkSizePolicy, this.metrics) : null);
+		if (this.optimizeSessionProxies) {
+			return CglibSessionProxyFactory.createManagedClientSession(target, uow, sizeGuard);
+		}
 		return (Session) Proxy.newProxyInstance(target.getClass().getClassLoader(),
-				new Class[] {Session.class}, new ManagedClientInvocationHandler(target));
+				new Class[] {Session.class}, new ManagedClientInvocationHandler(target, uow, sizeGuard));
 	}
 
 	/**
@@ -90,6 +215,9 @@ public abstract class AbstractSessionFactory implements SessionFactory {
 	 */
 	public Session createTransactionAwareSession(SessionFactory sessionFactory) throws TopLinkException {
 		Session target = getMasterSession();
+		if (this.optimizeSessionProxies) {
+			return CglibSessionProxyFactory.createTransactionAwareSession(sessionFactory, target);
+		}
 		return (Session) Proxy.newProxyInstance(
 				target.getClass().getClassLoader(), new Class[] {Session.class},
 				new TransactionAwareInvocationHandler(sessionFactory, target));
@@ -123,9 +251,12 @@ public abstract class AbstractSessionFactory implements SessionFactory {
 
 		private final UnitOfWork uow;
 
-		public ManagedClientInvocationHandler(Session target) {
+		private final UnitOfWorkSizeGuard sizeGuard;
+
+		public ManagedClientInvocationHandler(Session target, UnitOfWork uow, UnitOfWorkSizeGuard sizeGuard) {
 			this.target = target;
-			this.uow = this.target.acquireUnitOfWork();
+			this.uow = uow;
+			this.sizeGuard = sizeGuard;
 		}
 
 		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
@@ -143,7 +274,7 @@ public abstract class AbstractSessionFactory implements SessionFactory {
 				return this.target;
 			}
 			else if (method.getName().equals("getActiveUnitOfWork")) {
-				return this.uow;
+				return (this.sizeGuard != null ? this.sizeGuard.getUnitOfWork() : this.uow);
 			}
 			else if (method.getName().equals("release")) {
 				this.uow.release();
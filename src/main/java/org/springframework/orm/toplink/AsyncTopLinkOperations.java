@@ -0,0 +1,97 @@
+/*
+ * Copyright 2002-2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.orm.toplink;
+
+import java.util.List;
+import java.util.concurrent.Future;
+
+import oracle.toplink.expressions.Expression;
+import oracle.toplink.queryframework.DatabaseQuery;
+
+/**
+ * Interface that specifies a set of asynchronous TopLink operations,
+ * implemented by {@link AsyncTopLinkTemplate}. The asynchronous counterpart
+ * of {@link TopLinkOperations}, for overlapping independent reads.
+ *
+ * <p>Each operation runs on a worker thread with its own TopLink Session,
+ * obtained from the SessionFactory and released at the end of the operation.
+ * Operations therefore never participate in the caller's transaction, and
+ * only ever see read-only objects from the plain Session.
+ *
+ * <p>The returned Futures throw an {@link java.util.concurrent.ExecutionException}
+ * from <code>get</code> if the operation failed, with the cause being a
+ * {@link org.springframework.dao.DataAccessException} in case of TopLink errors.
+ *
+ * @since 1.1
+ * @see TopLinkOperations
+ */
+public interface AsyncTopLinkOperations {
+
+	/**
+	 * Execute the action specified by the given action object within its own
+	 * TopLink Session, on a worker thread.
+	 * <p>Note: Callback code is not supposed to handle transactions itself!
+	 * Any UnitOfWork acquired by the callback needs to be committed by it.
+	 * @param action callback object that specifies the TopLink action
+	 * @return a Future for the result object returned by the action
+	 * @throws org.springframework.core.task.TaskRejectedException if the
+	 * executor did not accept the action
+	 * @see TopLinkOperations#execute(TopLinkCallback)
+	 */
+	<T> Future<T> execute(TopLinkCallback<T> action);
+
+	/**
+	 * Asynchronously execute the given query object.
+	 * @param query the query object to execute (for example,
+	 * a ReadObjectQuery or ReadAllQuery instance)
+	 * @return a Future for the result object or list of result objects
+	 * @see oracle.toplink.sessions.Session#executeQuery(oracle.toplink.queryframework.DatabaseQuery)
+	 */
+	Future<Object> executeQuery(DatabaseQuery query);
+
+	/**
+	 * Asynchronously execute a given named query with the given arguments.
+	 * @param entityClass the entity class that has the named query descriptor
+	 * @param queryName the name of the query
+	 * @param args the arguments for the query (can be <code>null</code>)
+	 * @return a Future for the result object or list of result objects
+	 * @see oracle.toplink.sessions.Session#executeQuery(String, Class, java.util.Vector)
+	 */
+	Future<Object> executeNamedQuery(Class<?> entityClass, String queryName, Object[] args);
+
+	/**
+	 * Asynchronously read all entity instances of the given class
+	 * that match the given expression.
+	 * @param entityClass the entity class
+	 * @param expression the TopLink expression to match,
+	 * usually built through the TopLink ExpressionBuilder
+	 * @return a Future for the list of matching entity instances
+	 * @see oracle.toplink.sessions.Session#readAllObjects(Class, oracle.toplink.expressions.Expression)
+	 */
+	<T> Future<List<T>> readAll(Class<T> entityClass, Expression expression);
+
+	/**
+	 * Asynchronously read the entity instance of the given class with the given id.
+	 * The Future fails with an ObjectRetrievalFailureException if not found.
+	 * @param entityClass the entity class
+	 * @param id the id of the desired object
+	 * @return a Future for the entity instance
+	 * @see TopLinkOperations#readById(Class, Object)
+	 */
+	<T> Future<T> readById(Class<T> entityClass, Object id);
+
+}
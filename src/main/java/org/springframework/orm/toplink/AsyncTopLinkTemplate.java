@@ -0,0 +1,262 @@
+/*
+ * Copyright 2002-2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.orm.toplink;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import oracle.toplink.exceptions.TopLinkException;
+import oracle.toplink.expressions.Expression;
+import oracle.toplink.queryframework.DatabaseQuery;
+import oracle.toplink.queryframework.ReadObjectQuery;
+import oracle.toplink.sessions.Session;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.support.TaskExecutorAdapter;
+import org.springframework.orm.ObjectRetrievalFailureException;
+import org.springframework.util.Assert;
+import org.springframework.util.CustomizableThreadCreator;
+
+/**
+ * Asynchronous counterpart of {@link TopLinkTemplate}: runs {@link TopLinkCallback}
+ * actions on a bounded executor and returns a Future for each result, so that
+ * independent reads can overlap their latency instead of running serially.
+ *
+ * <p>Each action gets its own TopLink Session from the SessionFactory, which is
+ * released once the action has completed. Actions do not see thread-bound
+ * transactional Sessions, not even when running on the caller's thread.
+ * TopLink exceptions get converted through {@link #convertTopLinkAccessException},
+ * just like with <code>TopLinkTemplate</code>.
+ *
+ * <p>By default, a thread pool of {@link #setPoolSize "poolSize"} threads with a
+ * queue of {@link #setQueueCapacity "queueCapacity"} pending actions is used.
+ * Once the queue is full, further actions are run on the submitting thread,
+ * which throttles callers to the pace of the pool. Once the template has been
+ * destroyed, further actions are rejected with a
+ * {@link org.springframework.core.task.TaskRejectedException}. Alternatively, an existing
+ * executor can be specified through {@link #setTaskExecutor "taskExecutor"}.
+ *
+ * @since 1.1
+ * @see TopLinkTemplate
+ * @see SessionFactory#createSession()
+ */
+public class AsyncTopLinkTemplate extends TopLinkAccessor implements AsyncTopLinkOperations, DisposableBean {
+
+	private int poolSize = Runtime.getRuntime().availableProcessors() * 2;
+
+	private int queueCapacity = 100;
+
+	private AsyncTaskExecutor taskExecutor;
+
+	private ThreadPoolExecutor threadPoolExecutor;
+
+
+	/**
+	 * Create a new AsyncTopLinkTemplate instance.
+	 */
+	public AsyncTopLinkTemplate() {
+	}
+
+	/**
+	 * Create a new AsyncTopLinkTemplate instance with a default thread pool.
+	 */
+	public AsyncTopLinkTemplate(SessionFactory sessionFactory) {
+		setSessionFactory(sessionFactory);
+		afterPropertiesSet();
+	}
+
+	/**
+	 * Set the number of threads of the default thread pool.
+	 * Default is twice the number of available processors.
+	 * <p>Each busy thread holds a client Session, and with it
+	 * a connection from the read pool.
+	 */
+	public void setPoolSize(int poolSize) {
+		Assert.isTrue(poolSize > 0, "poolSize must be greater than 0");
+		this.poolSize = poolSize;
+	}
+
+	/**
+	 * Set the number of actions that the default thread pool queues up
+	 * before running further actions on the submitting thread. Default is 100.
+	 */
+	public void setQueueCapacity(int queueCapacity) {
+		Assert.isTrue(queueCapacity > 0, "queueCapacity must be greater than 0");
+		this.queueCapacity = queueCapacity;
+	}
+
+	/**
+	 * Specify an existing executor to run the actions on, instead of the
+	 * default thread pool. Its lifecycle is not managed by this template.
+	 * <p>The executor should be bounded, and decide itself on how to handle
+	 * saturation, for example through a caller-runs rejection policy.
+	 * @see org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor
+	 */
+	public void setTaskExecutor(AsyncTaskExecutor taskExecutor) {
+		this.taskExecutor = taskExecutor;
+	}
+
+	/**
+	 * Return the executor that the actions run on.
+	 */
+	public AsyncTaskExecutor getTaskExecutor() {
+		return this.taskExecutor;
+	}
+
+	public void afterPropertiesSet() {
+		super.afterPropertiesSet();
+		if (this.taskExecutor == null) {
+			final CustomizableThreadCreator threadCreator = new CustomizableThreadCreator("TopLinkAsync-");
+			threadCreator.setDaemon(true);
+			ThreadFactory threadFactory = new ThreadFactory() {
+				public Thread newThread(Runnable runnable) {
+					return threadCreator.createThread(runnable);
+				}
+			};
+			this.threadPoolExecutor = new ThreadPoolExecutor(
+					this.poolSize, this.poolSize, 60, TimeUnit.SECONDS,
+					new ArrayBlockingQueue<Runnable>(this.queueCapacity), threadFactory,
+					new CallerRunsUnlessShutdownPolicy());
+			this.threadPoolExecutor.allowCoreThreadTimeOut(true);
+			this.taskExecutor = new TaskExecutorAdapter(this.threadPoolExecutor);
+		}
+	}
+
+	/**
+	 * Shut down the default thread pool, if any.
+	 * Actions that have already been submitted will still be run;
+	 * further actions get rejected.
+	 */
+	public void destroy() {
+		if (this.threadPoolExecutor != null) {
+			this.threadPoolExecutor.shutdown();
+		}
+	}
+
+
+	public <T> Future<T> execute(final TopLinkCallback<T> action) {
+		Assert.notNull(action, "Callback object must not be null");
+		Assert.state(this.taskExecutor != null, "AsyncTopLinkTemplate has not been initialized");
+
+		return this.taskExecutor.submit(new Callable<T>() {
+			public T call() {
+				return doExecute(action);
+			}
+		});
+	}
+
+	/**
+	 * Execute the given action within a newly created Session,
+	 * on the current thread.
+	 * @param action callback object that specifies the TopLink action
+	 * @return the result object returned by the action
+	 */
+	protected <T> T doExecute(TopLinkCallback<T> action) {
+		// Always create a new Session: a thread-bound one might be in use
+		// by the submitting thread, in case of caller-runs execution.
+		Session session = getSessionFactory().createSession();
+		try {
+			return action.doInTopLink(session);
+		}
+		catch (TopLinkException ex) {
+			throw convertTopLinkAccessException(ex);
+		}
+		finally {
+			SessionFactoryUtils.releaseSession(session, getSessionFactory());
+		}
+	}
+
+
+	//-------------------------------------------------------------------------
+	// Convenience methods for asynchronous reads
+	//-------------------------------------------------------------------------
+
+	public Future<Object> executeQuery(final DatabaseQuery query) {
+		return execute(new TopLinkCallback<Object>() {
+			public Object doInTopLink(Session session) throws TopLinkException {
+				return session.executeQuery(query);
+			}
+		});
+	}
+
+	public Future<Object> executeNamedQuery(final Class<?> entityClass, final String queryName, final Object[] args) {
+		return execute(new TopLinkCallback<Object>() {
+			public Object doInTopLink(Session session) throws TopLinkException {
+				if (args != null) {
+					return session.executeQuery(queryName, entityClass, new Vector(Arrays.asList(args)));
+				}
+				else {
+					return session.executeQuery(queryName, entityClass, new Vector());
+				}
+			}
+		});
+	}
+
+	public <T> Future<List<T>> readAll(final Class<T> entityClass, final Expression expression) {
+		return execute(new TopLinkCallback<List<T>>() {
+			@SuppressWarnings("unchecked")
+			public List<T> doInTopLink(Session session) throws TopLinkException {
+				return session.readAllObjects(entityClass, expression);
+			}
+		});
+	}
+
+	public <T> Future<T> readById(final Class<T> entityClass, final Object id) {
+		return execute(new TopLinkCallback<T>() {
+			@SuppressWarnings("unchecked")
+			public T doInTopLink(Session session) throws TopLinkException {
+				ReadObjectQuery query = new ReadObjectQuery(entityClass);
+				Vector key = new Vector(1);
+				key.add(id);
+				query.setSelectionKey(key);
+				Object result = session.executeQuery(query);
+				if (result == null) {
+					throw new ObjectRetrievalFailureException(entityClass, id);
+				}
+				return (T) result;
+			}
+		});
+	}
+
+
+	/**
+	 * Runs rejected actions on the submitting thread while the pool is running,
+	 * and rejects them once it has been shut down. ThreadPoolExecutor's own
+	 * CallerRunsPolicy silently discards actions after shutdown, leaving
+	 * their Futures incomplete forever.
+	 */
+	private static class CallerRunsUnlessShutdownPolicy implements RejectedExecutionHandler {
+
+		public void rejectedExecution(Runnable task, ThreadPoolExecutor executor) {
+			if (executor.isShutdown()) {
+				throw new RejectedExecutionException("AsyncTopLinkTemplate has been destroyed");
+			}
+			task.run();
+		}
+	}
+
+}
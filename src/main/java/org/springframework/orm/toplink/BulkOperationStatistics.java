@@ -0,0 +1,126 @@
+/*
+ * Copyright 2002-2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.orm.toplink;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Statistics for a chunked bulk operation, as returned by the bulk
+ * persistence methods of {@link TopLinkOperations}: one {@link ChunkInfo}
+ * per committed UnitOfWork, plus totals.
+ *
+ * @since 1.1
+ * @see TopLinkOperations#registerAllNew(Iterable, int)
+ * @see TopLinkOperations#mergeAll(Iterable, int)
+ * @see TopLinkOperations#deleteAll(Iterable, int)
+ */
+public class BulkOperationStatistics {
+
+	private final List<ChunkInfo> chunks = new ArrayList<ChunkInfo>();
+
+	private int objectCount;
+
+	private long totalTimeMillis;
+
+
+	/**
+	 * Record a committed chunk.
+	 * @param objectCount the number of objects in the chunk
+	 * @param timeMillis the time taken to process and commit the chunk
+	 */
+	void addChunk(int objectCount, long timeMillis) {
+		this.chunks.add(new ChunkInfo(this.chunks.size(), objectCount, timeMillis));
+		this.objectCount += objectCount;
+		this.totalTimeMillis += timeMillis;
+	}
+
+	/**
+	 * Return the number of chunks that have been committed.
+	 */
+	public int getChunkCount() {
+		return this.chunks.size();
+	}
+
+	/**
+	 * Return the total number of objects processed.
+	 */
+	public int getObjectCount() {
+		return this.objectCount;
+	}
+
+	/**
+	 * Return the total time taken by all chunks, in milliseconds.
+	 */
+	public long getTotalTimeMillis() {
+		return this.totalTimeMillis;
+	}
+
+	/**
+	 * Return the statistics for each chunk, in processing order.
+	 */
+	public List<ChunkInfo> getChunks() {
+		return Collections.unmodifiableList(this.chunks);
+	}
+
+	public String toString() {
+		return "BulkOperationStatistics: " + this.objectCount + " objects in " + this.chunks.size() +
+				" chunks, " + this.totalTimeMillis + " ms";
+	}
+
+
+	/**
+	 * Statistics for a single chunk, that is, a single committed UnitOfWork.
+	 */
+	public static final class ChunkInfo {
+
+		private final int index;
+
+		private final int objectCount;
+
+		private final long timeMillis;
+
+		private ChunkInfo(int index, int objectCount, long timeMillis) {
+			this.index = index;
+			this.objectCount = objectCount;
+			this.timeMillis = timeMillis;
+		}
+
+		/**
+		 * Return the zero-based position of this chunk.
+		 */
+		public int getIndex() {
+			return this.index;
+		}
+
+		/**
+		 * Return the number of objects in this chunk.
+		 */
+		public int getObjectCount() {
+			return this.objectCount;
+		}
+
+		/**
+		 * Return the time taken to process and commit this chunk, in milliseconds.
+		 */
+		public long getTimeMillis() {
+			return this.timeMillis;
+		}
+	}
+
+}
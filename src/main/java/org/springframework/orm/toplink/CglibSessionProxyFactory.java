@@ -0,0 +1,366 @@
+/*
+ * Copyright 2002-2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.orm.toplink;
+
+import java.lang.reflect.Method;
+
+import oracle.toplink.sessions.Session;
+import oracle.toplink.sessions.UnitOfWork;
+
+import org.springframework.cglib.proxy.Callback;
+import org.springframework.cglib.proxy.CallbackFilter;
+import org.springframework.cglib.proxy.Dispatcher;
+import org.springframework.cglib.proxy.Enhancer;
+import org.springframework.cglib.proxy.Factory;
+import org.springframework.cglib.proxy.FixedValue;
+import org.springframework.cglib.proxy.MethodInterceptor;
+import org.springframework.cglib.proxy.MethodProxy;
+import org.springframework.cglib.proxy.NoOp;
+import org.springframework.util.ReflectionUtils;
+
+/**
+ * Creates "managed" client Session and transaction-aware Session references
+ * as CGLIB-generated implementations of the TopLink Session interface.
+ *
+ * <p>In contrast to the JDK dynamic proxies used by {@link AbstractSessionFactory}
+ * by default, the generated class invokes each plain Session method directly on
+ * the target Session: no reflective <code>Method.invoke</code> call, and no argument
+ * array per invocation. <code>equals</code>, <code>hashCode</code>,
+ * <code>getActiveSession</code>, <code>getActiveUnitOfWork</code> and
+ * <code>release</code> are dispatched to dedicated callbacks, again without
+ * reflection or per-call allocation.
+ *
+ * <p>Also creates the per-checkout Session references that {@link ServerSessionFactory}
+ * hands out for pooled ClientSessions.
+ *
+ * <p>The proxy class is generated once; subsequent proxies get instantiated
+ * through the CGLIB {@link Factory} interface.
+ *
+ * @since 1.1
+ * @see AbstractSessionFactory#setOptimizeSessionProxies
+ */
+final class CglibSessionProxyFactory {
+
+	private static final int DISPATCH_TARGET = 0;
+
+	private static final int PROXY_IDENTITY = 1;
+
+	private static final int ACTIVE_SESSION = 2;
+
+	private static final int ACTIVE_UNIT_OF_WORK = 3;
+
+	private static final int RELEASE = 4;
+
+	private static final int NO_OVERRIDE = 5;
+
+	private static final int WRITE_ACCESS = 6;
+
+	private static final CallbackFilter CALLBACK_FILTER = new SessionCallbackFilter();
+
+	/** CGLIB Factory for the generated Session class, lazily initialized */
+	private static volatile Factory prototype;
+
+
+	private CglibSessionProxyFactory() {
+	}
+
+
+	/**
+	 * Create a "managed" client Session reference for the given client Session,
+	 * exposing the given UnitOfWork as active UnitOfWork.
+	 * @param target the client Session to delegate to
+	 * @param unitOfWork the UnitOfWork to expose via <code>getActiveUnitOfWork()</code>
+	 * @param sizeGuard the guard to check the UnitOfWork's size through
+	 * (may be <code>null</code>)
+	 * @return the generated Session reference
+	 */
+	public static Session createManagedClientSession(
+			final Session target, final UnitOfWork unitOfWork, final UnitOfWorkSizeGuard sizeGuard) {
+
+		return newSessionProxy(target,
+				new FixedValue() {
+					public Object loadObject() {
+						return target;
+					}
+				},
+				(sizeGuard != null ?
+						new FixedValue() {
+							public Object loadObject() {
+								return sizeGuard.getUnitOfWork();
+							}
+						} :
+						new FixedValue() {
+							public Object loadObject() {
+								return unitOfWork;
+							}
+						}),
+				new MethodInterceptor() {
+					public Object intercept(Object proxy, Method method, Object[] args, MethodProxy methodProxy) {
+						unitOfWork.release();
+						target.release();
+						return null;
+					}
+				});
+	}
+
+	/**
+	 * Create a transaction-aware Session reference for the given master Session,
+	 * exposing the current transactional Session and UnitOfWork for the given
+	 * SessionFactory via <code>getActiveSession()</code> and
+	 * <code>getActiveUnitOfWork()</code>, respectively.
+	 * @param sessionFactory the SessionFactory that transactions
+	 * are expected to be registered for
+	 * @param target the master Session to delegate to
+	 * @return the generated Session reference
+	 */
+	public static Session createTransactionAwareSession(final SessionFactory sessionFactory, final Session target) {
+		return newSessionProxy(target,
+				new FixedValue() {
+					public Object loadObject() {
+						// Return transactional Session, if any.
+						try {
+							return SessionFactoryUtils.doGetSession(sessionFactory, false);
+						}
+						catch (IllegalStateException ex) {
+							// getActiveSession is supposed to return the Session itself if no active one found.
+							return target;
+						}
+					}
+				},
+				new FixedValue() {
+					public Object loadObject() {
+						// Return transactional UnitOfWork, if any.
+						try {
+							return SessionFactoryUtils.doGetSession(sessionFactory, false).getActiveUnitOfWork();
+						}
+						catch (IllegalStateException ex) {
+							// getActiveUnitOfWork is supposed to return null if no active one found.
+							return null;
+						}
+					}
+				},
+				new MethodInterceptor() {
+					public Object intercept(Object proxy, Method method, Object[] args, MethodProxy methodProxy) {
+						target.release();
+						return null;
+					}
+				});
+	}
+
+	/**
+	 * Create a Session reference for a single checkout of a pooled ClientSession.
+	 * A new reference is meant to be created for every checkout, so that a reference
+	 * kept beyond <code>release()</code> cannot affect later checkouts;
+	 * <code>getActiveSession()</code> exposes the ClientSession itself.
+	 * @param checkout the checkout to delegate to, and to notify on
+	 * write access and <code>release()</code>
+	 * @return the generated Session reference
+	 */
+	public static Session createPooledSession(final PooledSessionCheckout checkout) {
+		return newSessionProxy(
+				new Dispatcher() {
+					public Object loadObject() {
+						return checkout.getTarget();
+					}
+				},
+				new FixedValue() {
+					public Object loadObject() {
+						return checkout.getTarget();
+					}
+				},
+				new FixedValue() {
+					public Object loadObject() {
+						return checkout.getTarget().getActiveUnitOfWork();
+					}
+				},
+				new MethodInterceptor() {
+					public Object intercept(Object proxy, Method method, Object[] args, MethodProxy methodProxy) {
+						checkout.released();
+						return null;
+					}
+				},
+				new Dispatcher() {
+					public Object loadObject() {
+						Session target = checkout.getTarget();
+						checkout.writeAccessed();
+						return target;
+					}
+				});
+	}
+
+	/**
+	 * Instantiate the generated Session class with the given callbacks,
+	 * generating the class itself on first access.
+	 */
+	private static Session newSessionProxy(
+			Session target, FixedValue activeSession, FixedValue activeUnitOfWork, MethodInterceptor release) {
+
+		Dispatcher targetDispatcher = new TargetDispatcher(target);
+		return newSessionProxy(targetDispatcher, activeSession, activeUnitOfWork, release, targetDispatcher);
+	}
+
+	/**
+	 * Instantiate the generated Session class with the given callbacks,
+	 * generating the class itself on first access.
+	 * <p>The writeAccess callback receives <code>acquireUnitOfWork()</code>,
+	 * <code>executeNonSelectingCall</code> and <code>executeNonSelectingSQL</code>.
+	 */
+	private static Session newSessionProxy(Dispatcher targetDispatcher, FixedValue activeSession,
+			FixedValue activeUnitOfWork, MethodInterceptor release, Dispatcher writeAccess) {
+
+		ProxyIdentityDispatcher identity = new ProxyIdentityDispatcher();
+		Callback[] callbacks = new Callback[] {
+				targetDispatcher, identity, activeSession, activeUnitOfWork, release, NoOp.INSTANCE, writeAccess};
+		Object proxy;
+		Factory factory = prototype;
+		if (factory != null) {
+			proxy = factory.newInstance(callbacks);
+		}
+		else {
+			Enhancer enhancer = new Enhancer();
+			enhancer.setClassLoader(CglibSessionProxyFactory.class.getClassLoader());
+			enhancer.setInterfaces(new Class<?>[] {Session.class});
+			enhancer.setCallbackFilter(CALLBACK_FILTER);
+			enhancer.setCallbacks(callbacks);
+			proxy = enhancer.create();
+			prototype = (Factory) proxy;
+		}
+		identity.setProxy(proxy);
+		return (Session) proxy;
+	}
+
+
+	/**
+	 * CallbackFilter that routes the specially treated Session methods
+	 * to their dedicated callbacks, and everything else to the target.
+	 */
+	private static class SessionCallbackFilter implements CallbackFilter {
+
+		public int accept(Method method) {
+			if (method.getDeclaringClass() == Object.class) {
+				if (ReflectionUtils.isEqualsMethod(method) || ReflectionUtils.isHashCodeMethod(method)) {
+					return PROXY_IDENTITY;
+				}
+				if (ReflectionUtils.isToStringMethod(method)) {
+					return DISPATCH_TARGET;
+				}
+				// clone, finalize: keep java.lang.Object's implementation.
+				return NO_OVERRIDE;
+			}
+			if (method.getParameterTypes().length == 0) {
+				String name = method.getName();
+				if (name.equals("getActiveSession")) {
+					return ACTIVE_SESSION;
+				}
+				if (name.equals("getActiveUnitOfWork")) {
+					return ACTIVE_UNIT_OF_WORK;
+				}
+				if (name.equals("release")) {
+					return RELEASE;
+				}
+				if (name.equals("acquireUnitOfWork")) {
+					return WRITE_ACCESS;
+				}
+			}
+			else if (method.getName().equals("executeNonSelectingCall") ||
+					method.getName().equals("executeNonSelectingSQL")) {
+				return WRITE_ACCESS;
+			}
+			return DISPATCH_TARGET;
+		}
+	}
+
+
+	/**
+	 * Callback interface for the Session reference of a pooled ClientSession checkout.
+	 * @see #createPooledSession
+	 */
+	interface PooledSessionCheckout {
+
+		/**
+		 * Return the pooled ClientSession to delegate to.
+		 * @throws IllegalStateException if this checkout has been released already
+		 */
+		Session getTarget() throws IllegalStateException;
+
+		/**
+		 * Called before <code>acquireUnitOfWork()</code>, <code>executeNonSelectingCall</code>
+		 * or <code>executeNonSelectingSQL</code> gets delegated to the pooled ClientSession.
+		 */
+		void writeAccessed();
+
+		/**
+		 * Called on <code>release()</code>, instead of releasing
+		 * the pooled ClientSession.
+		 */
+		void released();
+	}
+
+
+	/**
+	 * Dispatcher that hands all plain Session calls to the target Session.
+	 */
+	private static class TargetDispatcher implements Dispatcher {
+
+		private final Session target;
+
+		public TargetDispatcher(Session target) {
+			this.target = target;
+		}
+
+		public Object loadObject() {
+			return this.target;
+		}
+	}
+
+
+	/**
+	 * Dispatcher for <code>equals</code> and <code>hashCode</code>:
+	 * only consider proxies equal when they are identical.
+	 */
+	private static class ProxyIdentityDispatcher implements Dispatcher {
+
+		private final ProxyIdentity identity = new ProxyIdentity();
+
+		public void setProxy(Object proxy) {
+			this.identity.proxy = proxy;
+		}
+
+		public Object loadObject() {
+			return this.identity;
+		}
+	}
+
+
+	/**
+	 * Stand-in object that receives <code>equals</code>/<code>hashCode</code>
+	 * calls on behalf of a generated Session proxy.
+	 */
+	private static class ProxyIdentity {
+
+		private Object proxy;
+
+		public boolean equals(Object other) {
+			return (this.proxy == other);
+		}
+
+		public int hashCode() {
+			return System.identityHashCode(this.proxy);
+		}
+	}
+
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2002-2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.orm.toplink;
+
+/**
+ * Callback interface for receiving a {@link CommitReport} after each commit
+ * of a read-write transaction managed by {@link TopLinkTransactionManager}.
+ *
+ * <p>Called on the committing thread, after the commit attempt (including
+ * failed ones). Implementations must be thread-safe and should be fast.
+ *
+ * @since 1.1
+ * @see TopLinkTransactionManager#setCommitListeners
+ * @see org.springframework.orm.toplink.support.HdrHistogramCommitListener
+ */
+public interface CommitListener {
+
+	/**
+	 * Receive the report of a commit.
+	 * @param report the commit report
+	 */
+	void commitCompleted(CommitReport report);
+
+}
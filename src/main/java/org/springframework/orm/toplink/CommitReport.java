@@ -0,0 +1,128 @@
+/*
+ * Copyright 2002-2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.orm.toplink;
+
+/**
+ * Report of a single UnitOfWork commit, as passed to {@link CommitListener}s
+ * by {@link TopLinkTransactionManager}.
+ *
+ * <p>New and changed object counts are taken from the change set that the
+ * UnitOfWork calculated during the commit; they are 0 if the commit failed
+ * before calculating its changes. The commit time is the measured duration of
+ * the UnitOfWork commit as a whole: calculating the changes, writing them,
+ * committing the database transaction and merging into the shared cache.
+ *
+ * <p>The report does not break the commit time down into these phases, and
+ * does not include the number of SQL statements or the time spent waiting for
+ * locks: TopLink does not expose any of these per UnitOfWork. Use a
+ * {@link org.springframework.orm.toplink.support.SqlProfilingSessionLog}
+ * to count the statements issued per SQL String.
+ *
+ * @since 1.1
+ * @see CommitListener
+ * @see oracle.toplink.publicinterface.UnitOfWork#getUnitOfWorkChangeSet()
+ */
+public class CommitReport {
+
+	private final String transactionName;
+
+	private final int newObjectCount;
+
+	private final int changedObjectCount;
+
+	private final int deletedObjectCount;
+
+	private final long commitNanos;
+
+	private final boolean failed;
+
+
+	/**
+	 * Create a new CommitReport.
+	 * @param transactionName the name of the transaction (may be <code>null</code>)
+	 * @param newObjectCount the number of new objects to insert
+	 * @param changedObjectCount the number of changed objects to update
+	 * @param deletedObjectCount the number of objects to delete
+	 * @param commitNanos the time spent committing, in nanoseconds
+	 * @param failed whether the commit threw an exception
+	 */
+	public CommitReport(String transactionName, int newObjectCount, int changedObjectCount,
+			int deletedObjectCount, long commitNanos, boolean failed) {
+
+		this.transactionName = transactionName;
+		this.newObjectCount = newObjectCount;
+		this.changedObjectCount = changedObjectCount;
+		this.deletedObjectCount = deletedObjectCount;
+		this.commitNanos = commitNanos;
+		this.failed = failed;
+	}
+
+
+	/**
+	 * Return the name of the transaction, usually the fully-qualified name
+	 * of the transactional method, or <code>null</code> if none.
+	 * @see org.springframework.transaction.TransactionDefinition#getName()
+	 */
+	public String getTransactionName() {
+		return this.transactionName;
+	}
+
+	/**
+	 * Return the number of new objects that got inserted.
+	 */
+	public int getNewObjectCount() {
+		return this.newObjectCount;
+	}
+
+	/**
+	 * Return the number of changed objects that got updated.
+	 */
+	public int getChangedObjectCount() {
+		return this.changedObjectCount;
+	}
+
+	/**
+	 * Return the number of objects that got deleted.
+	 */
+	public int getDeletedObjectCount() {
+		return this.deletedObjectCount;
+	}
+
+	/**
+	 * Return the time spent committing the UnitOfWork, including
+	 * the calculation of its changes, in nanoseconds.
+	 */
+	public long getCommitNanos() {
+		return this.commitNanos;
+	}
+
+	/**
+	 * Return whether the commit failed.
+	 */
+	public boolean isFailed() {
+		return this.failed;
+	}
+
+
+	public String toString() {
+		return "CommitReport: transaction [" + this.transactionName + "], " + this.newObjectCount + " new, " +
+				this.changedObjectCount + " changed, " + this.deletedObjectCount + " deleted; commit " +
+				this.commitNanos / 1000 + " us" +
+				(this.failed ? " (failed)" : "");
+	}
+
+}
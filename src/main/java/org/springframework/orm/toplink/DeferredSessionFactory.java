@@ -0,0 +1,240 @@
+/*
+ * Copyright 2002-2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.orm.toplink;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import oracle.toplink.exceptions.TopLinkException;
+import oracle.toplink.sessions.Session;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.util.Assert;
+
+/**
+ * SessionFactory facade for a target SessionFactory that is still being
+ * initialized in the background, as used by LocalSessionFactoryBean's
+ * {@link LocalSessionFactoryBean#setBootstrapExecutor "bootstrapExecutor"} mode.
+ *
+ * <p>Each factory method blocks until the target SessionFactory is available,
+ * for at most the specified timeout. If initialization failed, the factory
+ * methods rethrow the initialization exception.
+ *
+ * <p>{@link #close()} waits for initialization to complete for at most the
+ * {@link #setCloseTimeout "closeTimeout"}, then cancels it. When initialized
+ * through an executor, a target SessionFactory that completes after that
+ * closes itself right away; with a given Future, it cannot be closed anymore.
+ *
+ * <p>Note that this facade is not an AbstractSessionFactory itself:
+ * TopLinkTransactionManager resolves the target through
+ * {@link #getTargetSessionFactory()} for its "sharedReadOnlySession" mode.
+ *
+ * @since 1.1
+ * @see LocalSessionFactoryBean#setBootstrapExecutor
+ */
+public class DeferredSessionFactory implements SessionFactory {
+
+	/** Default maximum time for {@link #close()} to wait for initialization, in milliseconds */
+	public static final long DEFAULT_CLOSE_TIMEOUT = 10000;
+
+
+	protected final Log logger = LogFactory.getLog(getClass());
+
+	private final Future<SessionFactory> targetFuture;
+
+	private final long timeout;
+
+	private final boolean closesLateTarget;
+
+	private long closeTimeout = DEFAULT_CLOSE_TIMEOUT;
+
+	/** Guards closed and initializedTarget */
+	private final Object closeMonitor = new Object();
+
+	private boolean closed = false;
+
+	private SessionFactory initializedTarget;
+
+
+	/**
+	 * Create a new DeferredSessionFactory for the given target Future.
+	 * @param targetFuture the Future for the target SessionFactory
+	 * @param timeout the maximum time to wait for the target SessionFactory,
+	 * in milliseconds (0 for no limit)
+	 */
+	public DeferredSessionFactory(Future<SessionFactory> targetFuture, long timeout) {
+		Assert.notNull(targetFuture, "targetFuture must not be null");
+		this.targetFuture = targetFuture;
+		this.timeout = timeout;
+		this.closesLateTarget = false;
+	}
+
+	/**
+	 * Create a new DeferredSessionFactory, initializing the target
+	 * SessionFactory through the given executor. A target that completes
+	 * after this facade has been closed gets closed right away.
+	 * @param initializer the Callable that creates the target SessionFactory
+	 * @param executor the executor to run the initializer on
+	 * @param timeout the maximum time to wait for the target SessionFactory,
+	 * in milliseconds (0 for no limit)
+	 */
+	public DeferredSessionFactory(
+			final Callable<SessionFactory> initializer, AsyncTaskExecutor executor, long timeout) {
+
+		Assert.notNull(initializer, "initializer must not be null");
+		Assert.notNull(executor, "executor must not be null");
+		this.targetFuture = executor.submit(new Callable<SessionFactory>() {
+			public SessionFactory call() throws Exception {
+				SessionFactory target = initializer.call();
+				boolean closeTarget;
+				synchronized (closeMonitor) {
+					closeTarget = closed;
+					initializedTarget = target;
+				}
+				if (closeTarget) {
+					logger.info("Closing TopLink SessionFactory that completed initialization after shutdown");
+					target.close();
+				}
+				return target;
+			}
+		});
+		this.timeout = timeout;
+		this.closesLateTarget = true;
+	}
+
+
+	/**
+	 * Set the maximum time for {@link #close()} to wait for initialization
+	 * to complete, in milliseconds. Default is {@link #DEFAULT_CLOSE_TIMEOUT}.
+	 */
+	public void setCloseTimeout(long closeTimeout) {
+		Assert.isTrue(closeTimeout >= 0, "closeTimeout must not be negative");
+		this.closeTimeout = closeTimeout;
+	}
+
+
+	/**
+	 * Return whether the target SessionFactory has been initialized successfully,
+	 * without blocking. Suitable for readiness checks.
+	 */
+	public boolean isReady() {
+		if (!this.targetFuture.isDone()) {
+			return false;
+		}
+		try {
+			this.targetFuture.get();
+			return true;
+		}
+		catch (Exception ex) {
+			return false;
+		}
+	}
+
+	/**
+	 * Return the target SessionFactory, waiting for its initialization
+	 * to complete if necessary.
+	 * @throws DataAccessResourceFailureException if not initialized within the timeout
+	 * @throws TopLinkException if initialization failed
+	 */
+	public SessionFactory getTargetSessionFactory() {
+		try {
+			if (this.timeout > 0) {
+				return this.targetFuture.get(this.timeout, TimeUnit.MILLISECONDS);
+			}
+			return this.targetFuture.get();
+		}
+		catch (TimeoutException ex) {
+			throw new DataAccessResourceFailureException(
+					"TopLink SessionFactory has not been initialized within " + this.timeout + " ms", ex);
+		}
+		catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new DataAccessResourceFailureException(
+					"Interrupted while waiting for TopLink SessionFactory initialization", ex);
+		}
+		catch (ExecutionException ex) {
+			Throwable cause = ex.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new DataAccessResourceFailureException("TopLink SessionFactory initialization failed", cause);
+		}
+	}
+
+
+	public Session createSession() throws TopLinkException {
+		return getTargetSessionFactory().createSession();
+	}
+
+	public Session createManagedClientSession() throws TopLinkException {
+		return getTargetSessionFactory().createManagedClientSession();
+	}
+
+	public Session createTransactionAwareSession() throws TopLinkException {
+		return getTargetSessionFactory().createTransactionAwareSession();
+	}
+
+	/**
+	 * Close the target SessionFactory, waiting for its initialization to
+	 * complete for at most the {@link #setCloseTimeout "closeTimeout"}.
+	 * On timeout, initialization gets cancelled; a target that completes
+	 * nevertheless closes itself if initialized through an executor.
+	 * Does nothing if initialization failed.
+	 */
+	public void close() {
+		SessionFactory target;
+		synchronized (this.closeMonitor) {
+			this.closed = true;
+			target = this.initializedTarget;
+		}
+		if (target == null) {
+			try {
+				SessionFactory completedTarget = this.targetFuture.get(this.closeTimeout, TimeUnit.MILLISECONDS);
+				if (!this.closesLateTarget) {
+					target = completedTarget;
+				}
+				// else: closed by the initializer, which saw the closed flag
+			}
+			catch (TimeoutException ex) {
+				this.targetFuture.cancel(true);
+				logger.warn("TopLink SessionFactory has not been initialized within " + this.closeTimeout +
+						" ms - cancelled initialization" + (this.closesLateTarget ?
+						", a SessionFactory that completes later on will close itself" :
+						", a SessionFactory that completes later on will not be closed"));
+			}
+			catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+			catch (ExecutionException ex) {
+				// initialization failed: nothing to close
+			}
+		}
+		if (target != null) {
+			target.close();
+		}
+	}
+
+}
@@ -16,13 +16,30 @@
 
 package org.springframework.orm.toplink;
 
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Method;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import javax.sql.DataSource;
+import javax.xml.parsers.DocumentBuilderFactory;
 
 import oracle.toplink.exceptions.TopLinkException;
 import oracle.toplink.internal.databaseaccess.DatabasePlatform;
@@ -30,17 +47,25 @@ import oracle.toplink.jndi.JNDIConnector;
 import oracle.toplink.sessionbroker.SessionBroker;
 import oracle.toplink.sessions.DatabaseLogin;
 import oracle.toplink.sessions.DatabaseSession;
+import oracle.toplink.sessions.Project;
 import oracle.toplink.sessions.SessionLog;
 import oracle.toplink.threetier.ServerSession;
 import oracle.toplink.tools.sessionconfiguration.XMLLoader;
 import oracle.toplink.tools.sessionmanagement.SessionManager;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
 
 import org.springframework.beans.PropertyAccessorFactory;
+import org.springframework.core.ConfigurableObjectInputStream;
 import org.springframework.util.ClassUtils;
 import org.springframework.util.CollectionUtils;
+import org.springframework.util.FileCopyUtils;
 import org.springframework.util.ReflectionUtils;
+import org.springframework.util.StopWatch;
+import org.springframework.util.StringUtils;
 
 /**
  * Convenient JavaBean-style factory for a TopLink SessionFactory instance.
@@ -72,6 +97,10 @@ import org.springframework.util.ReflectionUtils;
  * uses it's own DefaultSessionLog, whose levels are configured in the
  * <code>sessions.xml</code> file.
  *
+ * <p>To speed up startup with large projects, the loaded project metadata can be
+ * cached in a local file: see {@link #setConfigCacheDirectory "configCacheDirectory"}.
+ * A breakdown of the startup time gets logged at DEBUG level.
+ *
  * <p>This class has been tested against both TopLink 9.0.4 and TopLink 10.1.3.
  * It will automatically adapt to the TopLink version encountered: for example,
  * using an XMLSessionConfigLoader on 10.1.3, but an XMLLoader on 9.0.4.
@@ -106,6 +135,20 @@ public class LocalSessionFactory {
 	 */
 	public static final String DEFAULT_SESSION_NAME = "Session";
 
+	/**
+	 * Pattern for the project resources referenced by a <code>sessions.xml</code> file.
+	 */
+	private static final Pattern PROJECT_REFERENCE_PATTERN =
+			Pattern.compile("<(?:primary|additional)-project[^>]*>\\s*([^<\\s]+)\\s*</");
+
+	/**
+	 * The settings of a <code>sessions.xml</code> session element that survive
+	 * the configuration cache: everything else only applies when the session
+	 * gets loaded from the <code>sessions.xml</code> file.
+	 */
+	private static final Set<String> CACHEABLE_SESSION_SETTINGS = Collections.unmodifiableSet(
+			new HashSet<String>(Arrays.asList("name", "primary-project", "additional-project", "login")));
+
 
 	protected final Log logger = LogFactory.getLog(getClass());
 
@@ -134,6 +177,8 @@ public class LocalSessionFactory {
 
 	private SessionLog sessionLog;
 
+	private File configCacheDirectory;
+
 
 	/**
 	 * Set the TopLink <code>sessions.xml</code> configuration file that defines
@@ -267,16 +312,47 @@ public class LocalSessionFactory {
 	 * logging, with adjustable detail level. As of TopLink 10.1.3, TopLink also
 	 * uses different log categories, which allows for fine-grained filtering of
 	 * log messages. For standard execution, no SessionLog needs to be specified.
+	 * <p>To keep slow log output from adding to query latency, wrap the SessionLog
+	 * in an AsyncSessionLog, which passes entries on from a background thread.
 	 * @see oracle.toplink.sessions.DefaultSessionLog
 	 * @see oracle.toplink.logging.DefaultSessionLog
 	 * @see oracle.toplink.logging.JavaLog
 	 * @see org.springframework.orm.toplink.support.CommonsLoggingSessionLog
 	 * @see org.springframework.orm.toplink.support.CommonsLoggingSessionLog904
+	 * @see org.springframework.orm.toplink.support.AsyncSessionLog
+	 * @see org.springframework.orm.toplink.support.SqlProfilingSessionLog
 	 */
 	public void setSessionLog(SessionLog sessionLog) {
 		this.sessionLog = sessionLog;
 	}
 
+	/**
+	 * Specify a directory for caching the loaded TopLink project metadata in,
+	 * as serialized binary file. Default is none, that is, no caching.
+	 * <p>The cache file is keyed by a hash of the content of the <code>sessions.xml</code>
+	 * file and of the project resources it refers to (project XML files or project
+	 * class files), the session name and the TopLink version. On subsequent startups
+	 * with unchanged resources, the project gets read from the cache file instead
+	 * of being parsed from XML.
+	 * <p><b>NOTE:</b> Only the project metadata (descriptors and login) is cached.
+	 * On a cache hit, the Session gets created directly from the project, so
+	 * Session settings that are only defined in the <code>sessions.xml</code> file
+	 * (such as logging) do not apply. Specify those on this factory (for example,
+	 * through "dataSource" and "sessionLog") or override {@link #createSessionFromProject}.
+	 * <p>The configuration only gets cached if the session element in the
+	 * <code>sessions.xml</code> file declares nothing but its name, projects and
+	 * login - plus logging, if overridden through "sessionLog" anyway. Any other
+	 * setting, such as a server platform, connection pools, cache synchronization,
+	 * event listeners, an exception handler or a profiler, prevents caching with
+	 * a warning, as it would get lost on a cache hit. The same applies if the
+	 * login holds a user name or password: credentials never get written to the
+	 * cache file. Specify them through "loginProperties" or a "dataSource" instead.
+	 * SessionBrokers are never cached either.
+	 */
+	public void setConfigCacheDirectory(File configCacheDirectory) {
+		this.configCacheDirectory = configCacheDirectory;
+	}
+
 
 	/**
 	 * Create a TopLink SessionFactory according to the configuration settings.
@@ -292,9 +368,18 @@ public class LocalSessionFactory {
 		ClassLoader classLoader =
 				(this.sessionClassLoader != null ? this.sessionClassLoader : ClassUtils.getDefaultClassLoader());
 
-		// Initialize the TopLink Session, using the configuration file
-		// and the session name.
-		DatabaseSession session = loadDatabaseSession(this.configLocation, this.sessionName, classLoader);
+		StopWatch stopWatch = new StopWatch("TopLink Session '" + this.sessionName + "' startup");
+
+		// Initialize the TopLink Session, from the configuration cache if possible,
+		// else using the configuration file and the session name.
+		stopWatch.start("load configuration");
+		File cacheFile = getConfigCacheFile(classLoader);
+		DatabaseSession session = (cacheFile != null ? readConfigCache(cacheFile, classLoader) : null);
+		boolean loadedFromCache = (session != null);
+		if (session == null) {
+			session = loadDatabaseSession(this.configLocation, this.sessionName, classLoader);
+		}
+		stopWatch.stop();
 
 		// It is possible for SessionManager to return a null Session!
 		if (session == null) {
@@ -304,6 +389,12 @@ public class LocalSessionFactory {
 					"This is most likely a deployment issue: Can the class loader access the resource?");
 		}
 
+		if (cacheFile != null && !loadedFromCache) {
+			stopWatch.start("write configuration cache");
+			writeConfigCache(cacheFile, session);
+			stopWatch.stop();
+		}
+
 		DatabaseLogin login = (this.databaseLogin != null ? this.databaseLogin : session.getLogin());
 
 		// Apply specified login properties to the DatabaseLogin instance.
@@ -334,10 +425,27 @@ public class LocalSessionFactory {
 		}
 
 		// Log in and create corresponding SessionFactory.
+		stopWatch.start("login and descriptor initialization");
 		session.login();
+		stopWatch.stop();
+		if (logger.isDebugEnabled()) {
+			logger.debug((loadedFromCache ? "Loaded TopLink configuration from cache file [" + cacheFile + "]\n" : "") +
+					stopWatch.prettyPrint());
+		}
+		postLogin(session);
 		return newSessionFactory(session);
 	}
 
+	/**
+	 * Hook for processing the DatabaseSession after it has been logged in,
+	 * before the SessionFactory gets created for it.
+	 * <p>The default implementation is empty.
+	 * @param session the logged-in DatabaseSession
+	 * @throws TopLinkException in case of errors
+	 */
+	protected void postLogin(DatabaseSession session) throws TopLinkException {
+	}
+
 	/**
 	 * Handle differences between the <code>Session.setLogin</code> interface
 	 * between TopLink 9.0.4 to 10.1.3.
@@ -347,16 +455,8 @@ public class LocalSessionFactory {
 	 * @see oracle.toplink.sessions.DatabaseSession#setLogin
 	 */
 	protected void setDatabaseLogin(DatabaseSession session, DatabaseLogin login) {
-		Method setLoginMethod = null;
-		try {
-			// Search for the new 10.1.3 Login interface...
-			Class<?> loginClass = DatabaseSession.class.getClassLoader().loadClass("oracle.toplink.sessions.Login");
-			setLoginMethod = DatabaseSession.class.getMethod("setLogin", new Class[] {loginClass});
-			if (logger.isDebugEnabled()) {
-				logger.debug("Using TopLink 10.1.3 setLogin(Login) API");
-			}
-		}
-		catch (Exception ex) {
+		Method setLoginMethod = TopLinkApi.setLoginMethod;
+		if (setLoginMethod == null) {
 			// TopLink 10.1.3 Login interface not found ->
 			// fall back to TopLink 9.0.4's setLogin(DatabaseLogin)
 			if (logger.isDebugEnabled()) {
@@ -367,6 +467,9 @@ public class LocalSessionFactory {
 		}
 
 		// Invoke the 10.1.3 version: Session.setLogin(Login)
+		if (logger.isDebugEnabled()) {
+			logger.debug("Using TopLink 10.1.3 setLogin(Login) API");
+		}
 		ReflectionUtils.invokeMethod(setLoginMethod, session, new Object[] {login});
 	}
 
@@ -386,18 +489,16 @@ public class LocalSessionFactory {
 		SessionManager manager = getSessionManager();
 
 		// Try to find TopLink 10.1.3 XMLSessionConfigLoader.
-		Method getSessionMethod = null;
+		Method getSessionMethod = TopLinkApi.getSessionMethod;
 		Object loader = null;
 		try {
-			Class<?> loaderClass = SessionManager.class.getClassLoader().loadClass(
-					"oracle.toplink.tools.sessionconfiguration.XMLSessionConfigLoader");
-			getSessionMethod = SessionManager.class.getMethod("getSession",
-					new Class[] {loaderClass, String.class, ClassLoader.class, boolean.class, boolean.class, boolean.class});
+			if (getSessionMethod == null) {
+				throw new IllegalStateException("TopLink 10.1.3 XMLSessionConfigLoader not available");
+			}
 			if (logger.isDebugEnabled()) {
 				logger.debug("Using TopLink 10.1.3 XMLSessionConfigLoader");
 			}
-			Constructor<?> ctor = loaderClass.getConstructor(new Class[] {String.class});
-			loader = ctor.newInstance(new Object[] {configLocation});
+			loader = TopLinkApi.xmlSessionConfigLoaderConstructor.newInstance(new Object[] {configLocation});
 		}
 		catch (Exception ex) {
 			// TopLink 10.1.3 XMLSessionConfigLoader not found ->
@@ -420,6 +521,210 @@ public class LocalSessionFactory {
 				new Object[] {loader, sessionName, sessionClassLoader, Boolean.FALSE, Boolean.FALSE, Boolean.TRUE});
 	}
 
+	/**
+	 * Create a DatabaseSession for the given project, read from the configuration cache.
+	 * <p>The default implementation creates a ServerSession if the cached session
+	 * was one, and a plain DatabaseSession else. Can be overridden to apply
+	 * Session settings that are defined in the <code>sessions.xml</code> file.
+	 * @param project the cached TopLink project
+	 * @param serverSession whether the cached session was a ServerSession
+	 * @return the DatabaseSession instance (not logged in yet)
+	 * @see #setConfigCacheDirectory
+	 */
+	protected DatabaseSession createSessionFromProject(Project project, boolean serverSession) {
+		return (serverSession ? project.createServerSession() : project.createDatabaseSession());
+	}
+
+	/**
+	 * Determine the configuration cache file for the current configuration,
+	 * keyed by a hash of the configuration resources.
+	 * @return the cache file, or <code>null</code> if caching is not active
+	 * or the configuration resources could not be read
+	 */
+	private File getConfigCacheFile(ClassLoader classLoader) {
+		if (this.configCacheDirectory == null) {
+			return null;
+		}
+		try {
+			byte[] sessionsXml = readResource(this.configLocation, classLoader);
+			if (sessionsXml == null) {
+				return null;
+			}
+			String uncacheableSetting = findUncacheableSetting(sessionsXml);
+			if (uncacheableSetting != null) {
+				logger.warn("Not caching TopLink configuration: [" + this.configLocation + "] declares " +
+						uncacheableSetting + " for session '" + this.sessionName +
+						"', which a cached project does not carry");
+				return null;
+			}
+			String sessionsXmlContent = new String(sessionsXml, "UTF-8");
+			MessageDigest digest = MessageDigest.getInstance("MD5");
+			digest.update(sessionsXml);
+			Matcher matcher = PROJECT_REFERENCE_PATTERN.matcher(sessionsXmlContent);
+			while (matcher.find()) {
+				// Either a project XML resource or a project class.
+				String project = matcher.group(1);
+				byte[] content = readResource(project, classLoader);
+				if (content == null) {
+					content = readResource(ClassUtils.convertClassNameToResourcePath(project) + ".class", classLoader);
+				}
+				digest.update(project.getBytes("UTF-8"));
+				if (content != null) {
+					digest.update(content);
+				}
+			}
+			digest.update(this.sessionName.getBytes("UTF-8"));
+			String version = Project.class.getPackage().getImplementationVersion();
+			if (version != null) {
+				digest.update(version.getBytes("UTF-8"));
+			}
+			StringBuilder fileName = new StringBuilder("toplink-config-");
+			for (byte b : digest.digest()) {
+				fileName.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+			}
+			return new File(this.configCacheDirectory, fileName.append(".ser").toString());
+		}
+		catch (IOException ex) {
+			logger.warn("Could not read TopLink configuration for caching", ex);
+			return null;
+		}
+		catch (NoSuchAlgorithmException ex) {
+			throw new IllegalStateException("MD5 digest not available: " + ex);
+		}
+	}
+
+	/**
+	 * Find a setting of the configured session in the given <code>sessions.xml</code>
+	 * content that would not survive the configuration cache.
+	 * @return a description of the first such setting, or <code>null</code> if none
+	 */
+	private String findUncacheableSetting(byte[] sessionsXml) {
+		try {
+			DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+			factory.setValidating(false);
+			try {
+				factory.setFeature("http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
+			}
+			catch (Exception ex) {
+				// not a Xerces-based parser: DTD references get resolved
+			}
+			Element root = factory.newDocumentBuilder().parse(new ByteArrayInputStream(sessionsXml)).getDocumentElement();
+			NodeList sessions = root.getChildNodes();
+			for (int i = 0; i < sessions.getLength(); i++) {
+				Node session = sessions.item(i);
+				if (session instanceof Element && "session".equals(getLocalName(session)) &&
+						this.sessionName.equals(getChildText((Element) session, "name"))) {
+					NodeList settings = session.getChildNodes();
+					for (int j = 0; j < settings.getLength(); j++) {
+						Node setting = settings.item(j);
+						if (setting instanceof Element) {
+							String name = getLocalName(setting);
+							if (!CACHEABLE_SESSION_SETTINGS.contains(name) &&
+									!("logging".equals(name) && this.sessionLog != null)) {
+								return "<" + name + ">";
+							}
+						}
+					}
+				}
+			}
+			return null;
+		}
+		catch (Exception ex) {
+			logger.debug("Could not parse TopLink configuration for caching", ex);
+			return "settings that could not be parsed";
+		}
+	}
+
+	private static String getLocalName(Node node) {
+		String name = node.getNodeName();
+		return name.substring(name.indexOf(':') + 1);
+	}
+
+	private static String getChildText(Element element, String childName) {
+		NodeList children = element.getChildNodes();
+		for (int i = 0; i < children.getLength(); i++) {
+			Node child = children.item(i);
+			if (child instanceof Element && childName.equals(getLocalName(child))) {
+				return child.getTextContent().trim();
+			}
+		}
+		return null;
+	}
+
+	private static byte[] readResource(String location, ClassLoader classLoader) throws IOException {
+		InputStream is = classLoader.getResourceAsStream(location);
+		return (is != null ? FileCopyUtils.copyToByteArray(is) : null);
+	}
+
+	/**
+	 * Create a DatabaseSession from the given configuration cache file, if it exists.
+	 * @return the DatabaseSession, or <code>null</code> if not cached
+	 * or if the cache file could not be read
+	 */
+	private DatabaseSession readConfigCache(File cacheFile, ClassLoader classLoader) {
+		if (!cacheFile.isFile()) {
+			return null;
+		}
+		try {
+			ObjectInputStream ois = new ConfigurableObjectInputStream(new FileInputStream(cacheFile), classLoader);
+			try {
+				boolean serverSession = ois.readBoolean();
+				Project project = (Project) ois.readObject();
+				DatabaseSession session = createSessionFromProject(project, serverSession);
+				if (session != null) {
+					// As SessionManager would do for a session loaded from the sessions.xml file.
+					session.setName(this.sessionName);
+					getSessionManager().addSession(this.sessionName, session);
+				}
+				return session;
+			}
+			finally {
+				ois.close();
+			}
+		}
+		catch (Exception ex) {
+			logger.warn("Could not read TopLink configuration cache file [" + cacheFile + "] - discarding it", ex);
+			cacheFile.delete();
+			return null;
+		}
+	}
+
+	/**
+	 * Write the project of the given (not yet logged in) DatabaseSession
+	 * to the given configuration cache file. Failures are logged only.
+	 */
+	private void writeConfigCache(File cacheFile, DatabaseSession session) {
+		if (session instanceof SessionBroker) {
+			logger.debug("Not caching TopLink configuration for SessionBroker");
+			return;
+		}
+		DatabaseLogin login = session.getLogin();
+		if (login != null && (StringUtils.hasLength(login.getUserName()) || login.getPassword() != null)) {
+			logger.warn("Not caching TopLink configuration: the login defined in [" + this.configLocation +
+					"] holds credentials - specify them through 'loginProperties' or a 'dataSource' instead");
+			return;
+		}
+		File tempFile = new File(cacheFile.getPath() + ".tmp");
+		try {
+			this.configCacheDirectory.mkdirs();
+			ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(tempFile));
+			try {
+				oos.writeBoolean(session instanceof ServerSession);
+				oos.writeObject(session.getProject());
+			}
+			finally {
+				oos.close();
+			}
+			if (!tempFile.renameTo(cacheFile)) {
+				throw new IOException("Could not rename [" + tempFile + "] to [" + cacheFile + "]");
+			}
+		}
+		catch (Exception ex) {
+			logger.warn("Could not write TopLink configuration cache file [" + cacheFile + "]", ex);
+			tempFile.delete();
+		}
+	}
+
 	/**
 	 * Return the TopLink SessionManager to use for loading DatabaseSessions.
 	 * <p>The default implementation creates a new plain SessionManager instance,
@@ -455,4 +760,47 @@ public class LocalSessionFactory {
 		}
 	}
 
+
+	/**
+	 * Holder for the TopLink 10.1.3 API lookups, performed once.
+	 * Fields are <code>null</code> on TopLink 9.0.4.
+	 */
+	private static class TopLinkApi {
+
+		private static final Method setLoginMethod;
+
+		private static final Constructor<?> xmlSessionConfigLoaderConstructor;
+
+		private static final Method getSessionMethod;
+
+		static {
+			Method setLogin = null;
+			try {
+				Class<?> loginClass = DatabaseSession.class.getClassLoader().loadClass("oracle.toplink.sessions.Login");
+				setLogin = DatabaseSession.class.getMethod("setLogin", new Class[] {loginClass});
+			}
+			catch (Exception ex) {
+				// TopLink 9.0.4
+			}
+			setLoginMethod = setLogin;
+
+			Constructor<?> loaderConstructor = null;
+			Method getSession = null;
+			try {
+				Class<?> loaderClass = SessionManager.class.getClassLoader().loadClass(
+						"oracle.toplink.tools.sessionconfiguration.XMLSessionConfigLoader");
+				loaderConstructor = loaderClass.getConstructor(new Class[] {String.class});
+				getSession = SessionManager.class.getMethod("getSession",
+						new Class[] {loaderClass, String.class, ClassLoader.class, boolean.class, boolean.class, boolean.class});
+			}
+			catch (Exception ex) {
+				// TopLink 9.0.4
+				loaderConstructor = null;
+				getSession = null;
+			}
+			xmlSessionConfigLoaderConstructor = loaderConstructor;
+			getSessionMethod = getSession;
+		}
+	}
+
 }
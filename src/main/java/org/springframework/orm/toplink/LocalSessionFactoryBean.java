@@ -17,17 +17,39 @@
 package org.springframework.orm.toplink;
 
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import oracle.toplink.exceptions.DatabaseException;
 import oracle.toplink.exceptions.TopLinkException;
+import oracle.toplink.publicinterface.Descriptor;
+import oracle.toplink.queryframework.DatabaseQuery;
+import oracle.toplink.queryframework.SQLCall;
+import oracle.toplink.sessions.DatabaseRecord;
+import oracle.toplink.sessions.DatabaseSession;
+import oracle.toplink.threetier.ClientSession;
+import oracle.toplink.threetier.ServerSession;
 
 import org.springframework.beans.factory.BeanClassLoaderAware;
 import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.FactoryBean;
 import org.springframework.beans.factory.InitializingBean;
+import org.springframework.core.task.AsyncTaskExecutor;
 import org.springframework.dao.DataAccessException;
 import org.springframework.dao.support.PersistenceExceptionTranslator;
 import org.springframework.jdbc.support.SQLExceptionTranslator;
+import org.springframework.util.CustomizableThreadCreator;
+import org.springframework.util.StopWatch;
 
 /**
  * {@link org.springframework.beans.factory.FactoryBean} that creates a
@@ -54,6 +76,17 @@ import org.springframework.jdbc.support.SQLExceptionTranslator;
  * respectively. Note that you can still access the SessionFactory as well, by
  * defining a bean reference that points directly at the LocalSessionFactoryBean.
  *
+ * <p>An optional warm-up phase after login lets a freshly started node reach
+ * steady-state latency before serving requests: pre-opening connections,
+ * preparing named queries and running warm-up SQL. See
+ * {@link #setWarmUpConnectionCount "warmUpConnectionCount"},
+ * {@link #setPrepareNamedQueries "prepareNamedQueries"} and
+ * {@link #setWarmUpSql "warmUpSql"}; the timing of each step gets logged.
+ *
+ * <p>With a {@link #setBootstrapExecutor "bootstrapExecutor"}, the SessionFactory
+ * gets initialized in the background, overlapping database login with the rest
+ * of the application context startup.
+ *
  * @author Juergen Hoeller
  * @since Spring framework 1.2
  * @see LocalSessionFactory
@@ -67,6 +100,18 @@ public class LocalSessionFactoryBean extends LocalSessionFactory
 
 	private SQLExceptionTranslator jdbcExceptionTranslator;
 
+	private int warmUpConnectionCount = 0;
+
+	private boolean prepareNamedQueries = false;
+
+	private List<String> warmUpSql;
+
+	private long warmUpTimeout = 60000;
+
+	private AsyncTaskExecutor bootstrapExecutor;
+
+	private long bootstrapTimeout = 0;
+
 
 	/**
 	 * Set the JDBC exception translator for this SessionFactory.
@@ -88,6 +133,72 @@ public class LocalSessionFactoryBean extends LocalSessionFactory
 		return this.jdbcExceptionTranslator;
 	}
 
+	/**
+	 * Set the number of connections to open in parallel right after login,
+	 * typically the minimum size of the connection pool. Default is 0.
+	 * <p>Applies to ServerSessions only. The connections get opened by
+	 * client Sessions that begin a transaction each, holding on to their
+	 * connections until all of them have been obtained.
+	 */
+	public void setWarmUpConnectionCount(int warmUpConnectionCount) {
+		this.warmUpConnectionCount = warmUpConnectionCount;
+	}
+
+	/**
+	 * Set whether to prepare the named queries of all descriptors right after
+	 * login, instead of on first execution. Default is "false".
+	 * <p>Queries get prepared one after the other on the startup thread, since
+	 * preparing mutates the descriptors' shared query instances.
+	 * @see oracle.toplink.queryframework.DatabaseQuery#prepareCall
+	 */
+	public void setPrepareNamedQueries(boolean prepareNamedQueries) {
+		this.prepareNamedQueries = prepareNamedQueries;
+	}
+
+	/**
+	 * Specify SQL queries to run right after login, for example to load
+	 * frequently accessed tables into the database's buffer cache.
+	 * Default is none.
+	 */
+	public void setWarmUpSql(List<String> warmUpSql) {
+		this.warmUpSql = warmUpSql;
+	}
+
+	/**
+	 * Set the maximum time to wait for the warm-up connections to be opened,
+	 * in milliseconds. Default is 60000 (1 minute).
+	 */
+	public void setWarmUpTimeout(long warmUpTimeout) {
+		this.warmUpTimeout = warmUpTimeout;
+	}
+
+	/**
+	 * Specify an executor for initializing the SessionFactory in the background.
+	 * Default is none, that is, initialization on the startup thread.
+	 * <p>If specified, <code>afterPropertiesSet</code> returns right away,
+	 * exposing a {@link DeferredSessionFactory} that blocks Session creation
+	 * until the SessionFactory has been initialized. Its readiness can be
+	 * checked through {@link #isSessionFactoryReady()}.
+	 * <p>Note that initialization failures will only surface on first use of
+	 * the SessionFactory, not during application context startup. On shutdown,
+	 * {@link #destroy()} waits for a pending initialization for at most
+	 * {@link DeferredSessionFactory#DEFAULT_CLOSE_TIMEOUT} milliseconds; a
+	 * SessionFactory that completes its login later on closes itself.
+	 * @see #setBootstrapTimeout
+	 */
+	public void setBootstrapExecutor(AsyncTaskExecutor bootstrapExecutor) {
+		this.bootstrapExecutor = bootstrapExecutor;
+	}
+
+	/**
+	 * Set the maximum time that Session creation waits for background
+	 * initialization, in milliseconds. Default is 0, that is, no limit.
+	 * @see #setBootstrapExecutor
+	 */
+	public void setBootstrapTimeout(long bootstrapTimeout) {
+		this.bootstrapTimeout = bootstrapTimeout;
+	}
+
 	/**
 	 * Sets the given bean ClassLoader as TopLink Session ClassLoader.
 	 * @see #setSessionClassLoader
@@ -97,7 +208,179 @@ public class LocalSessionFactoryBean extends LocalSessionFactory
 	}
 
 	public void afterPropertiesSet() throws TopLinkException {
-		this.sessionFactory = createSessionFactory();
+		if (this.bootstrapExecutor != null) {
+			Callable<SessionFactory> initializer = new Callable<SessionFactory>() {
+				public SessionFactory call() {
+					try {
+						return createSessionFactory();
+					}
+					catch (RuntimeException ex) {
+						logger.error("Background initialization of TopLink SessionFactory failed", ex);
+						throw ex;
+					}
+				}
+			};
+			this.sessionFactory = new DeferredSessionFactory(initializer, this.bootstrapExecutor, this.bootstrapTimeout);
+		}
+		else {
+			this.sessionFactory = createSessionFactory();
+		}
+	}
+
+	/**
+	 * Return whether the SessionFactory has been initialized successfully.
+	 * Always <code>true</code> after <code>afterPropertiesSet</code>, unless
+	 * initialization happens in the background.
+	 * @see #setBootstrapExecutor
+	 */
+	public boolean isSessionFactoryReady() {
+		if (this.sessionFactory instanceof DeferredSessionFactory) {
+			return ((DeferredSessionFactory) this.sessionFactory).isReady();
+		}
+		return (this.sessionFactory != null);
+	}
+
+	/**
+	 * Runs the configured warm-up steps. Failures get logged, without
+	 * failing the creation of the SessionFactory.
+	 */
+	protected void postLogin(DatabaseSession session) throws TopLinkException {
+		boolean warmUpConnections = (this.warmUpConnectionCount > 0 && session instanceof ServerSession);
+		if (!warmUpConnections && !this.prepareNamedQueries && this.warmUpSql == null) {
+			return;
+		}
+
+		StopWatch stopWatch = new StopWatch("TopLink Session warm-up");
+		if (warmUpConnections) {
+			stopWatch.start("open " + this.warmUpConnectionCount + " connections");
+			try {
+				openConnections((ServerSession) session);
+			}
+			catch (Exception ex) {
+				logger.warn("Could not open warm-up connections", ex);
+			}
+			stopWatch.stop();
+		}
+		if (this.prepareNamedQueries) {
+			stopWatch.start("prepare named queries");
+			int count = prepareNamedQueries(session);
+			if (logger.isDebugEnabled()) {
+				logger.debug("Prepared " + count + " named queries");
+			}
+			stopWatch.stop();
+		}
+		if (this.warmUpSql != null) {
+			stopWatch.start("run " + this.warmUpSql.size() + " warm-up queries");
+			for (String sql : this.warmUpSql) {
+				try {
+					session.executeSelectingCall(new SQLCall(sql));
+				}
+				catch (TopLinkException ex) {
+					logger.warn("Warm-up query failed: " + sql, ex);
+				}
+			}
+			stopWatch.stop();
+		}
+		if (logger.isInfoEnabled()) {
+			logger.info(stopWatch.prettyPrint());
+		}
+	}
+
+	/**
+	 * Open the configured number of connections in parallel, each through a
+	 * client Session with an active transaction, holding all of them until
+	 * the last one has been obtained. All waiting is bounded by a single
+	 * "warmUpTimeout"; threads still waiting for a connection after that
+	 * get interrupted.
+	 */
+	private void openConnections(final ServerSession serverSession) throws Exception {
+		final CountDownLatch acquired = new CountDownLatch(this.warmUpConnectionCount);
+		final CountDownLatch done = new CountDownLatch(1);
+		final long timeout = this.warmUpTimeout;
+		long deadline = System.currentTimeMillis() + timeout;
+		final CustomizableThreadCreator threadCreator = new CustomizableThreadCreator("TopLinkWarmUp-");
+		threadCreator.setDaemon(true);
+		ExecutorService executor = Executors.newFixedThreadPool(this.warmUpConnectionCount, new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				return threadCreator.createThread(runnable);
+			}
+		});
+		try {
+			List<Future<Object>> futures = new ArrayList<Future<Object>>();
+			for (int i = 0; i < this.warmUpConnectionCount; i++) {
+				futures.add(executor.submit(new Callable<Object>() {
+					public Object call() throws InterruptedException {
+						ClientSession clientSession = serverSession.acquireClientSession();
+						try {
+							clientSession.beginTransaction();
+							try {
+								acquired.countDown();
+								done.await(timeout, TimeUnit.MILLISECONDS);
+							}
+							finally {
+								clientSession.rollbackTransaction();
+							}
+						}
+						finally {
+							clientSession.release();
+						}
+						return null;
+					}
+				}));
+			}
+			boolean allAcquired;
+			try {
+				allAcquired = acquired.await(timeout, TimeUnit.MILLISECONDS);
+			}
+			finally {
+				done.countDown();
+			}
+			if (!allAcquired) {
+				throw new TimeoutException("Only " + (this.warmUpConnectionCount - acquired.getCount()) +
+						" of " + this.warmUpConnectionCount + " warm-up connections opened within " + timeout + " ms");
+			}
+			awaitAll(futures, deadline);
+		}
+		finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Prepare the named queries of all descriptors, one after the other.
+	 * @return the number of prepared queries
+	 */
+	private int prepareNamedQueries(DatabaseSession session) {
+		int count = 0;
+		for (Iterator<?> it = session.getDescriptors().values().iterator(); it.hasNext();) {
+			Descriptor descriptor = (Descriptor) it.next();
+			for (Iterator<?> queries = descriptor.getQueryManager().getAllQueries().iterator(); queries.hasNext();) {
+				DatabaseQuery query = (DatabaseQuery) queries.next();
+				try {
+					query.prepareCall(session, new DatabaseRecord());
+					count++;
+				}
+				catch (TopLinkException ex) {
+					if (logger.isDebugEnabled()) {
+						logger.debug("Could not prepare query '" + query.getName() + "' of " +
+								descriptor.getJavaClass() + " - will be prepared on first execution", ex);
+					}
+				}
+			}
+		}
+		return count;
+	}
+
+	private void awaitAll(List<Future<Object>> futures, long deadline) throws Exception {
+		for (Future<Object> future : futures) {
+			try {
+				future.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+			}
+			catch (ExecutionException ex) {
+				Throwable cause = ex.getCause();
+				throw (cause instanceof Exception ? (Exception) cause : ex);
+			}
+		}
 	}
 
 
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2002-2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.orm.toplink;
+
+/**
+ * {@link TopLinkMetrics} implementation that does not record anything.
+ * The default for {@link TopLinkTemplate} and {@link TopLinkTransactionManager}.
+ *
+ * @since 1.1
+ */
+public final class NoOpTopLinkMetrics implements TopLinkMetrics {
+
+	/** The shared instance */
+	public static final NoOpTopLinkMetrics INSTANCE = new NoOpTopLinkMetrics();
+
+
+	private NoOpTopLinkMetrics() {
+	}
+
+	public void recordOperation(String operation, Class<?> entityClass, long durationNanos, boolean failed) {
+	}
+
+	public void recordSessionAcquisition(long durationNanos) {
+	}
+
+	public void recordCommit(long durationNanos, boolean failed) {
+	}
+
+}
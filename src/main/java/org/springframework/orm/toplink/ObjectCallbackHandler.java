@@ -0,0 +1,44 @@
+/*
+ * Copyright 2002-2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.orm.toplink;
+
+import oracle.toplink.exceptions.TopLinkException;
+
+/**
+ * Callback interface for processing the objects of a cursored read one at a
+ * time, as used by {@link TopLinkTemplate}'s <code>forEach</code> methods.
+ *
+ * <p>Objects passed into <code>processObject</code> are read-only objects
+ * from the plain TopLink Session. They get evicted from the identity map once
+ * the handler returns, so implementations should not keep references to them
+ * beyond the scope of the call unless they are done with the whole read.
+ *
+ * @since 1.1
+ * @see TopLinkOperations#forEach(Class, oracle.toplink.expressions.Expression, int, ObjectCallbackHandler)
+ */
+public interface ObjectCallbackHandler<T> {
+
+	/**
+	 * Process a single object of the cursored result.
+	 * <p>A thrown custom RuntimeException is treated as an application exception:
+	 * It stops the read, closes the cursor and gets propagated to the caller.
+	 * @param object the current result object
+	 * @throws TopLinkException if thrown by the TopLink API
+	 */
+	void processObject(T object) throws TopLinkException;
+
+}
@@ -0,0 +1,305 @@
+/*
+ * Copyright 2002-2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.orm.toplink;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.util.Assert;
+import org.springframework.util.ObjectUtils;
+
+/**
+ * Size-bounded cache for the results of read-only named queries, as used by
+ * {@link TopLinkTemplate#setQueryResultCache TopLinkTemplate}. Entries are keyed
+ * by entity class, query name and arguments, expire after a per-query time to
+ * live, and get evicted in least-recently-used order once the maximum number
+ * of entries has been reached.
+ *
+ * <p>Cached results are shared between callers and must not be modified.
+ * TopLinkTemplate hands out a copy of cached result lists, but the objects
+ * in there are the read-only objects originally returned by TopLink.
+ *
+ * <p>This cache is thread-safe. Lookups are serialized on the cache instance,
+ * which is fine for the typical small set of reference data queries.
+ *
+ * @since 1.1
+ * @see TopLinkTemplate#executeNamedQuery(Class, String, Object[], boolean)
+ */
+public class QueryResultCache {
+
+	/** Default maximum number of cached results */
+	public static final int DEFAULT_MAX_ENTRIES = 1000;
+
+	/** Default time to live for cached results, in milliseconds */
+	public static final long DEFAULT_TIME_TO_LIVE = 60000;
+
+
+	private volatile int maxEntries = DEFAULT_MAX_ENTRIES;
+
+	private volatile long timeToLive = DEFAULT_TIME_TO_LIVE;
+
+	private volatile Map<String, Long> queryTimeToLive = new HashMap<String, Long>();
+
+	private final Map<Key, CachedResult> entries = new LinkedHashMap<Key, CachedResult>(16, 0.75f, true) {
+		protected boolean removeEldestEntry(Map.Entry<Key, CachedResult> eldest) {
+			if (size() > maxEntries) {
+				evictionCount.incrementAndGet();
+				return true;
+			}
+			return false;
+		}
+	};
+
+	private final AtomicLong hitCount = new AtomicLong();
+
+	private final AtomicLong missCount = new AtomicLong();
+
+	private final AtomicLong evictionCount = new AtomicLong();
+
+	private final AtomicLong expirationCount = new AtomicLong();
+
+
+	/**
+	 * Set the maximum number of cached results.
+	 * Default is {@link #DEFAULT_MAX_ENTRIES}.
+	 */
+	public void setMaxEntries(int maxEntries) {
+		Assert.isTrue(maxEntries > 0, "maxEntries must be greater than 0");
+		this.maxEntries = maxEntries;
+	}
+
+	/**
+	 * Return the maximum number of cached results.
+	 */
+	public int getMaxEntries() {
+		return this.maxEntries;
+	}
+
+	/**
+	 * Set the default time to live for cached results, in milliseconds.
+	 * Default is {@link #DEFAULT_TIME_TO_LIVE}. A value of 0 or less
+	 * turns caching off for queries without a specific time to live.
+	 * @see #setQueryTimeToLive
+	 */
+	public void setTimeToLive(long timeToLive) {
+		this.timeToLive = timeToLive;
+	}
+
+	/**
+	 * Return the default time to live for cached results, in milliseconds.
+	 */
+	public long getTimeToLive() {
+		return this.timeToLive;
+	}
+
+	/**
+	 * Specify times to live for specific named queries, with query names as keys
+	 * and times in milliseconds as values. A value of 0 or less turns caching off
+	 * for the corresponding query.
+	 * @see #setTimeToLive
+	 */
+	public void setQueryTimeToLive(Map<String, Long> queryTimeToLive) {
+		this.queryTimeToLive = new HashMap<String, Long>(queryTimeToLive);
+	}
+
+	/**
+	 * Return the time to live for the given named query, in milliseconds.
+	 * @param queryName the name of the query
+	 * @return the time to live (0 or less if results are not to be cached)
+	 */
+	public long getTimeToLive(String queryName) {
+		Long queryTtl = this.queryTimeToLive.get(queryName);
+		return (queryTtl != null ? queryTtl.longValue() : this.timeToLive);
+	}
+
+
+	/**
+	 * Return the cached result for the given query, if any.
+	 * @param entityClass the entity class that has the named query descriptor
+	 * @param queryName the name of the query
+	 * @param args the arguments for the query (can be <code>null</code>)
+	 * @return the cached result, or <code>null</code> if none found
+	 * (a non-null CachedResult can still hold a <code>null</code> result)
+	 */
+	public CachedResult get(Class<?> entityClass, String queryName, Object[] args) {
+		Key key = new Key(entityClass, queryName, args);
+		CachedResult entry;
+		synchronized (this.entries) {
+			entry = this.entries.get(key);
+			if (entry != null && entry.isExpired()) {
+				this.entries.remove(key);
+				this.expirationCount.incrementAndGet();
+				entry = null;
+			}
+		}
+		if (entry != null) {
+			this.hitCount.incrementAndGet();
+		}
+		else {
+			this.missCount.incrementAndGet();
+		}
+		return entry;
+	}
+
+	/**
+	 * Cache the given query result, unless the query's time to live is 0 or less.
+	 * @param entityClass the entity class that has the named query descriptor
+	 * @param queryName the name of the query
+	 * @param args the arguments for the query (can be <code>null</code>)
+	 * @param result the result of the query (can be <code>null</code>)
+	 */
+	public void put(Class<?> entityClass, String queryName, Object[] args, Object result) {
+		long ttl = getTimeToLive(queryName);
+		if (ttl > 0) {
+			CachedResult entry = new CachedResult(result, System.currentTimeMillis() + ttl);
+			synchronized (this.entries) {
+				this.entries.put(new Key(entityClass, queryName, args), entry);
+			}
+		}
+	}
+
+	/**
+	 * Remove all results for queries on the given entity class,
+	 * its superclasses and its subclasses.
+	 * @param entityClass the entity class that has been modified
+	 */
+	public void invalidate(Class<?> entityClass) {
+		synchronized (this.entries) {
+			for (Iterator<Key> it = this.entries.keySet().iterator(); it.hasNext();) {
+				Class<?> cachedClass = it.next().entityClass;
+				if (cachedClass.isAssignableFrom(entityClass) || entityClass.isAssignableFrom(cachedClass)) {
+					it.remove();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Remove all cached results.
+	 */
+	public void clear() {
+		synchronized (this.entries) {
+			this.entries.clear();
+		}
+	}
+
+	/**
+	 * Return the number of currently cached results (including expired ones
+	 * that have not been looked up since).
+	 */
+	public int size() {
+		synchronized (this.entries) {
+			return this.entries.size();
+		}
+	}
+
+	/**
+	 * Return the number of lookups that found a cached result.
+	 */
+	public long getHitCount() {
+		return this.hitCount.get();
+	}
+
+	/**
+	 * Return the number of lookups that did not find a cached result.
+	 */
+	public long getMissCount() {
+		return this.missCount.get();
+	}
+
+	/**
+	 * Return the number of results evicted to stay within the maximum number of entries.
+	 */
+	public long getEvictionCount() {
+		return this.evictionCount.get();
+	}
+
+	/**
+	 * Return the number of results removed because their time to live had passed.
+	 */
+	public long getExpirationCount() {
+		return this.expirationCount.get();
+	}
+
+
+	/**
+	 * A cached query result.
+	 */
+	public static final class CachedResult {
+
+		private final Object result;
+
+		private final long expiresAt;
+
+		private CachedResult(Object result, long expiresAt) {
+			this.result = result;
+			this.expiresAt = expiresAt;
+		}
+
+		/**
+		 * Return the cached result (can be <code>null</code>).
+		 */
+		public Object getResult() {
+			return this.result;
+		}
+
+		private boolean isExpired() {
+			return System.currentTimeMillis() > this.expiresAt;
+		}
+	}
+
+
+	/**
+	 * Cache key: entity class, query name and arguments.
+	 */
+	private static final class Key {
+
+		private final Class<?> entityClass;
+
+		private final String queryName;
+
+		private final Object[] args;
+
+		private Key(Class<?> entityClass, String queryName, Object[] args) {
+			this.entityClass = entityClass;
+			this.queryName = queryName;
+			this.args = (args != null ? args.clone() : new Object[0]);
+		}
+
+		public boolean equals(Object other) {
+			if (this == other) {
+				return true;
+			}
+			if (!(other instanceof Key)) {
+				return false;
+			}
+			Key otherKey = (Key) other;
+			return (this.entityClass.equals(otherKey.entityClass) && this.queryName.equals(otherKey.queryName) &&
+					Arrays.equals(this.args, otherKey.args));
+		}
+
+		public int hashCode() {
+			return (this.entityClass.hashCode() * 29 + this.queryName.hashCode()) * 29 +
+					ObjectUtils.nullSafeHashCode(this.args);
+		}
+	}
+
+}
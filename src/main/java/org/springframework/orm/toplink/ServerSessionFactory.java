@@ -16,6 +16,11 @@
 
 package org.springframework.orm.toplink;
 
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
 import oracle.toplink.exceptions.TopLinkException;
 import oracle.toplink.sessions.Session;
 import oracle.toplink.threetier.ServerSession;
@@ -31,6 +36,10 @@ import oracle.toplink.threetier.ServerSession;
  * <p>Can also create a transaction-aware Session reference that returns the
  * active transactional Session on <code>getActiveSession</code>.
  *
+ * <p>Can optionally pool the plain ClientSessions handed out by
+ * <code>createSession</code>, for avoiding the acquire/release cost for
+ * every read-only operation: see {@link #setPoolMaxSize "poolMaxSize"}.
+ *
  * @author Juergen Hoeller
  * @since Spring framework 1.2
  * @see SingleSessionFactory
@@ -41,6 +50,20 @@ public class ServerSessionFactory extends AbstractSessionFactory {
 
 	private final ServerSession serverSession;
 
+	private int poolMaxSize = 0;
+
+	private long poolMaxIdleTime = 60000;
+
+	private final ConcurrentLinkedQueue<PooledClientSession> pool = new ConcurrentLinkedQueue<PooledClientSession>();
+
+	private final AtomicInteger pooledSessionCount = new AtomicInteger();
+
+	private final AtomicLong poolHitCount = new AtomicLong();
+
+	private final AtomicLong poolMissCount = new AtomicLong();
+
+	private volatile boolean closed = false;
+
 
 	/**
 	 * Create a new ServerSessionFactory for the given ServerSession.
@@ -51,6 +74,180 @@ public class ServerSessionFactory extends AbstractSessionFactory {
 	}
 
 
+	/**
+	 * Set the maximum number of idle ClientSessions to keep for reuse by
+	 * <code>createSession</code>. Default is 0, which turns pooling off.
+	 * <p>Pooled Sessions get returned to the pool on <code>release</code>, rather
+	 * than being released. They are handed out as a new Session reference for
+	 * each checkout, so cannot be cast to ClientSession; <code>getActiveSession()</code>
+	 * exposes the ClientSession itself. Once released, a reference ignores further
+	 * <code>release</code> calls and throws IllegalStateException on any other call.
+	 * <p>Only Sessions that have been used read-only get pooled: a Session that
+	 * acquired a UnitOfWork or executed a non-selecting call during its checkout,
+	 * or that is still in a database transaction, gets released on <code>release</code>.
+	 * Managed client Sessions are never pooled.
+	 * <p>Only use pooling if ClientSessions do not carry per-use state, such as
+	 * exclusive connections or session event listeners.
+	 * @see #createSession()
+	 * @see #isPooledSessionValid
+	 */
+	public void setPoolMaxSize(int poolMaxSize) {
+		this.poolMaxSize = poolMaxSize;
+	}
+
+	/**
+	 * Return the maximum number of idle ClientSessions to keep for reuse.
+	 */
+	public int getPoolMaxSize() {
+		return this.poolMaxSize;
+	}
+
+	/**
+	 * Set the time in milliseconds after which an idle pooled ClientSession
+	 * gets released rather than reused. Default is 60000 (1 minute).
+	 * <p>Idle Sessions are checked when being taken out of the pool.
+	 */
+	public void setPoolMaxIdleTime(long poolMaxIdleTime) {
+		this.poolMaxIdleTime = poolMaxIdleTime;
+	}
+
+	/**
+	 * Return the time in milliseconds after which an idle pooled ClientSession
+	 * gets released rather than reused.
+	 */
+	public long getPoolMaxIdleTime() {
+		return this.poolMaxIdleTime;
+	}
+
+	/**
+	 * Return the number of <code>createSession</code> calls that
+	 * have been served from the pool.
+	 */
+	public long getPoolHitCount() {
+		return this.poolHitCount.get();
+	}
+
+	/**
+	 * Return the number of <code>createSession</code> calls that
+	 * had to acquire a new ClientSession while pooling was active.
+	 */
+	public long getPoolMissCount() {
+		return this.poolMissCount.get();
+	}
+
+	/**
+	 * Return the number of idle ClientSessions currently in the pool.
+	 */
+	public int getPooledSessionCount() {
+		return this.pooledSessionCount.get();
+	}
+
+
+	/**
+	 * Return a pooled ClientSession if pooling is active,
+	 * else a newly acquired one.
+	 * @see #setPoolMaxSize
+	 */
+	public Session createSession() throws TopLinkException {
+		if (this.poolMaxSize <= 0) {
+			return super.createSession();
+		}
+		PooledClientSession pooled = borrowSession();
+		if (pooled != null) {
+			this.poolHitCount.incrementAndGet();
+		}
+		else {
+			this.poolMissCount.incrementAndGet();
+			pooled = new PooledClientSession(super.createSession());
+		}
+		return pooled.checkOut();
+	}
+
+	/**
+	 * Determine whether the given idle ClientSession can be handed out again.
+	 * <p>The default implementation checks whether the ServerSession is still
+	 * connected. Can be overridden for additional checks.
+	 * @param session the pooled ClientSession
+	 * @return whether the Session can be reused
+	 */
+	protected boolean isPooledSessionValid(Session session) {
+		return this.serverSession.isConnected();
+	}
+
+	/**
+	 * Take a valid ClientSession out of the pool, releasing expired
+	 * and invalid ones on the way.
+	 * @return the ClientSession, or <code>null</code> if none available
+	 */
+	private PooledClientSession borrowSession() {
+		long now = System.currentTimeMillis();
+		PooledClientSession pooled;
+		while ((pooled = this.pool.poll()) != null) {
+			this.pooledSessionCount.decrementAndGet();
+			if (now - pooled.returnedAt <= this.poolMaxIdleTime && isPooledSessionValid(pooled.target)) {
+				return pooled;
+			}
+			doRelease(pooled.target);
+		}
+		return null;
+	}
+
+	/**
+	 * Put the given ClientSession back into the pool, or release it
+	 * if it has been used for writing or if the pool is full or closed.
+	 * @param pooled the ClientSession to return
+	 * @param writeAccessed whether the ClientSession has been used for writing
+	 */
+	private void returnSession(PooledClientSession pooled, boolean writeAccessed) {
+		boolean reuse = (!writeAccessed && !this.closed && !isInTransaction(pooled.target));
+		if (reuse && this.pooledSessionCount.incrementAndGet() > this.poolMaxSize) {
+			this.pooledSessionCount.decrementAndGet();
+			reuse = false;
+		}
+		if (reuse) {
+			pooled.returnedAt = System.currentTimeMillis();
+			this.pool.offer(pooled);
+			if (this.closed) {
+				// close() might have drained the pool before our offer.
+				drainPool();
+			}
+		}
+		else {
+			doRelease(pooled.target);
+		}
+	}
+
+	/**
+	 * Release all ClientSessions currently in the pool.
+	 */
+	private void drainPool() {
+		PooledClientSession pooled;
+		while ((pooled = this.pool.poll()) != null) {
+			this.pooledSessionCount.decrementAndGet();
+			doRelease(pooled.target);
+		}
+	}
+
+	/**
+	 * Check whether the given ClientSession is still in a database transaction,
+	 * for example after a <code>beginTransaction()</code> call on the Session
+	 * exposed through <code>getActiveSession()</code>.
+	 */
+	private boolean isInTransaction(Session session) {
+		return (session instanceof oracle.toplink.publicinterface.Session &&
+				((oracle.toplink.publicinterface.Session) session).isInTransaction());
+	}
+
+	private void doRelease(Session session) {
+		try {
+			session.release();
+		}
+		catch (Throwable ex) {
+			logger.debug("Could not release pooled TopLink ClientSession", ex);
+		}
+	}
+
+
 	/**
 	 * Return this factory's ServerSession as-is.
 	 */
@@ -73,8 +270,67 @@ public class ServerSessionFactory extends AbstractSessionFactory {
 	 * @see oracle.toplink.sessions.Session#release()
 	 */
 	public void close() {
+		this.closed = true;
+		drainPool();
 		this.serverSession.logout();
 		this.serverSession.release();
 	}
 
+
+
+	/**
+	 * Pooled ClientSession, together with the time it was last returned.
+	 */
+	private class PooledClientSession {
+
+		private final Session target;
+
+		private volatile long returnedAt;
+
+		public PooledClientSession(Session target) {
+			this.target = target;
+		}
+
+		public Session checkOut() {
+			return CglibSessionProxyFactory.createPooledSession(new Checkout(this));
+		}
+	}
+
+
+	/**
+	 * A single checkout of a pooled ClientSession, backing the Session reference
+	 * handed out for it. Gets detached from the ClientSession on <code>release</code>,
+	 * so that the reference cannot drive or release the ClientSession afterwards.
+	 */
+	private class Checkout implements CglibSessionProxyFactory.PooledSessionCheckout {
+
+		private final PooledClientSession pooled;
+
+		private final AtomicBoolean active = new AtomicBoolean(true);
+
+		private volatile boolean writeAccessed;
+
+		public Checkout(PooledClientSession pooled) {
+			this.pooled = pooled;
+		}
+
+		public Session getTarget() {
+			if (!this.active.get()) {
+				throw new IllegalStateException("Pooled TopLink Session has already been released");
+			}
+			return this.pooled.target;
+		}
+
+		public void writeAccessed() {
+			this.writeAccessed = true;
+		}
+
+		public void released() {
+			// Return to the pool, at most once per checkout.
+			if (this.active.compareAndSet(true, false)) {
+				returnSession(this.pooled, this.writeAccessed);
+			}
+		}
+	}
+
 }
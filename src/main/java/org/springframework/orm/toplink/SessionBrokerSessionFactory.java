@@ -16,11 +16,28 @@
 
 package org.springframework.orm.toplink;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
 import oracle.toplink.exceptions.TopLinkException;
 import oracle.toplink.exceptions.ValidationException;
+import oracle.toplink.queryframework.DatabaseQuery;
 import oracle.toplink.sessionbroker.SessionBroker;
 import oracle.toplink.sessions.Session;
 
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.util.Assert;
+
 /**
  * Spring SessionFactory implementation allowing users to
  * inject a TopLink Session built from a TopLink SessionBroker.
@@ -38,6 +55,11 @@ import oracle.toplink.sessions.Session;
  * the factory will throw UnsupportedOperationExceptions
  * if used to create managed or transaction-aware Sessions.
  *
+ * <p>With a {@link #setScatterGatherExecutor "scatterGatherExecutor"} set,
+ * {@link #executeQueries} dispatches read queries that target different
+ * member databases concurrently, so that a batch of queries spanning several
+ * databases takes as long as the slowest database rather than the sum of all.
+ *
  * @author <a href="mailto:james.x.clark@oracle.com">James Clark</a>
  * @author Juergen Hoeller
  * @since Spring framework 1.2.6
@@ -47,8 +69,53 @@ import oracle.toplink.sessions.Session;
  */
 public class SessionBrokerSessionFactory extends AbstractSessionFactory {
 
+	/**
+	 * Policies for {@link #createSession()} when no client SessionBroker
+	 * can be acquired.
+	 */
+	public enum ClientSessionPolicy {
+
+		/** Rethrow the ValidationException right away */
+		FAIL_FAST,
+
+		/**
+		 * Keep trying to acquire a client SessionBroker for at most
+		 * {@link SessionBrokerSessionFactory#setClientSessionWaitTimeout
+		 * "clientSessionWaitTimeout"} milliseconds while the SessionBroker
+		 * is not connected yet, then rethrow the ValidationException.
+		 * A ValidationException from a connected SessionBroker indicates a
+		 * configuration problem and is rethrown right away.
+		 */
+		WAIT,
+
+		/** Return the shared SessionBroker itself (the default) */
+		FALL_BACK
+	}
+
+
+	/** Operation name for fallbacks to the shared SessionBroker, as reported to TopLinkMetrics */
+	public static final String FALLBACK_OPERATION = "clientSessionBrokerFallback";
+
+	/** Operation name for waits for a client SessionBroker, as reported to TopLinkMetrics */
+	public static final String WAIT_OPERATION = "clientSessionBrokerWait";
+
+	private static final long RETRY_INTERVAL_MILLIS = 10;
+
+
 	private final SessionBroker sessionBroker;
 
+	private ClientSessionPolicy clientSessionPolicy = ClientSessionPolicy.FALL_BACK;
+
+	private long clientSessionWaitTimeout = 1000;
+
+	private final AtomicLong fallbackCount = new AtomicLong();
+
+	private final AtomicLong waitCount = new AtomicLong();
+
+	private final AtomicLong waitTimeNanos = new AtomicLong();
+
+	private AsyncTaskExecutor scatterGatherExecutor;
+
 
 	/**
 	 * Create a new SessionBrokerSessionFactory for the given SessionBroker.
@@ -60,9 +127,96 @@ public class SessionBrokerSessionFactory extends AbstractSessionFactory {
 
 
 	/**
-	 * Try to create a client Session; fall back to the master Session,
-	 * if no client Session can be created (because of the session broker's
-	 * configuration).
+	 * Set the policy to apply when no client SessionBroker can be acquired.
+	 * Default is {@link ClientSessionPolicy#FALL_BACK}, returning the shared
+	 * SessionBroker itself: appropriate for a SessionBroker that aggregates
+	 * plain DatabaseSessions.
+	 * <p>For a SessionBroker that aggregates ServerSessions, falling back
+	 * quietly funnels concurrent work through a single Session. Consider
+	 * {@link ClientSessionPolicy#FAIL_FAST} or {@link ClientSessionPolicy#WAIT}
+	 * there, to make capacity problems surface as exceptions.
+	 * <p>Fallbacks and waits get reported to the {@link #setMetrics "metrics"}
+	 * as {@link #FALLBACK_OPERATION} and {@link #WAIT_OPERATION} operations,
+	 * a failed wait being one that timed out.
+	 * @see #getFallbackCount()
+	 */
+	public void setClientSessionPolicy(ClientSessionPolicy clientSessionPolicy) {
+		Assert.notNull(clientSessionPolicy, "clientSessionPolicy must not be null");
+		this.clientSessionPolicy = clientSessionPolicy;
+	}
+
+	/**
+	 * Return the policy to apply when no client SessionBroker can be acquired.
+	 */
+	public ClientSessionPolicy getClientSessionPolicy() {
+		return this.clientSessionPolicy;
+	}
+
+	/**
+	 * Set the maximum time to wait for a client SessionBroker with the
+	 * {@link ClientSessionPolicy#WAIT} policy, in milliseconds. Default is 1000.
+	 * <p>Waiting only helps while the SessionBroker is still logging in, for
+	 * example when it is connected in the background on startup or after a
+	 * failover: TopLink already blocks inside the connection pool when all
+	 * connections are in use, and a SessionBroker that aggregates plain
+	 * DatabaseSessions will never hand out client SessionBrokers.
+	 * @see #isClientSessionPending
+	 */
+	public void setClientSessionWaitTimeout(long clientSessionWaitTimeout) {
+		Assert.isTrue(clientSessionWaitTimeout >= 0, "clientSessionWaitTimeout must not be negative");
+		this.clientSessionWaitTimeout = clientSessionWaitTimeout;
+	}
+
+	/**
+	 * Return the number of times that the shared SessionBroker has been
+	 * returned because no client SessionBroker could be acquired.
+	 */
+	public long getFallbackCount() {
+		return this.fallbackCount.get();
+	}
+
+	/**
+	 * Return the number of times that {@link #createSession()} had to wait
+	 * for a client SessionBroker.
+	 */
+	public long getWaitCount() {
+		return this.waitCount.get();
+	}
+
+	/**
+	 * Return the total time spent waiting for client SessionBrokers, in milliseconds.
+	 */
+	public long getTotalWaitTime() {
+		return TimeUnit.NANOSECONDS.toMillis(this.waitTimeNanos.get());
+	}
+
+	/**
+	 * Set the executor to dispatch the per-database parts of
+	 * {@link #executeQueries} to. Default is none, executing all queries
+	 * in the calling thread.
+	 * <p>The executor determines the maximum number of concurrent reads, hence
+	 * the maximum number of connections taken from each member database's pool
+	 * at a time: use a bounded executor, for example a ThreadPoolTaskExecutor
+	 * with a fixed maximum pool size.
+	 * @see #executeQueries
+	 */
+	public void setScatterGatherExecutor(AsyncTaskExecutor scatterGatherExecutor) {
+		this.scatterGatherExecutor = scatterGatherExecutor;
+	}
+
+	/**
+	 * Return the executor for scatter/gather query execution, if any.
+	 */
+	public AsyncTaskExecutor getScatterGatherExecutor() {
+		return this.scatterGatherExecutor;
+	}
+
+
+	/**
+	 * Try to create a client Session; if no client Session can be created
+	 * (because of the session broker's configuration or state), apply the
+	 * {@link #setClientSessionPolicy "clientSessionPolicy"}: by default,
+	 * falling back to the master Session.
 	 * @see #createClientSession()
 	 * @see #getMasterSession()
 	 */
@@ -71,12 +225,82 @@ public class SessionBrokerSessionFactory extends AbstractSessionFactory {
 			return createClientSession();
 		}
 		catch (ValidationException ex) {
-			logger.debug(
-					"Could not create TopLink client session for SessionBroker - returning SessionBroker itself", ex);
-			return getMasterSession();
+			switch (this.clientSessionPolicy) {
+				case FAIL_FAST:
+					throw ex;
+				case WAIT:
+					if (!isClientSessionPending(ex)) {
+						throw ex;
+					}
+					return waitForClientSession(ex);
+				default:
+					logger.debug(
+							"Could not create TopLink client session for SessionBroker - returning SessionBroker itself", ex);
+					this.fallbackCount.incrementAndGet();
+					getMetrics().recordOperation(FALLBACK_OPERATION, null, 0, false);
+					return getMasterSession();
+			}
 		}
 	}
 
+	/**
+	 * Retry to create a client Session until the wait timeout has elapsed.
+	 * @param ex the exception thrown by the first attempt
+	 * @throws ValidationException the exception of the last attempt, on timeout
+	 */
+	private Session waitForClientSession(ValidationException ex) {
+		this.waitCount.incrementAndGet();
+		long startTime = System.nanoTime();
+		long deadline = startTime + TimeUnit.MILLISECONDS.toNanos(this.clientSessionWaitTimeout);
+		boolean failed = true;
+		try {
+			ValidationException lastEx = ex;
+			while (System.nanoTime() - deadline < 0) {
+				try {
+					Thread.sleep(RETRY_INTERVAL_MILLIS);
+				}
+				catch (InterruptedException interruptedEx) {
+					Thread.currentThread().interrupt();
+					throw lastEx;
+				}
+				try {
+					Session session = createClientSession();
+					failed = false;
+					return session;
+				}
+				catch (ValidationException retryEx) {
+					if (!isClientSessionPending(retryEx)) {
+						throw retryEx;
+					}
+					lastEx = retryEx;
+				}
+			}
+			logger.debug("Could not create TopLink client session for SessionBroker within " +
+					this.clientSessionWaitTimeout + " ms");
+			throw lastEx;
+		}
+		finally {
+			long waitTime = System.nanoTime() - startTime;
+			this.waitTimeNanos.addAndGet(waitTime);
+			getMetrics().recordOperation(WAIT_OPERATION, null, waitTime, failed);
+		}
+	}
+
+	/**
+	 * Determine whether the given failure to create a client Session may go
+	 * away by waiting, with the {@link ClientSessionPolicy#WAIT} policy.
+	 * <p>The default implementation returns <code>true</code> while the
+	 * SessionBroker is not connected, and <code>false</code> once it is:
+	 * a connected SessionBroker that cannot hand out a client SessionBroker
+	 * will not be able to later on either. Can be overridden in subclasses
+	 * that know of other transient failures.
+	 * @param ex the exception thrown by the attempt to create a client Session
+	 * @see oracle.toplink.sessions.Session#isConnected()
+	 */
+	protected boolean isClientSessionPending(ValidationException ex) {
+		return !this.sessionBroker.isConnected();
+	}
+
 	/**
 	 * Return this factory's SessionBroker as-is.
 	 */
@@ -93,6 +317,153 @@ public class SessionBrokerSessionFactory extends AbstractSessionFactory {
 	}
 
 
+	/**
+	 * Execute the given read queries, scattering them across the member databases
+	 * of the SessionBroker and gathering their results.
+	 * <p>Queries are grouped by the member Session that their reference class is
+	 * mapped to. The groups get executed concurrently on the
+	 * {@link #setScatterGatherExecutor "scatterGatherExecutor"}, each on a Session
+	 * of its own; the queries within a group get executed one after another.
+	 * Queries without reference class form a group of their own each.
+	 * Without executor, or with a single group, all queries get executed
+	 * in the calling thread.
+	 * <p>Note that the queries are executed outside of any current transaction,
+	 * on newly created Sessions: they will not see uncommitted changes.
+	 * Only specify an executor for a server SessionBroker that is able to create
+	 * client SessionBrokers; a plain SessionBroker is not thread-safe.
+	 * @param queries the queries to execute (must not be modified concurrently)
+	 * @return the query results, in the order of the given queries
+	 * @throws org.springframework.dao.DataAccessException in case of TopLink errors,
+	 * converted from the first failed query
+	 * @see #setScatterGatherExecutor
+	 * @see oracle.toplink.sessionbroker.SessionBroker#getSessionForClass
+	 */
+	public List<Object> executeQueries(final List<? extends DatabaseQuery> queries) {
+		if (queries.isEmpty()) {
+			return new ArrayList<Object>();
+		}
+		Map<Object, List<Integer>> groups = groupQueriesByMemberSession(queries);
+		final Object[] results = new Object[queries.size()];
+		if (this.scatterGatherExecutor == null || groups.size() < 2) {
+			executeQueryGroup(queries, allIndexes(queries.size()), results);
+			return toList(results);
+		}
+
+		List<Future<?>> futures = new ArrayList<Future<?>>(groups.size());
+		boolean failed = true;
+		try {
+			for (final List<Integer> group : groups.values()) {
+				futures.add(this.scatterGatherExecutor.submit(new Callable<Object>() {
+					public Object call() {
+						executeQueryGroup(queries, group, results);
+						return null;
+					}
+				}));
+			}
+			for (Future<?> future : futures) {
+				future.get();
+			}
+			failed = false;
+		}
+		catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new DataAccessResourceFailureException("Interrupted while waiting for scattered TopLink queries", ex);
+		}
+		catch (ExecutionException ex) {
+			Throwable cause = ex.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new IllegalStateException("Unexpected exception in scattered TopLink query", cause);
+		}
+		finally {
+			if (failed) {
+				for (Future<?> future : futures) {
+					future.cancel(true);
+				}
+			}
+		}
+		return toList(results);
+	}
+
+	/**
+	 * Determine the member Session that the given query will be executed against,
+	 * as key for grouping queries per database.
+	 * <p>The default implementation asks the SessionBroker for the Session that
+	 * the query's reference class is mapped to.
+	 * @param query the query to execute
+	 * @return the grouping key, or <code>null</code> if not determinable
+	 * (executing the query on its own)
+	 */
+	protected Object getMemberSessionKey(DatabaseQuery query) {
+		Class<?> referenceClass = query.getReferenceClass();
+		if (referenceClass == null) {
+			return null;
+		}
+		try {
+			return this.sessionBroker.getSessionForClass(referenceClass);
+		}
+		catch (TopLinkException ex) {
+			logger.debug("Could not determine member session for class [" + referenceClass.getName() + "]", ex);
+			return null;
+		}
+	}
+
+	private Map<Object, List<Integer>> groupQueriesByMemberSession(List<? extends DatabaseQuery> queries) {
+		Map<Object, List<Integer>> groups = new LinkedHashMap<Object, List<Integer>>();
+		Map<Object, List<Integer>> groupsBySession = new IdentityHashMap<Object, List<Integer>>();
+		for (int i = 0; i < queries.size(); i++) {
+			Object key = getMemberSessionKey(queries.get(i));
+			List<Integer> group = (key != null ? groupsBySession.get(key) : null);
+			if (group == null) {
+				group = new ArrayList<Integer>();
+				groups.put(key != null ? key : new Object(), group);
+				if (key != null) {
+					groupsBySession.put(key, group);
+				}
+			}
+			group.add(i);
+		}
+		return groups;
+	}
+
+	/**
+	 * Execute the queries at the given indexes on a Session of their own,
+	 * storing the results at the same indexes.
+	 */
+	private void executeQueryGroup(List<? extends DatabaseQuery> queries, List<Integer> indexes, Object[] results) {
+		Session session = createSession();
+		try {
+			for (Integer index : indexes) {
+				results[index] = session.executeQuery(queries.get(index));
+			}
+		}
+		catch (TopLinkException ex) {
+			throw SessionFactoryUtils.convertTopLinkAccessException(ex);
+		}
+		finally {
+			SessionFactoryUtils.releaseSession(session, this);
+		}
+	}
+
+	private static List<Integer> allIndexes(int size) {
+		List<Integer> indexes = new ArrayList<Integer>(size);
+		for (int i = 0; i < size; i++) {
+			indexes.add(i);
+		}
+		return indexes;
+	}
+
+	private static List<Object> toList(Object[] results) {
+		List<Object> list = new ArrayList<Object>(results.length);
+		Collections.addAll(list, results);
+		return list;
+	}
+
+
 	/**
 	 * Shut the pre-configured TopLink SessionBroker down.
 	 * @see oracle.toplink.sessions.DatabaseSession#logout()
@@ -22,6 +22,7 @@ import oracle.toplink.exceptions.DatabaseException;
 import oracle.toplink.exceptions.OptimisticLockException;
 import oracle.toplink.exceptions.QueryException;
 import oracle.toplink.exceptions.TopLinkException;
+import oracle.toplink.queryframework.DatabaseQuery;
 import oracle.toplink.sessions.Session;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -146,6 +147,49 @@ public abstract class SessionFactoryUtils {
 		return (sessionHolder != null && session == sessionHolder.getSession());
 	}
 
+	/**
+	 * Return whether the current transaction for the given SessionFactory,
+	 * if any, has a timeout.
+	 * @param sessionFactory TopLink SessionFactory that the transaction is registered for
+	 * (can be <code>null</code>)
+	 * @return whether a transaction timeout applies
+	 * @see #applyTransactionTimeout
+	 */
+	public static boolean hasTransactionTimeout(SessionFactory sessionFactory) {
+		if (sessionFactory == null) {
+			return false;
+		}
+		SessionHolder sessionHolder =
+				(SessionHolder) TransactionSynchronizationManager.getResource(sessionFactory);
+		return (sessionHolder != null && sessionHolder.hasTimeout());
+	}
+
+	/**
+	 * Apply the current transaction timeout, if any, to the given TopLink query:
+	 * the remaining time until the transaction's deadline becomes the query timeout.
+	 * <p>Only pass in queries owned by the caller, not shared ones such as
+	 * a descriptor's named queries: the query object gets modified.
+	 * @param query the TopLink query to apply the timeout to
+	 * @param sessionFactory TopLink SessionFactory that the transaction is registered for
+	 * (can be <code>null</code>)
+	 * @throws org.springframework.transaction.TransactionTimedOutException
+	 * if the transaction deadline has already passed
+	 * @see SessionHolder#getTimeToLiveInSeconds()
+	 * @see oracle.toplink.queryframework.DatabaseQuery#setQueryTimeout
+	 * @see org.springframework.jdbc.datasource.DataSourceUtils#applyTransactionTimeout
+	 */
+	public static void applyTransactionTimeout(DatabaseQuery query, SessionFactory sessionFactory) {
+		Assert.notNull(query, "No DatabaseQuery specified");
+		if (sessionFactory == null) {
+			return;
+		}
+		SessionHolder sessionHolder =
+				(SessionHolder) TransactionSynchronizationManager.getResource(sessionFactory);
+		if (sessionHolder != null && sessionHolder.hasTimeout()) {
+			query.setQueryTimeout(sessionHolder.getTimeToLiveInSeconds());
+		}
+	}
+
 	/**
 	 * Convert the given TopLinkException to an appropriate exception from the
 	 * <code>org.springframework.dao</code> hierarchy.
@@ -35,14 +35,28 @@ public class SessionHolder extends ResourceHolderSupport {
 
 	private final Session session;
 
+	private final boolean shared;
+
 
 	/**
 	 * Create a new SessionHolder for the given TopLink Session.
 	 * @param session the TopLink Session
 	 */
 	public SessionHolder(Session session) {
+		this(session, false);
+	}
+
+	/**
+	 * Create a new SessionHolder for the given TopLink Session.
+	 * @param session the TopLink Session
+	 * @param shared whether the Session is shared between threads,
+	 * hence must not be released at transaction completion
+	 * @since 1.1
+	 */
+	public SessionHolder(Session session, boolean shared) {
 		Assert.notNull(session, "Session must not be null");
 		this.session = session;
+		this.shared = shared;
 	}
 
 	/**
@@ -52,4 +66,13 @@ public class SessionHolder extends ResourceHolderSupport {
 		return session;
 	}
 
+	/**
+	 * Return whether this holder's Session is shared between threads,
+	 * hence must not be released at transaction completion.
+	 * @since 1.1
+	 */
+	public boolean isShared() {
+		return this.shared;
+	}
+
 }
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2002-2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.orm.toplink;
+
+/**
+ * Strategy interface for recording latency metrics of TopLink data access,
+ * as reported by {@link TopLinkTemplate} and {@link TopLinkTransactionManager}.
+ *
+ * <p>Implementations are called on the data access hot path and must be
+ * thread-safe. They should avoid allocation and blocking in the record methods.
+ *
+ * @since 1.1
+ * @see NoOpTopLinkMetrics
+ * @see org.springframework.orm.toplink.support.HdrHistogramTopLinkMetrics
+ * @see TopLinkTemplate#setMetrics
+ * @see TopLinkTransactionManager#setMetrics
+ */
+public interface TopLinkMetrics {
+
+	/**
+	 * Record the execution of a TopLinkTemplate operation.
+	 * @param operation the name of the {@link TopLinkOperations} method
+	 * (for example "readAll" or "merge")
+	 * @param entityClass the entity class that the operation worked on,
+	 * or <code>null</code> if not known
+	 * @param durationNanos the duration of the operation in nanoseconds,
+	 * including Session acquisition and release
+	 * @param failed whether the operation threw an exception
+	 */
+	void recordOperation(String operation, Class<?> entityClass, long durationNanos, boolean failed);
+
+	/**
+	 * Record the acquisition of a TopLink Session, either a thread-bound one
+	 * or a newly created one.
+	 * @param durationNanos the time it took to obtain the Session, in nanoseconds
+	 */
+	void recordSessionAcquisition(long durationNanos);
+
+	/**
+	 * Record the commit of a transaction's UnitOfWork.
+	 * @param durationNanos the duration of the commit in nanoseconds
+	 * @param failed whether the commit threw an exception
+	 */
+	void recordCommit(long durationNanos, boolean failed);
+
+}
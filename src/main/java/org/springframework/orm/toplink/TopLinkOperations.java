@@ -17,11 +17,13 @@
 package org.springframework.orm.toplink;
 
 import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
 
 import oracle.toplink.expressions.Expression;
 import oracle.toplink.queryframework.Call;
 import oracle.toplink.queryframework.DatabaseQuery;
+import oracle.toplink.queryframework.ReadAllQuery;
 import oracle.toplink.sessions.ObjectCopyingPolicy;
 
 import org.springframework.dao.DataAccessException;
@@ -338,6 +340,51 @@ public interface TopLinkOperations {
 			throws DataAccessException;
 
 
+	//-------------------------------------------------------------------------
+	// Convenience methods for cursored reads
+	//-------------------------------------------------------------------------
+
+	/**
+	 * Read all entity instances of the given class that match the given expression
+	 * through a TopLink CursoredStream, handing them to the given callback one
+	 * at a time instead of materializing the entire result list.
+	 * <p>Objects are read from the plain TopLink Session (that is, read-only),
+	 * one page at a time, without putting them into the identity map: the shared
+	 * cache stays as it is, and processed objects become eligible for garbage
+	 * collection. Each page is released from the cursor once consumed. The cursor is closed before this method returns,
+	 * even in case of an exception thrown by the callback.
+	 * @param entityClass the entity class
+	 * @param expression the TopLink expression to match,
+	 * usually built through the TopLink ExpressionBuilder
+	 * @param pageSize the number of objects to fetch per page
+	 * (also used as JDBC fetch size)
+	 * @param handler the callback to process each object with
+	 * @return the number of objects processed
+	 * @throws org.springframework.dao.DataAccessException in case of TopLink errors
+	 * @since 1.1
+	 * @see oracle.toplink.queryframework.ReadAllQuery#useCursoredStream(int, int)
+	 * @see oracle.toplink.queryframework.CursoredStream#releasePrevious()
+	 */
+	<T> int forEach(Class<T> entityClass, Expression expression, int pageSize, ObjectCallbackHandler<? super T> handler)
+			throws DataAccessException;
+
+	/**
+	 * Execute the given ReadAllQuery through a TopLink CursoredStream, handing the
+	 * results to the given callback one at a time.
+	 * <p>The given query object is not modified: a clone of it gets configured for
+	 * cursored reading. See {@link #forEach(Class, Expression, int, ObjectCallbackHandler)}
+	 * for details on the cursor and identity map handling.
+	 * @param query the ReadAllQuery to execute
+	 * @param pageSize the number of objects to fetch per page
+	 * (also used as JDBC fetch size)
+	 * @param handler the callback to process each object with
+	 * @return the number of objects processed
+	 * @throws org.springframework.dao.DataAccessException in case of TopLink errors
+	 * @since 1.1
+	 */
+	<T> int forEach(ReadAllQuery query, int pageSize, ObjectCallbackHandler<T> handler) throws DataAccessException;
+
+
 	//-------------------------------------------------------------------------
 	// Convenience methods for reading an individual object by id
 	//-------------------------------------------------------------------------
@@ -400,6 +447,47 @@ public interface TopLinkOperations {
 	 */
 	<T> T readById(Class<T> entityClass, Object[] keys, boolean enforceReadOnly) throws DataAccessException;
 
+	/**
+	 * Read the entity instances of the given class with the given ids,
+	 * throwing an exception if any of them is not found.
+	 * <p>Retrieves read-write objects from the TopLink UnitOfWork in case of a
+	 * non-read-only transaction, and read-only objects else.
+	 * @param entityClass the entity class
+	 * @param ids the ids of the desired objects (each element either a plain id
+	 * or an Object array with the elements of a composite id)
+	 * @return the entity instances, in the order of the given ids
+	 * @throws org.springframework.orm.ObjectRetrievalFailureException if not found
+	 * @throws org.springframework.dao.DataAccessException in case of TopLink errors
+	 * @since 1.1
+	 * @see #readAllById(Class, java.util.Collection, boolean)
+	 */
+	<T> List<T> readAllById(Class<T> entityClass, Collection<?> ids) throws DataAccessException;
+
+	/**
+	 * Read the entity instances of the given class with the given ids,
+	 * throwing an exception if any of them is not found.
+	 * <p>All ids are resolved within a single Session: the identity map is checked
+	 * first, and only the misses are read from the database, through IN-list
+	 * queries of at most {@link TopLinkTemplate#setMaxInListSize maxInListSize}
+	 * ids each. Entities with a composite primary key are read one by one.
+	 * <p>Ids need to be of the same type as the mapped primary key attribute,
+	 * since they are matched against the keys of the objects read.
+	 * @param entityClass the entity class
+	 * @param ids the ids of the desired objects (each element either a plain id
+	 * or an Object array with the elements of a composite id)
+	 * @param enforceReadOnly whether to always retrieve read-only objects from
+	 * the plain TopLink Session (else, read-write objects will be retrieved
+	 * from the TopLink UnitOfWork in case of a non-read-only transaction)
+	 * @return the entity instances, in the order of the given ids
+	 * @throws org.springframework.orm.ObjectRetrievalFailureException if not found
+	 * @throws org.springframework.dao.DataAccessException in case of TopLink errors
+	 * @since 1.1
+	 * @see oracle.toplink.sessions.IdentityMapAccessor#getFromIdentityMap(java.util.Vector, Class)
+	 * @see oracle.toplink.expressions.Expression#in(java.util.Vector)
+	 */
+	<T> List<T> readAllById(Class<T> entityClass, Collection<?> ids, boolean enforceReadOnly)
+			throws DataAccessException;
+
 	/**
 	 * Read the entity instance of the given class with the given id,
 	 * throwing an exception if not found. A detached copy of the entity object
@@ -572,9 +660,61 @@ public interface TopLinkOperations {
 	 * @return the refreshed versions of the entity objects
 	 * @throws org.springframework.dao.DataAccessException in case of TopLink errors
 	 * @see oracle.toplink.sessions.Session#refreshObject(Object)
+	 * @see TopLinkTemplate#setBatchRefresh
 	 */
 	List refreshAll(Collection<?> entities, boolean enforceReadOnly) throws DataAccessException;
 
+	/**
+	 * Create detached copies of all given entity objects, using TopLink's
+	 * default ObjectCopyingPolicy, copying partitions of the given entities
+	 * in parallel.
+	 * <p>Each partition gets processed on the configured parallel executor,
+	 * with its own TopLink Session. Falls back to {@link #copyAll(Collection)}
+	 * within a transaction, if no parallel executor has been configured,
+	 * or if there is only one partition.
+	 * @param entities the entity objects to copy
+	 * @param partitionSize the maximum number of entities per partition
+	 * @return the copies of the entity objects, in the order of the given entities
+	 * @throws org.springframework.dao.DataAccessException in case of TopLink errors
+	 * @since 1.1
+	 * @see TopLinkTemplate#setParallelExecutor
+	 */
+	List copyAllInParallel(Collection<?> entities, int partitionSize) throws DataAccessException;
+
+	/**
+	 * Create detached copies of all given entity objects, copying partitions
+	 * of the given entities in parallel.
+	 * See {@link #copyAllInParallel(Collection, int)} for details.
+	 * @param entities the entity objects to copy
+	 * @param copyingPolicy the TopLink ObjectCopyingPolicy to apply
+	 * @param partitionSize the maximum number of entities per partition
+	 * @return the copies of the entity objects, in the order of the given entities
+	 * @throws org.springframework.dao.DataAccessException in case of TopLink errors
+	 * @since 1.1
+	 * @see TopLinkTemplate#setParallelExecutor
+	 */
+	List copyAllInParallel(Collection<?> entities, ObjectCopyingPolicy copyingPolicy, int partitionSize)
+			throws DataAccessException;
+
+	/**
+	 * Refresh the given entity objects, refreshing partitions of the given
+	 * entities in parallel and returning the corresponding refreshed objects.
+	 * <p>Each partition gets processed on the configured parallel executor,
+	 * with its own TopLink Session. Within a partition, entities get refreshed
+	 * through one IN-list query per entity class (for entities with a single
+	 * primary key field). Refreshes all entities the same way on a single
+	 * Session within a transaction, if no parallel executor has been configured,
+	 * or if there is only one partition.
+	 * @param entities the entity objects to refresh
+	 * @param partitionSize the maximum number of entities per partition
+	 * @return the refreshed versions of the entity objects, in the order of the
+	 * given entities (<code>null</code> for entities that no longer exist)
+	 * @throws org.springframework.dao.DataAccessException in case of TopLink errors
+	 * @since 1.1
+	 * @see TopLinkTemplate#setParallelExecutor
+	 */
+	List refreshAllInParallel(Collection<?> entities, int partitionSize) throws DataAccessException;
+
 
 	//-------------------------------------------------------------------------
 	// Convenience methods for persisting and deleting objects
@@ -700,6 +840,90 @@ public interface TopLinkOperations {
 	 */
 	void deleteAll(Collection<?> entities) throws DataAccessException;
 
+
+	//-------------------------------------------------------------------------
+	// Convenience methods for chunked bulk operations
+	//-------------------------------------------------------------------------
+
+	/**
+	 * Register all given entities as new objects, committing them in chunks
+	 * of the given size.
+	 * <p>Each chunk is committed in its own UnitOfWork, which gets released
+	 * (together with its clones and backup copies) before the next chunk starts.
+	 * Within a non-read-only transaction, each chunk is processed in a nested
+	 * UnitOfWork of the active UnitOfWork, to be committed with the transaction.
+	 * <p>Entities are pulled from the given Iterable one at a time, so a lazily
+	 * populated source keeps the memory footprint bounded by the chunk size.
+	 * @param entities the entities to register
+	 * @param chunkSize the maximum number of entities per UnitOfWork
+	 * @return statistics for the committed chunks
+	 * @throws org.springframework.dao.DataAccessException in case of TopLink errors
+	 * @since 1.1
+	 * @see oracle.toplink.sessions.UnitOfWork#registerNewObject(Object)
+	 */
+	BulkOperationStatistics registerAllNew(Iterable<?> entities, int chunkSize) throws DataAccessException;
+
+	/**
+	 * Register all entities from the given Iterator as new objects,
+	 * committing them in chunks of the given size.
+	 * @param entities the entities to register
+	 * @param chunkSize the maximum number of entities per UnitOfWork
+	 * @return statistics for the committed chunks
+	 * @throws org.springframework.dao.DataAccessException in case of TopLink errors
+	 * @since 1.1
+	 * @see #registerAllNew(Iterable, int)
+	 */
+	BulkOperationStatistics registerAllNew(Iterator<?> entities, int chunkSize) throws DataAccessException;
+
+	/**
+	 * Merge all given entity copies, committing them in chunks of the given size.
+	 * <p>Follows the same chunking rules as {@link #registerAllNew(Iterable, int)}.
+	 * @param entities the updated copies to merge
+	 * @param chunkSize the maximum number of entities per UnitOfWork
+	 * @return statistics for the committed chunks
+	 * @throws org.springframework.dao.DataAccessException in case of TopLink errors
+	 * @since 1.1
+	 * @see oracle.toplink.sessions.UnitOfWork#mergeClone(Object)
+	 */
+	BulkOperationStatistics mergeAll(Iterable<?> entities, int chunkSize) throws DataAccessException;
+
+	/**
+	 * Merge all entity copies from the given Iterator, committing them
+	 * in chunks of the given size.
+	 * @param entities the updated copies to merge
+	 * @param chunkSize the maximum number of entities per UnitOfWork
+	 * @return statistics for the committed chunks
+	 * @throws org.springframework.dao.DataAccessException in case of TopLink errors
+	 * @since 1.1
+	 * @see #mergeAll(Iterable, int)
+	 */
+	BulkOperationStatistics mergeAll(Iterator<?> entities, int chunkSize) throws DataAccessException;
+
+	/**
+	 * Delete all given entities, committing the deletions in chunks of the given size.
+	 * <p>Follows the same chunking rules as {@link #registerAllNew(Iterable, int)}.
+	 * @param entities the entities to delete
+	 * @param chunkSize the maximum number of entities per UnitOfWork
+	 * @return statistics for the committed chunks
+	 * @throws org.springframework.dao.DataAccessException in case of TopLink errors
+	 * @since 1.1
+	 * @see oracle.toplink.sessions.UnitOfWork#deleteObject(Object)
+	 */
+	BulkOperationStatistics deleteAll(Iterable<?> entities, int chunkSize) throws DataAccessException;
+
+	/**
+	 * Delete all entities from the given Iterator, committing the deletions
+	 * in chunks of the given size.
+	 * @param entities the entities to delete
+	 * @param chunkSize the maximum number of entities per UnitOfWork
+	 * @return statistics for the committed chunks
+	 * @throws org.springframework.dao.DataAccessException in case of TopLink errors
+	 * @since 1.1
+	 * @see #deleteAll(Iterable, int)
+	 */
+	BulkOperationStatistics deleteAll(Iterator<?> entities, int chunkSize) throws DataAccessException;
+
+
 	/**
 	 * Assign sequence number to the object. 
 	 * This allows for an object's id to be assigned before commit. 
@@ -19,22 +19,40 @@ package org.springframework.orm.toplink;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import oracle.toplink.exceptions.TopLinkException;
+import oracle.toplink.publicinterface.Descriptor;
 import oracle.toplink.expressions.Expression;
+import oracle.toplink.expressions.ExpressionBuilder;
 import oracle.toplink.queryframework.Call;
+import oracle.toplink.queryframework.CursoredStream;
 import oracle.toplink.queryframework.DatabaseQuery;
+import oracle.toplink.queryframework.ReadAllQuery;
 import oracle.toplink.queryframework.ReadObjectQuery;
+import oracle.toplink.sessions.IdentityMapAccessor;
 import oracle.toplink.sessions.ObjectCopyingPolicy;
 import oracle.toplink.sessions.Session;
 import oracle.toplink.sessions.UnitOfWork;
 
+import org.springframework.core.task.AsyncTaskExecutor;
 import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DataAccessResourceFailureException;
 import org.springframework.dao.InvalidDataAccessApiUsageException;
 import org.springframework.orm.ObjectRetrievalFailureException;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.util.Assert;
 import org.springframework.util.StringUtils;
 
@@ -69,6 +87,11 @@ import org.springframework.util.StringUtils;
  * multi-threaded execution. The Spring application context will manage its lifecycle,
  * initializing and shutting down the factory as part of the application.
  *
+ * <p>Within a transaction that has a timeout, the named query, <code>readAll</code>,
+ * <code>read</code>, <code>readById</code> and <code>forEach</code> methods use the
+ * time remaining until the transaction's deadline as query timeout.
+ * Queries passed in to <code>executeQuery</code> are left as they are.
+ *
  * <p>Thanks to Slavik Markovich for implementing the initial TopLink support prototype!
  *
  * @author Juergen Hoeller
@@ -84,8 +107,25 @@ import org.springframework.util.StringUtils;
  */
 public class TopLinkTemplate extends TopLinkAccessor implements TopLinkOperations {
 
+	/**
+	 * Default maximum number of ids per IN list, well below the
+	 * 1000 element limit of Oracle.
+	 */
+	public static final int DEFAULT_MAX_IN_LIST_SIZE = 500;
+
+
 	private boolean allowCreate = true;
 
+	private int maxInListSize = DEFAULT_MAX_IN_LIST_SIZE;
+
+	private boolean batchRefresh = false;
+
+	private QueryResultCache queryResultCache;
+
+	private TopLinkMetrics metrics = NoOpTopLinkMetrics.INSTANCE;
+
+	private AsyncTaskExecutor parallelExecutor;
+
 
 	/**
 	 * Create a new TopLinkTemplate instance.
@@ -132,13 +172,140 @@ public class TopLinkTemplate extends TopLinkAccessor implements TopLinkOperation
 		return this.allowCreate;
 	}
 
+	/**
+	 * Set the maximum number of ids to put into a single IN list when reading
+	 * multiple objects by id. Default is {@link #DEFAULT_MAX_IN_LIST_SIZE}.
+	 * <p>Lower this to respect the bind parameter or IN list limits
+	 * of the target database.
+	 * @see #readAllById(Class, java.util.Collection, boolean)
+	 */
+	public void setMaxInListSize(int maxInListSize) {
+		Assert.isTrue(maxInListSize > 0, "maxInListSize must be greater than 0");
+		this.maxInListSize = maxInListSize;
+	}
+
+	/**
+	 * Return the maximum number of ids per IN list.
+	 */
+	public int getMaxInListSize() {
+		return this.maxInListSize;
+	}
+
+	/**
+	 * Set whether <code>refreshAll</code> should refresh entities in batches:
+	 * through one query per entity class and chunk of
+	 * {@link #setMaxInListSize "maxInListSize"} entities, selecting the entities
+	 * by an IN list on their primary key, instead of one query per entity.
+	 * Default is "false".
+	 * <p>Entities with a composite primary key still get refreshed one by one.
+	 * In batched mode, the returned list contains <code>null</code> for
+	 * entities that no longer exist in the database.
+	 * @see #refreshAll(java.util.Collection, boolean)
+	 */
+	public void setBatchRefresh(boolean batchRefresh) {
+		this.batchRefresh = batchRefresh;
+	}
+
+	/**
+	 * Return whether <code>refreshAll</code> refreshes entities in batches.
+	 */
+	public boolean isBatchRefresh() {
+		return this.batchRefresh;
+	}
+
+	/**
+	 * Set a cache for the results of named queries executed through
+	 * <code>executeNamedQuery</code>. Default is none.
+	 * <p>The cache is only used for reading read-only objects: that is, outside of
+	 * non-read-only transactions, or with "enforceReadOnly" specified. Cached
+	 * results for an entity class get invalidated when objects of that class are
+	 * written through this template, and once more after transaction completion.
+	 * Changes applied through other means (such as custom callback code or other
+	 * applications) are only picked up once the cached results expire.
+	 * @see #executeNamedQuery(Class, String, Object[], boolean)
+	 */
+	public void setQueryResultCache(QueryResultCache queryResultCache) {
+		this.queryResultCache = queryResultCache;
+	}
+
+	/**
+	 * Return the cache for the results of named queries, if any.
+	 */
+	public QueryResultCache getQueryResultCache() {
+		return this.queryResultCache;
+	}
+
+	/**
+	 * Set the metrics strategy to report operation durations to.
+	 * Default is {@link NoOpTopLinkMetrics}, not recording anything.
+	 * <p>Every operation gets reported under the name of the corresponding
+	 * {@link TopLinkOperations} method, with the entity class it works on
+	 * (where known). Custom callbacks get reported as "execute".
+	 * @see org.springframework.orm.toplink.support.HdrHistogramTopLinkMetrics
+	 */
+	public void setMetrics(TopLinkMetrics metrics) {
+		this.metrics = (metrics != null ? metrics : NoOpTopLinkMetrics.INSTANCE);
+	}
+
+	/**
+	 * Return the metrics strategy that operation durations get reported to.
+	 */
+	public TopLinkMetrics getMetrics() {
+		return this.metrics;
+	}
+
+	/**
+	 * Set the executor to process the partitions of parallel operations on,
+	 * such as <code>refreshAllInParallel</code>. Default is none, in which case
+	 * those operations fall back to their serial counterparts.
+	 * <p>Each busy executor thread holds a TopLink Session of its own,
+	 * and with it a connection from the read pool: the executor's
+	 * concurrency limit should be sized accordingly.
+	 * @see #copyAllInParallel(java.util.Collection, int)
+	 * @see #refreshAllInParallel(java.util.Collection, int)
+	 */
+	public void setParallelExecutor(AsyncTaskExecutor parallelExecutor) {
+		this.parallelExecutor = parallelExecutor;
+	}
+
+	/**
+	 * Return the executor to process the partitions of parallel operations on, if any.
+	 */
+	public AsyncTaskExecutor getParallelExecutor() {
+		return this.parallelExecutor;
+	}
+
 
 	public <T> T execute(TopLinkCallback<T> action) throws DataAccessException {
+		return execute("execute", null, action);
+	}
+
+	/**
+	 * Execute the given action within a TopLink Session,
+	 * recording its duration under the given operation name.
+	 * @param operation the name of the operation, for metrics
+	 * @param entityClass the entity class the operation works on (may be <code>null</code>)
+	 * @param action callback object that specifies the TopLink action
+	 * @return a result object returned by the action, or <code>null</code>
+	 * @see TopLinkMetrics#recordOperation
+	 */
+	private <T> T execute(String operation, Class<?> entityClass, TopLinkCallback<T> action)
+			throws DataAccessException {
+
 		Assert.notNull(action, "Callback object must not be null");
+		if (action instanceof UnitOfWorkCallback) {
+			assertNoSharedSession();
+		}
 
+		TopLinkMetrics metrics = this.metrics;
+		long startTime = System.nanoTime();
+		boolean failed = true;
 		Session session = SessionFactoryUtils.getSession(getSessionFactory(), this.allowCreate);
+		metrics.recordSessionAcquisition(System.nanoTime() - startTime);
 		try {
-			return action.doInTopLink(session);
+			T result = action.doInTopLink(session);
+			failed = false;
+			return result;
 		}
 		catch (TopLinkException ex) {
 			throw convertTopLinkAccessException(ex);
@@ -149,6 +316,7 @@ public class TopLinkTemplate extends TopLinkAccessor implements TopLinkOperation
 		}
 		finally {
 			SessionFactoryUtils.releaseSession(session, getSessionFactory());
+			metrics.recordOperation(operation, entityClass, System.nanoTime() - startTime, failed);
 		}
 	}
 
@@ -186,14 +354,34 @@ public class TopLinkTemplate extends TopLinkAccessor implements TopLinkOperation
 			final Class<?> entityClass, final String queryName, final Object[] args, final boolean enforceReadOnly)
 			throws DataAccessException {
 
-		return execute(new SessionReadCallback<Object>(enforceReadOnly) {
+		final QueryResultCache cache = this.queryResultCache;
+		if (cache != null && (enforceReadOnly || !isReadWriteTransactionActive())) {
+			QueryResultCache.CachedResult cachedResult = cache.get(entityClass, queryName, args);
+			if (cachedResult != null) {
+				return copyQueryResult(cachedResult.getResult());
+			}
+		}
+
+		return execute("executeNamedQuery", entityClass, new SessionReadCallback<Object>(enforceReadOnly) {
 			protected Object readFromSession(Session session) throws TopLinkException {
-				if (args != null) {
-					return session.executeQuery(queryName, entityClass, new Vector(Arrays.asList(args)));
+				Object result;
+				DatabaseQuery query = (hasTransactionTimeout() ? getNamedQuery(session, entityClass, queryName) : null);
+				if (query != null) {
+					// Work on a copy: the named query is shared between threads.
+					DatabaseQuery queryToUse = (DatabaseQuery) query.clone();
+					result = executeWithTransactionTimeout(session, queryToUse,
+							(args != null ? new Vector(Arrays.asList(args)) : new Vector()));
+				}
+				else if (args != null) {
+					result = session.executeQuery(queryName, entityClass, new Vector(Arrays.asList(args)));
 				}
 				else {
-					return session.executeQuery(queryName, entityClass, new Vector());
+					result = session.executeQuery(queryName, entityClass, new Vector());
+				}
+				if (cache != null && !(session instanceof UnitOfWork)) {
+					cache.put(entityClass, queryName, args, copyQueryResult(result));
 				}
+				return result;
 			}
 		});
 	}
@@ -213,7 +401,7 @@ public class TopLinkTemplate extends TopLinkAccessor implements TopLinkOperation
 	public Object executeQuery(final DatabaseQuery query, final Object[] args, final boolean enforceReadOnly)
 			throws DataAccessException {
 
-		return execute(new SessionReadCallback<Object>(enforceReadOnly) {
+		return execute("executeQuery", query.getReferenceClass(), new SessionReadCallback<Object>(enforceReadOnly) {
 			protected Object readFromSession(Session session) throws TopLinkException {
 				if (args != null) {
 					return session.executeQuery(query, new Vector(Arrays.asList(args)));
@@ -237,8 +425,11 @@ public class TopLinkTemplate extends TopLinkAccessor implements TopLinkOperation
 	
 	@SuppressWarnings("unchecked")
 	public <T> List<T> readAll(final Class<T> entityClass, final boolean enforceReadOnly) throws DataAccessException {
-		return executeFind(new SessionReadCallback<List<T>>(enforceReadOnly) {
+		return execute("readAll", entityClass, new SessionReadCallback<List<T>>(enforceReadOnly) {
 			protected List<T> readFromSession(Session session) throws TopLinkException {
+				if (hasTransactionTimeout()) {
+					return (List<T>) executeWithTransactionTimeout(session, new ReadAllQuery(entityClass), null);
+				}
 				return session.readAllObjects(entityClass);
 			}
 		});
@@ -251,8 +442,12 @@ public class TopLinkTemplate extends TopLinkAccessor implements TopLinkOperation
 	@SuppressWarnings("unchecked")
 	public <T> List<T> readAll(final Class<T> entityClass, final Expression expression, final boolean enforceReadOnly)
 			throws DataAccessException {
-		return executeFind(new SessionReadCallback<List<T>>(enforceReadOnly) {
+		return execute("readAll", entityClass, new SessionReadCallback<List<T>>(enforceReadOnly) {
 			protected List<T> readFromSession(Session session) throws TopLinkException {
+				if (hasTransactionTimeout()) {
+					return (List<T>) executeWithTransactionTimeout(
+							session, new ReadAllQuery(entityClass, expression), null);
+				}
 				return session.readAllObjects(entityClass, expression);
 			}
 		});
@@ -265,8 +460,13 @@ public class TopLinkTemplate extends TopLinkAccessor implements TopLinkOperation
 	@SuppressWarnings("unchecked")
 	public <T> List<T> readAll(final Class<T> entityClass, final Call call, final boolean enforceReadOnly)
 			throws DataAccessException {
-		return executeFind(new SessionReadCallback<List<T>>(enforceReadOnly) {
+		return execute("readAll", entityClass, new SessionReadCallback<List<T>>(enforceReadOnly) {
 			protected List<T> readFromSession(Session session) throws TopLinkException {
+				if (hasTransactionTimeout()) {
+					ReadAllQuery query = new ReadAllQuery(entityClass);
+					query.setCall(call);
+					return (List<T>) executeWithTransactionTimeout(session, query, null);
+				}
 				return session.readAllObjects(entityClass, call);
 			}
 		});
@@ -278,9 +478,12 @@ public class TopLinkTemplate extends TopLinkAccessor implements TopLinkOperation
 
 	public <T> T read(final Class<T> entityClass, final Expression expression, final boolean enforceReadOnly)
 			throws DataAccessException {
-		return execute(new SessionReadCallback<T>(enforceReadOnly) {
+		return execute("read", entityClass, new SessionReadCallback<T>(enforceReadOnly) {
 			@SuppressWarnings("unchecked")
 			protected T readFromSession(Session session) throws TopLinkException {
+				if (hasTransactionTimeout()) {
+					return (T) executeWithTransactionTimeout(session, new ReadObjectQuery(entityClass, expression), null);
+				}
 				return (T)session.readObject(entityClass, expression);
 			}
 		});
@@ -292,15 +495,65 @@ public class TopLinkTemplate extends TopLinkAccessor implements TopLinkOperation
 
 	public <T> T read(final Class<T> entityClass, final Call call, final boolean enforceReadOnly)
 			throws DataAccessException {
-		return execute(new SessionReadCallback<T>(enforceReadOnly) {
+		return execute("read", entityClass, new SessionReadCallback<T>(enforceReadOnly) {
 			@SuppressWarnings("unchecked")
 			protected T readFromSession(Session session) throws TopLinkException {
+				if (hasTransactionTimeout()) {
+					ReadObjectQuery query = new ReadObjectQuery(entityClass);
+					query.setCall(call);
+					return (T) executeWithTransactionTimeout(session, query, null);
+				}
 				return (T)session.readObject(entityClass, call);
 			}
 		});
 	}
 
 
+	//-------------------------------------------------------------------------
+	// Convenience methods for cursored reads
+	//-------------------------------------------------------------------------
+
+	public <T> int forEach(Class<T> entityClass, Expression expression, int pageSize,
+			ObjectCallbackHandler<? super T> handler) throws DataAccessException {
+		return forEach(new ReadAllQuery(entityClass, expression), pageSize, handler);
+	}
+
+	public <T> int forEach(final ReadAllQuery query, final int pageSize, final ObjectCallbackHandler<T> handler)
+			throws DataAccessException {
+
+		Assert.notNull(query, "ReadAllQuery must not be null");
+		Assert.isTrue(pageSize > 0, "Page size must be greater than 0");
+		Assert.notNull(handler, "ObjectCallbackHandler must not be null");
+		return execute("forEach", query.getReferenceClass(), new TopLinkCallback<Integer>() {
+			@SuppressWarnings("unchecked")
+			public Integer doInTopLink(Session session) throws TopLinkException {
+				ReadAllQuery queryToUse = (ReadAllQuery) query.clone();
+				queryToUse.useCursoredStream(pageSize, pageSize);
+				queryToUse.setFetchSize(pageSize);
+				// Keep the streamed objects out of the (possibly shared) identity map.
+				queryToUse.dontMaintainCache();
+				SessionFactoryUtils.applyTransactionTimeout(queryToUse, getSessionFactory());
+				CursoredStream stream = (CursoredStream) session.executeQuery(queryToUse);
+				int count = 0;
+				try {
+					while (stream.hasMoreElements()) {
+						Object object = stream.nextElement();
+						handler.processObject((T) object);
+						if (++count % pageSize == 0) {
+							// Drop the consumed page from the cursor's internal buffer.
+							stream.releasePrevious();
+						}
+					}
+				}
+				finally {
+					stream.close();
+				}
+				return count;
+			}
+		});
+	}
+
+
 	//-------------------------------------------------------------------------
 	// Convenience methods for reading an individual object by id
 	//-------------------------------------------------------------------------
@@ -325,6 +578,7 @@ public class TopLinkTemplate extends TopLinkAccessor implements TopLinkOperation
 
 		ReadObjectQuery query = new ReadObjectQuery(entityClass);
 		query.setSelectionKey(new Vector(Arrays.asList(keys)));
+		SessionFactoryUtils.applyTransactionTimeout(query, getSessionFactory());
 		Object result = executeQuery(query, enforceReadOnly);
 
 		if (result == null) {
@@ -334,6 +588,93 @@ public class TopLinkTemplate extends TopLinkAccessor implements TopLinkOperation
 		return (T)result;
 	}
 
+	public <T> List<T> readAllById(Class<T> entityClass, Collection<?> ids) throws DataAccessException {
+		return readAllById(entityClass, ids, false);
+	}
+
+	public <T> List<T> readAllById(final Class<T> entityClass, final Collection<?> ids, final boolean enforceReadOnly)
+			throws DataAccessException {
+
+		Assert.notNull(ids, "Ids must not be null");
+		return execute("readAllById", entityClass, new SessionReadCallback<List<T>>(enforceReadOnly) {
+			@SuppressWarnings("unchecked")
+			protected List<T> readFromSession(Session session) throws TopLinkException {
+				// Resolve as many ids as possible from the identity map.
+				IdentityMapAccessor identityMapAccessor = session.getIdentityMapAccessor();
+				List<Vector> keys = new ArrayList<Vector>(ids.size());
+				Map<Vector, Object> entities = new HashMap<Vector, Object>();
+				Set<Vector> missingKeys = new LinkedHashSet<Vector>();
+				for (Object id : ids) {
+					Vector key = toPrimaryKey(id);
+					keys.add(key);
+					if (!entities.containsKey(key) && !missingKeys.contains(key)) {
+						Object entity = identityMapAccessor.getFromIdentityMap(key, entityClass);
+						if (entity != null && identityMapAccessor.isValid(entity)) {
+							entities.put(key, entity);
+						}
+						else {
+							missingKeys.add(key);
+						}
+					}
+				}
+
+				// Read the remaining ones from the database.
+				if (!missingKeys.isEmpty()) {
+					List<?> primaryKeyFields = session.getDescriptor(entityClass).getPrimaryKeyFieldNames();
+					if (primaryKeyFields.size() == 1) {
+						String primaryKeyField = (String) primaryKeyFields.get(0);
+						Iterator<Vector> it = missingKeys.iterator();
+						while (it.hasNext()) {
+							Vector inList = new Vector(Math.min(missingKeys.size(), maxInListSize));
+							while (inList.size() < maxInListSize && it.hasNext()) {
+								inList.add(it.next().get(0));
+							}
+							Expression expression = new ExpressionBuilder().getField(primaryKeyField).in(inList);
+							for (Object entity : session.readAllObjects(entityClass, expression)) {
+								entities.put(session.keyFromObject(entity), entity);
+							}
+						}
+					}
+					else {
+						for (Vector key : missingKeys) {
+							ReadObjectQuery query = new ReadObjectQuery(entityClass);
+							query.setSelectionKey(key);
+							Object entity = session.executeQuery(query);
+							if (entity != null) {
+								entities.put(key, entity);
+							}
+						}
+					}
+				}
+
+				List<T> result = new ArrayList<T>(keys.size());
+				for (Vector key : keys) {
+					Object entity = entities.get(key);
+					if (entity == null) {
+						Object identifier = (key.size() == 1 ? key.get(0) : StringUtils.collectionToCommaDelimitedString(key));
+						throw new ObjectRetrievalFailureException(entityClass, identifier);
+					}
+					result.add((T) entity);
+				}
+				return result;
+			}
+		});
+	}
+
+	/**
+	 * Turn the given id into a TopLink primary key Vector.
+	 * @param id a plain id or an Object array holding a composite id
+	 */
+	@SuppressWarnings("unchecked")
+	private static Vector toPrimaryKey(Object id) {
+		if (id instanceof Object[]) {
+			return new Vector(Arrays.asList((Object[]) id));
+		}
+		Vector key = new Vector(1);
+		key.add(id);
+		return key;
+	}
+
 	public <T> T readAndCopy(Class<T> entityClass, Object id) throws DataAccessException {
 		return readAndCopy(entityClass, id, false);
 	}
@@ -371,7 +712,7 @@ public class TopLinkTemplate extends TopLinkAccessor implements TopLinkOperation
 	public <T> T copy(final T entity, final ObjectCopyingPolicy copyingPolicy)
 			throws DataAccessException {
 
-		return execute(new TopLinkCallback<T>() {
+		return execute("copy", classOf(entity), new TopLinkCallback<T>() {
 			@SuppressWarnings("unchecked")
 			public T doInTopLink(Session session) throws TopLinkException {
 				return (T)session.copyObject(entity, copyingPolicy);
@@ -390,7 +731,7 @@ public class TopLinkTemplate extends TopLinkAccessor implements TopLinkOperation
 	@SuppressWarnings("rawtypes")
 	public List copyAll(final Collection<?> entities, final ObjectCopyingPolicy copyingPolicy)
 			throws DataAccessException {
-		return execute(new TopLinkCallback<List>() {
+		return execute("copyAll", null, new TopLinkCallback<List>() {
 			@SuppressWarnings("unchecked")
 			public List doInTopLink(Session session) throws TopLinkException {
 				List result = new ArrayList(entities.size());
@@ -408,7 +749,7 @@ public class TopLinkTemplate extends TopLinkAccessor implements TopLinkOperation
 	}
 
 	public <T> T refresh(final T entity, final boolean enforceReadOnly) throws DataAccessException {
-		return execute(new SessionReadCallback<T>(enforceReadOnly) {
+		return execute("refresh", classOf(entity), new SessionReadCallback<T>(enforceReadOnly) {
 			@SuppressWarnings("unchecked")
 			protected T readFromSession(Session session) throws TopLinkException {
 				return (T)session.refreshObject(entity);
@@ -423,9 +764,12 @@ public class TopLinkTemplate extends TopLinkAccessor implements TopLinkOperation
 
 	@SuppressWarnings("rawtypes")
 	public List refreshAll(final Collection<?> entities, final boolean enforceReadOnly) throws DataAccessException {
-		return execute(new SessionReadCallback<List>(enforceReadOnly) {
+		return execute("refreshAll", null, new SessionReadCallback<List>(enforceReadOnly) {
 			@SuppressWarnings("unchecked")
 			protected List readFromSession(Session session) throws TopLinkException {
+				if (isBatchRefresh()) {
+					return refreshInBatches(session, new ArrayList<Object>(entities));
+				}
 				List result = new ArrayList(entities.size());
 				for (Iterator<?> it = entities.iterator(); it.hasNext();) {
 					Object entity = it.next();
@@ -436,101 +780,220 @@ public class TopLinkTemplate extends TopLinkAccessor implements TopLinkOperation
 		});
 	}
 
+	@SuppressWarnings("rawtypes")
+	public List copyAllInParallel(Collection<?> entities, int partitionSize) throws DataAccessException {
+		ObjectCopyingPolicy copyingPolicy = new ObjectCopyingPolicy();
+		copyingPolicy.cascadeAllParts();
+		copyingPolicy.setShouldResetPrimaryKey(false);
+		return copyAllInParallel(entities, copyingPolicy, partitionSize);
+	}
+
+	@SuppressWarnings("rawtypes")
+	public List copyAllInParallel(
+			Collection<?> entities, final ObjectCopyingPolicy copyingPolicy, int partitionSize)
+			throws DataAccessException {
+
+		Assert.notNull(entities, "Entities must not be null");
+		if (!isParallelExecutionPossible(entities, partitionSize)) {
+			return copyAll(entities, copyingPolicy);
+		}
+		return executeInParallel("copyAllInParallel", entities, partitionSize, new PartitionOperation() {
+			public List<?> apply(Session session, List<?> partition) {
+				List<Object> result = new ArrayList<Object>(partition.size());
+				for (Object entity : partition) {
+					result.add(session.copyObject(entity, copyingPolicy));
+				}
+				return result;
+			}
+		});
+	}
+
+	@SuppressWarnings("rawtypes")
+	public List refreshAllInParallel(final Collection<?> entities, int partitionSize) throws DataAccessException {
+		Assert.notNull(entities, "Entities must not be null");
+		if (!isParallelExecutionPossible(entities, partitionSize)) {
+			// Same semantics as the parallel path: null for entities that no longer exist.
+			return execute("refreshAllInParallel", null, new SessionReadCallback<List>(false) {
+				protected List readFromSession(Session session) throws TopLinkException {
+					return refreshInBatches(session, new ArrayList<Object>(entities));
+				}
+			});
+		}
+		return executeInParallel("refreshAllInParallel", entities, partitionSize, new PartitionOperation() {
+			public List<?> apply(Session session, List<?> partition) {
+				return refreshInBatches(session, partition);
+			}
+		});
+	}
+
+	/**
+	 * Refresh the given entities through one IN-list query per entity class
+	 * and chunk of {@link #getMaxInListSize() maxInListSize} entities.
+	 * Entities with a composite primary key get refreshed one by one.
+	 * @param session the TopLink Session to refresh the entities with
+	 * @param entities the entities to refresh
+	 * @return the refreshed entities, in the order of the given entities
+	 * (<code>null</code> for entities that no longer exist)
+	 */
+	@SuppressWarnings("unchecked")
+	private List<Object> refreshInBatches(Session session, List<?> entities) {
+		// Group the positions of the entities by class, keeping the first-seen order.
+		Map<Class<?>, List<Integer>> positionsByClass = new LinkedHashMap<Class<?>, List<Integer>>();
+		for (int i = 0; i < entities.size(); i++) {
+			Class<?> entityClass = entities.get(i).getClass();
+			List<Integer> positions = positionsByClass.get(entityClass);
+			if (positions == null) {
+				positions = new ArrayList<Integer>();
+				positionsByClass.put(entityClass, positions);
+			}
+			positions.add(i);
+		}
+
+		Object[] result = new Object[entities.size()];
+		for (Map.Entry<Class<?>, List<Integer>> entry : positionsByClass.entrySet()) {
+			Class<?> entityClass = entry.getKey();
+			List<Integer> positions = entry.getValue();
+			List<?> primaryKeyFields = session.getDescriptor(entityClass).getPrimaryKeyFieldNames();
+			if (primaryKeyFields.size() != 1) {
+				for (Integer position : positions) {
+					result[position] = session.refreshObject(entities.get(position));
+				}
+				continue;
+			}
+			String primaryKeyField = (String) primaryKeyFields.get(0);
+			for (int start = 0; start < positions.size(); start += this.maxInListSize) {
+				List<Integer> chunk = positions.subList(start, Math.min(start + this.maxInListSize, positions.size()));
+				Vector inList = new Vector(chunk.size());
+				for (Integer position : chunk) {
+					inList.add(session.keyFromObject(entities.get(position)).get(0));
+				}
+				ReadAllQuery query = new ReadAllQuery(entityClass);
+				query.setSelectionCriteria(new ExpressionBuilder().getField(primaryKeyField).in(inList));
+				query.refreshIdentityMapResult();
+				Map<Vector, Object> refreshed = new HashMap<Vector, Object>();
+				for (Object entity : (List<?>) session.executeQuery(query)) {
+					refreshed.put(session.keyFromObject(entity), entity);
+				}
+				for (Integer position : chunk) {
+					result[position] = refreshed.get(session.keyFromObject(entities.get(position)));
+				}
+			}
+		}
+		return Arrays.asList(result);
+	}
+
 
 	//-------------------------------------------------------------------------
 	// Convenience methods for persisting and deleting objects
 	//-------------------------------------------------------------------------
 
 	public <T> T register(final T entity) {
-		return execute(new UnitOfWorkCallback<T>() {
+		T result = execute("register", classOf(entity), new UnitOfWorkCallback<T>() {
 			@SuppressWarnings("unchecked")
 			protected T doInUnitOfWork(UnitOfWork unitOfWork) throws TopLinkException {
 				return (T)unitOfWork.registerObject(entity);
 			}
 		});
+		invalidateQueryResults(entity);
+		return result;
 	}
 
 	@SuppressWarnings("rawtypes")
 	public List registerAll(final Collection<?> entities) {
-		return execute(new UnitOfWorkCallback<List>() {
+		List result = execute("registerAll", null, new UnitOfWorkCallback<List>() {
 			protected List doInUnitOfWork(UnitOfWork unitOfWork) throws TopLinkException {
 				return unitOfWork.registerAllObjects(entities);
 			}
 		});
+		invalidateQueryResults(entities);
+		return result;
 	}
 
 	public void registerNew(final Object entity) {
-		execute(new UnitOfWorkCallback<Object>() {
+		execute("registerNew", classOf(entity), new UnitOfWorkCallback<Object>() {
 			protected Object doInUnitOfWork(UnitOfWork unitOfWork) throws TopLinkException {
 				return unitOfWork.registerNewObject(entity);
 			}
 		});
+		invalidateQueryResults(entity);
 	}
 
 	public <T> T registerExisting(final T entity) {
-		return execute(new UnitOfWorkCallback<T>() {
+		T result = execute("registerExisting", classOf(entity), new UnitOfWorkCallback<T>() {
 			@SuppressWarnings("unchecked")
 			protected T doInUnitOfWork(UnitOfWork unitOfWork) throws TopLinkException {
 				return (T)unitOfWork.registerExistingObject(entity);
 			}
 		});
+		invalidateQueryResults(entity);
+		return result;
 	}
 
 	public <T> T merge(final T entity) throws DataAccessException {
-		return execute(new UnitOfWorkCallback<T>() {
+		T result = execute("merge", classOf(entity), new UnitOfWorkCallback<T>() {
 			@SuppressWarnings("unchecked")
 			protected T doInUnitOfWork(UnitOfWork unitOfWork) throws TopLinkException {
 				return (T)unitOfWork.mergeClone(entity);
 			}
 		});
+		invalidateQueryResults(entity);
+		return result;
 	}
 
 	public <T> T deepMerge(final T entity) throws DataAccessException {
-		return execute(new UnitOfWorkCallback<T>() {
+		T result = execute("deepMerge", classOf(entity), new UnitOfWorkCallback<T>() {
 			@SuppressWarnings("unchecked")
 			protected T doInUnitOfWork(UnitOfWork unitOfWork) throws TopLinkException {
 				return (T)unitOfWork.deepMergeClone(entity);
 			}
 		});
+		invalidateQueryResults(entity);
+		return result;
 	}
 
 	public <T> T shallowMerge(final T entity) throws DataAccessException {
-		return execute(new UnitOfWorkCallback<T>() {
+		T result = execute("shallowMerge", classOf(entity), new UnitOfWorkCallback<T>() {
 			@SuppressWarnings("unchecked")
 			protected T doInUnitOfWork(UnitOfWork unitOfWork) throws TopLinkException {
 				return (T)unitOfWork.shallowMergeClone(entity);
 			}
 		});
+		invalidateQueryResults(entity);
+		return result;
 	}
 
 	public <T> T mergeWithReferences(final T entity) throws DataAccessException {
-		return execute(new UnitOfWorkCallback<T>() {
+		T result = execute("mergeWithReferences", classOf(entity), new UnitOfWorkCallback<T>() {
 			@SuppressWarnings("unchecked")
 			protected T doInUnitOfWork(UnitOfWork unitOfWork) throws TopLinkException {
 				return (T)unitOfWork.mergeCloneWithReferences(entity);
 			}
 		});
+		invalidateQueryResults(entity);
+		return result;
 	}
 
 	public void delete(final Object entity) throws DataAccessException {
-		execute(new UnitOfWorkCallback<Object>() {
+		execute("delete", classOf(entity), new UnitOfWorkCallback<Object>() {
 			protected Object doInUnitOfWork(UnitOfWork unitOfWork) throws TopLinkException {
 				return unitOfWork.deleteObject(entity);
 			}
 		});
+		invalidateQueryResults(entity);
 	}
 
 	public void deleteAll(final Collection<?> entities) throws DataAccessException {
-		execute(new UnitOfWorkCallback<Object>() {
+		execute("deleteAll", null, new UnitOfWorkCallback<Object>() {
 			protected Object doInUnitOfWork(UnitOfWork unitOfWork) throws TopLinkException {
 				unitOfWork.deleteAllObjects(entities);
 				return null;
 			}
 		});
+		invalidateQueryResults(entities);
 	}
 
 	public void assignSequenceNumber(final Object entity) {
-		execute(new UnitOfWorkCallback<Object>() {
+		execute("assignSequenceNumber", classOf(entity), new UnitOfWorkCallback<Object>() {
 			protected Object doInUnitOfWork(UnitOfWork unitOfWork) throws TopLinkException {
 				unitOfWork.assignSequenceNumber(entity);
 				return null;
@@ -539,11 +1002,371 @@ public class TopLinkTemplate extends TopLinkAccessor implements TopLinkOperation
 	}
 
 	public void assignSequenceNumbers() {
-		execute(new UnitOfWorkCallback<Object>() {
+		execute("assignSequenceNumbers", null, new UnitOfWorkCallback<Object>() {
 			protected Object doInUnitOfWork(UnitOfWork unitOfWork) throws TopLinkException {
 				unitOfWork.assignSequenceNumbers();
 				return null;
 			}
 		});
 	}
+
+
+	//-------------------------------------------------------------------------
+	// Convenience methods for chunked bulk operations
+	//-------------------------------------------------------------------------
+
+	public BulkOperationStatistics registerAllNew(Iterable<?> entities, int chunkSize) throws DataAccessException {
+		Assert.notNull(entities, "Entities must not be null");
+		return registerAllNew(entities.iterator(), chunkSize);
+	}
+
+	public BulkOperationStatistics registerAllNew(Iterator<?> entities, int chunkSize) throws DataAccessException {
+		return executeInChunks("registerAllNew", entities, chunkSize, new ChunkOperation() {
+			public void apply(UnitOfWork unitOfWork, Object entity) {
+				unitOfWork.registerNewObject(entity);
+			}
+		});
+	}
+
+	public BulkOperationStatistics mergeAll(Iterable<?> entities, int chunkSize) throws DataAccessException {
+		Assert.notNull(entities, "Entities must not be null");
+		return mergeAll(entities.iterator(), chunkSize);
+	}
+
+	public BulkOperationStatistics mergeAll(Iterator<?> entities, int chunkSize) throws DataAccessException {
+		return executeInChunks("mergeAll", entities, chunkSize, new ChunkOperation() {
+			public void apply(UnitOfWork unitOfWork, Object entity) {
+				unitOfWork.mergeClone(entity);
+			}
+		});
+	}
+
+	public BulkOperationStatistics deleteAll(Iterable<?> entities, int chunkSize) throws DataAccessException {
+		Assert.notNull(entities, "Entities must not be null");
+		return deleteAll(entities.iterator(), chunkSize);
+	}
+
+	public BulkOperationStatistics deleteAll(Iterator<?> entities, int chunkSize) throws DataAccessException {
+		return executeInChunks("deleteAll", entities, chunkSize, new ChunkOperation() {
+			public void apply(UnitOfWork unitOfWork, Object entity) {
+				unitOfWork.deleteObject(entity);
+			}
+		});
+	}
+
+	/**
+	 * Apply the given operation to all given entities, committing a separate
+	 * UnitOfWork per chunk. Within a transaction, the chunk UnitOfWorks are
+	 * nested in the active UnitOfWork, so the transaction stays atomic.
+	 * @param operationName the name of the operation, for metrics
+	 * @param entities the entities to process
+	 * @param chunkSize the maximum number of entities per UnitOfWork
+	 * @param operation the operation to apply to each entity
+	 * @return statistics for the committed chunks
+	 */
+	private BulkOperationStatistics executeInChunks(String operationName,
+			final Iterator<?> entities, final int chunkSize, final ChunkOperation operation) {
+
+		Assert.notNull(entities, "Entities must not be null");
+		Assert.isTrue(chunkSize > 0, "Chunk size must be greater than 0");
+		assertNoSharedSession();
+		return execute(operationName, null, new TopLinkCallback<BulkOperationStatistics>() {
+			public BulkOperationStatistics doInTopLink(Session session) throws TopLinkException {
+				UnitOfWork activeUnitOfWork = session.getActiveUnitOfWork();
+				Session parent = (activeUnitOfWork != null ? activeUnitOfWork : session);
+				BulkOperationStatistics statistics = new BulkOperationStatistics();
+				Set<Class<?>> entityClasses = new HashSet<Class<?>>();
+				while (entities.hasNext()) {
+					long startTime = System.currentTimeMillis();
+					UnitOfWork unitOfWork = parent.acquireUnitOfWork();
+					int count = 0;
+					try {
+						while (count < chunkSize && entities.hasNext()) {
+							Object entity = entities.next();
+							operation.apply(unitOfWork, entity);
+							entityClasses.add(entity.getClass());
+							count++;
+						}
+						unitOfWork.commit();
+					}
+					finally {
+						// Let go of the chunk's clones before starting on the next chunk.
+						unitOfWork.release();
+					}
+					statistics.addChunk(count, System.currentTimeMillis() - startTime);
+					for (Class<?> entityClass : entityClasses) {
+						invalidateQueryResults(entityClass);
+					}
+					entityClasses.clear();
+				}
+				return statistics;
+			}
+		});
+	}
+
+
+	/**
+	 * Reject write operations within a read-only transaction on the shared
+	 * TopLink Session, which would acquire a UnitOfWork on the master Session
+	 * and commit outside of the transaction.
+	 * @throws InvalidDataAccessApiUsageException if the transactional Session is shared
+	 * @see TopLinkTransactionManager#setSharedReadOnlySession
+	 */
+	private void assertNoSharedSession() {
+		SessionHolder sessionHolder =
+				(SessionHolder) TransactionSynchronizationManager.getResource(getSessionFactory());
+		if (sessionHolder != null && sessionHolder.isShared()) {
+			throw new InvalidDataAccessApiUsageException(
+					"Write operations are not allowed in a read-only transaction on the shared TopLink Session " +
+					"- use a read-write transaction, or switch off TopLinkTransactionManager's " +
+					"\"sharedReadOnlySession\" flag");
+		}
+	}
+
+	/**
+	 * Return whether the current transaction has a timeout to apply to queries.
+	 * @see SessionFactoryUtils#hasTransactionTimeout
+	 */
+	private boolean hasTransactionTimeout() {
+		return SessionFactoryUtils.hasTransactionTimeout(getSessionFactory());
+	}
+
+	/**
+	 * Execute the given query, owned by the caller, with the remaining
+	 * transaction time as query timeout.
+	 * @param session the TopLink Session to execute the query on
+	 * @param query the query to execute
+	 * @param args the query arguments (may be <code>null</code>)
+	 * @return the query result
+	 * @see SessionFactoryUtils#applyTransactionTimeout
+	 */
+	private Object executeWithTransactionTimeout(Session session, DatabaseQuery query, Vector<?> args) {
+		SessionFactoryUtils.applyTransactionTimeout(query, getSessionFactory());
+		return (args != null ? session.executeQuery(query, args) : session.executeQuery(query));
+	}
+
+	/**
+	 * Look up the given named query, as <code>Session.executeQuery(String, Class, Vector)</code>
+	 * would do.
+	 * @return the named query, or <code>null</code> if not found
+	 * (leaving it to TopLink to report the missing query)
+	 */
+	private DatabaseQuery getNamedQuery(Session session, Class<?> entityClass, String queryName) {
+		if (entityClass == null) {
+			return session.getQuery(queryName);
+		}
+		Descriptor descriptor = session.getDescriptor(entityClass);
+		return (descriptor != null ? descriptor.getQueryManager().getQuery(queryName) : null);
+	}
+
+	/**
+	 * Determine whether the given entities can be processed in parallel:
+	 * that is, if a parallel executor has been configured, if there is more than
+	 * one partition, and if there is no thread-bound Session (which would need
+	 * to be used for consistency with the current transaction).
+	 */
+	private boolean isParallelExecutionPossible(Collection<?> entities, int partitionSize) {
+		Assert.isTrue(partitionSize > 0, "Partition size must be greater than 0");
+		return (this.parallelExecutor != null && entities.size() > partitionSize &&
+				!TransactionSynchronizationManager.hasResource(getSessionFactory()));
+	}
+
+	/**
+	 * Apply the given operation to partitions of the given entities on the
+	 * parallel executor, each partition with a TopLink Session of its own.
+	 * @param operationName the name of the operation, for metrics
+	 * @param entities the entities to process
+	 * @param partitionSize the maximum number of entities per partition
+	 * @param operation the operation to apply to each partition
+	 * @return the concatenated results of all partitions, in partition order
+	 */
+	private List<Object> executeInParallel(String operationName,
+			Collection<?> entities, int partitionSize, final PartitionOperation operation) {
+
+		TopLinkMetrics metrics = this.metrics;
+		long startTime = System.nanoTime();
+		boolean failed = true;
+		List<?> entityList = new ArrayList<Object>(entities);
+		List<Future<List<?>>> futures = new ArrayList<Future<List<?>>>();
+		try {
+			for (int start = 0; start < entityList.size(); start += partitionSize) {
+				final List<?> partition = entityList.subList(start, Math.min(start + partitionSize, entityList.size()));
+				futures.add(this.parallelExecutor.submit(new Callable<List<?>>() {
+					public List<?> call() {
+						Session session = getSessionFactory().createSession();
+						try {
+							return operation.apply(session, partition);
+						}
+						catch (TopLinkException ex) {
+							throw convertTopLinkAccessException(ex);
+						}
+						finally {
+							SessionFactoryUtils.releaseSession(session, getSessionFactory());
+						}
+					}
+				}));
+			}
+			List<Object> result = new ArrayList<Object>(entityList.size());
+			for (Future<List<?>> future : futures) {
+				result.addAll(future.get());
+			}
+			failed = false;
+			return result;
+		}
+		catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new DataAccessResourceFailureException(
+					"Interrupted while waiting for parallel TopLink operation '" + operationName + "'", ex);
+		}
+		catch (ExecutionException ex) {
+			Throwable cause = ex.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new IllegalStateException("Unexpected exception in parallel TopLink operation", cause);
+		}
+		finally {
+			if (failed) {
+				for (Future<List<?>> future : futures) {
+					future.cancel(true);
+				}
+			}
+			metrics.recordOperation(operationName, null, System.nanoTime() - startTime, failed);
+		}
+	}
+
+	/**
+	 * Return the class of the given entity, for metrics.
+	 * @param entity the entity (may be <code>null</code>)
+	 */
+	private static Class<?> classOf(Object entity) {
+		return (entity != null ? entity.getClass() : null);
+	}
+
+
+	//-------------------------------------------------------------------------
+	// Helpers for the query result cache
+	//-------------------------------------------------------------------------
+
+	/**
+	 * Determine whether a non-read-only transaction is active,
+	 * in which case queries return read-write objects from the UnitOfWork.
+	 */
+	private boolean isReadWriteTransactionActive() {
+		return (TransactionSynchronizationManager.isActualTransactionActive() &&
+				!TransactionSynchronizationManager.isCurrentTransactionReadOnly());
+	}
+
+	/**
+	 * Return a copy of the given query result if it is a list,
+	 * so that callers cannot modify cached lists.
+	 */
+	private static Object copyQueryResult(Object result) {
+		return (result instanceof List ? new Vector((List<?>) result) : result);
+	}
+
+	/**
+	 * Invalidate cached query results for the classes of the given entities.
+	 */
+	private void invalidateQueryResults(Collection<?> entities) {
+		if (this.queryResultCache != null) {
+			Set<Class<?>> entityClasses = new HashSet<Class<?>>();
+			for (Object entity : entities) {
+				entityClasses.add(entity.getClass());
+			}
+			for (Class<?> entityClass : entityClasses) {
+				invalidateQueryResults(entityClass);
+			}
+		}
+	}
+
+	/**
+	 * Invalidate cached query results for the class of the given entity.
+	 */
+	private void invalidateQueryResults(Object entity) {
+		if (this.queryResultCache != null && entity != null) {
+			invalidateQueryResults(entity.getClass());
+		}
+	}
+
+	/**
+	 * Invalidate cached query results for the given entity class, now and -
+	 * within a transaction - once more after completion, since other threads
+	 * may still read and cache the old state until the transaction commits.
+	 * <p>The entity classes written within a transaction are collected in a
+	 * single synchronization per cache, bound as transactional resource.
+	 */
+	private void invalidateQueryResults(Class<?> entityClass) {
+		QueryResultCache cache = this.queryResultCache;
+		if (cache != null) {
+			cache.invalidate(entityClass);
+			if (TransactionSynchronizationManager.isSynchronizationActive()) {
+				QueryResultInvalidation invalidation =
+						(QueryResultInvalidation) TransactionSynchronizationManager.getResource(cache);
+				if (invalidation == null) {
+					invalidation = new QueryResultInvalidation(cache);
+					TransactionSynchronizationManager.bindResource(cache, invalidation);
+					TransactionSynchronizationManager.registerSynchronization(invalidation);
+				}
+				invalidation.addEntityClass(entityClass);
+			}
+		}
+	}
+
+
+	/**
+	 * Transaction synchronization that invalidates the cached query results
+	 * for the entity classes written within the transaction, once per class.
+	 */
+	private static class QueryResultInvalidation extends TransactionSynchronizationAdapter {
+
+		private final QueryResultCache cache;
+
+		private final Set<Class<?>> entityClasses = new LinkedHashSet<Class<?>>();
+
+		public QueryResultInvalidation(QueryResultCache cache) {
+			this.cache = cache;
+		}
+
+		public void addEntityClass(Class<?> entityClass) {
+			this.entityClasses.add(entityClass);
+		}
+
+		public void suspend() {
+			TransactionSynchronizationManager.unbindResource(this.cache);
+		}
+
+		public void resume() {
+			TransactionSynchronizationManager.bindResource(this.cache, this);
+		}
+
+		public void afterCompletion(int status) {
+			TransactionSynchronizationManager.unbindResourceIfPossible(this.cache);
+			for (Class<?> entityClass : this.entityClasses) {
+				this.cache.invalidate(entityClass);
+			}
+		}
+	}
+
+
+	/**
+	 * Operation to apply to each partition of a parallel operation.
+	 */
+	private interface PartitionOperation {
+
+		List<?> apply(Session session, List<?> partition);
+	}
+
+
+	/**
+	 * Operation to apply to each entity of a chunked bulk operation.
+	 */
+	private interface ChunkOperation {
+
+		void apply(UnitOfWork unitOfWork, Object entity);
+	}
+
 }
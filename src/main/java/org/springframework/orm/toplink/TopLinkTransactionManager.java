@@ -18,17 +18,22 @@ package org.springframework.orm.toplink;
 
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.Collection;
 
 import javax.sql.DataSource;
 
+import oracle.toplink.changesets.ObjectChangeSet;
+import oracle.toplink.changesets.UnitOfWorkChangeSet;
 import oracle.toplink.exceptions.DatabaseException;
 import oracle.toplink.exceptions.TopLinkException;
 import oracle.toplink.internal.databaseaccess.Accessor;
 import oracle.toplink.internal.databaseaccess.DatabaseAccessor;
 import oracle.toplink.sessions.Session;
+import oracle.toplink.sessions.UnitOfWork;
 
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.datasource.ConnectionHandle;
 import org.springframework.jdbc.datasource.ConnectionHolder;
 import org.springframework.jdbc.datasource.JdbcTransactionObjectSupport;
 import org.springframework.jdbc.datasource.TransactionAwareDataSourceProxy;
@@ -71,6 +76,12 @@ import org.springframework.transaction.support.TransactionSynchronizationManager
  * The given DataSource should obviously match the one used by the given TopLink
  * SessionFactory.
  *
+ * <p>Batch writing cannot be switched per transaction: TopLink keeps these settings
+ * in the DatabaseLogin and DatabasePlatform of the Project, which every UnitOfWork
+ * shares with its ServerSession, so changing them for one transaction would change
+ * them for all concurrent ones. Configure batch writing on the DatabaseLogin, or
+ * use a dedicated SessionFactory with its own login for bulk writes.
+ *
  * <p>On JDBC 3.0, this transaction manager supports nested transactions via JDBC 3.0
  * Savepoints. The {@link #setNestedTransactionAllowed} "nestedTransactionAllowed"}
  * flag defaults to "false", though, as nested transactions will just apply to the
@@ -109,8 +120,16 @@ public class TopLinkTransactionManager extends AbstractPlatformTransactionManage
 
 	private boolean lazyDatabaseTransaction = false;
 
+	private boolean lazyConnectionExposure = false;
+
+	private boolean sharedReadOnlySession = false;
+
 	private SQLExceptionTranslator jdbcExceptionTranslator;
 
+	private TopLinkMetrics metrics = NoOpTopLinkMetrics.INSTANCE;
+
+	private CommitListener[] commitListeners = new CommitListener[0];
+
 
 	/**
 	 * Create a new TopLinkTransactionManager instance.
@@ -218,6 +237,84 @@ public class TopLinkTransactionManager extends AbstractPlatformTransactionManage
 		return this.lazyDatabaseTransaction;
 	}
 
+	/**
+	 * Set whether to defer both the start of the database transaction and the
+	 * retrieval of the JDBC Connection until the Connection is actually needed.
+	 * <p>Default is "false": unless "lazyDatabaseTransaction" is set, a database
+	 * transaction is started right away, and the JDBC Connection gets exposed
+	 * to JDBC access code (if a DataSource has been specified) right away too.
+	 * <p>Switch this flag to "true" to keep read-write transactions that do not
+	 * end up writing from holding on to a pooled JDBC Connection. The exposed
+	 * ConnectionHolder will then start the database transaction and retrieve
+	 * the TopLink Session's Connection on first access by JDBC code, while
+	 * TopLink itself starts the database transaction on UnitOfWork commit.
+	 * <p>Like "lazyDatabaseTransaction", this means that TopLink reads before
+	 * the first JDBC access or the commit happen outside of the transactional
+	 * JDBC Connection.
+	 * <p>Only applies to read-write transactions: read-only transactions do not
+	 * start a database transaction, so expose their Connection (if any) eagerly.
+	 * @see #setLazyDatabaseTransaction
+	 * @see #setDataSource
+	 * @see org.springframework.jdbc.datasource.ConnectionHandle
+	 */
+	public void setLazyConnectionExposure(boolean lazyConnectionExposure) {
+		this.lazyConnectionExposure = lazyConnectionExposure;
+	}
+
+	/**
+	 * Return whether to defer the database transaction and the retrieval
+	 * of the JDBC Connection until the Connection is actually needed.
+	 */
+	public boolean isLazyConnectionExposure() {
+		return this.lazyConnectionExposure;
+	}
+
+	/**
+	 * Set whether read-only transactions should work on a shared, thread-safe
+	 * read Session instead of acquiring a Session of their own. Default is "false".
+	 * <p>If "true", read-only transactions run on the SessionFactory's master
+	 * Session (for example, the ServerSession of a ServerSessionFactory), which
+	 * has no UnitOfWork: no client Session gets acquired and released per
+	 * transaction, and read queries do not get registered in a UnitOfWork.
+	 * The transaction's JDBC Connection does not get exposed to plain JDBC code
+	 * either, as the shared Session reads through its connection pool.
+	 * Switch this flag off for read-only transactions that need to expose
+	 * their JDBC Connection through the {@link #setDataSource "dataSource"}.
+	 * <p>The shared Session cannot acquire a UnitOfWork either: TopLinkTemplate
+	 * rejects UnitOfWorkCallbacks (such as <code>merge</code> or
+	 * <code>register</code>) and chunked bulk operations (such as
+	 * <code>mergeAll</code>) within such a transaction with an
+	 * InvalidDataAccessApiUsageException. Switch this flag off for read-only
+	 * transactions that still perform writes through a temporary UnitOfWork.
+	 * <p>Only applies to SessionFactories derived from AbstractSessionFactory,
+	 * also when initialized in the background behind a DeferredSessionFactory;
+	 * read-only transactions on other SessionFactories acquire a Session as usual.
+	 * @see #getSharedReadOnlySession()
+	 * @see AbstractSessionFactory#getMasterSession()
+	 */
+	public void setSharedReadOnlySession(boolean sharedReadOnlySession) {
+		this.sharedReadOnlySession = sharedReadOnlySession;
+	}
+
+	/**
+	 * Return whether read-only transactions work on a shared read Session.
+	 */
+	public boolean isSharedReadOnlySession() {
+		return this.sharedReadOnlySession;
+	}
+
+	/**
+	 * Set listeners to receive a {@link CommitReport} after each commit of a
+	 * read-write transaction: object counts and the commit duration.
+	 * <p>Object counts require UnitOfWorks derived from
+	 * <code>oracle.toplink.publicinterface.UnitOfWork</code>; they get taken
+	 * from the change set calculated by the commit itself, at no extra cost.
+	 * @see org.springframework.orm.toplink.support.HdrHistogramCommitListener
+	 */
+	public void setCommitListeners(CommitListener[] commitListeners) {
+		this.commitListeners = (commitListeners != null ? commitListeners : new CommitListener[0]);
+	}
+
 	/**
 	 * Set the JDBC exception translator for this transaction manager.
 	 * <p>Applied to any SQLException root cause of a TopLink DatabaseException
@@ -240,6 +337,23 @@ public class TopLinkTransactionManager extends AbstractPlatformTransactionManage
 		return this.jdbcExceptionTranslator;
 	}
 
+	/**
+	 * Set the metrics strategy to report Session creation and commit durations to.
+	 * Default is {@link NoOpTopLinkMetrics}, not recording anything.
+	 * @see TopLinkMetrics#recordSessionAcquisition
+	 * @see TopLinkMetrics#recordCommit
+	 */
+	public void setMetrics(TopLinkMetrics metrics) {
+		this.metrics = (metrics != null ? metrics : NoOpTopLinkMetrics.INSTANCE);
+	}
+
+	/**
+	 * Return the metrics strategy that durations get reported to.
+	 */
+	public TopLinkMetrics getMetrics() {
+		return this.metrics;
+	}
+
 	public void afterPropertiesSet() {
 		if (getSessionFactory() == null) {
 			throw new IllegalArgumentException("Property 'sessionFactory' is required");
@@ -266,9 +380,18 @@ public class TopLinkTransactionManager extends AbstractPlatformTransactionManage
 
 	protected void doBegin(Object transaction, TransactionDefinition definition) {
 		Session session = null;
+		boolean shared = false;
 
 		try {
-			if (!definition.isReadOnly()) {
+			long startTime = System.nanoTime();
+			if (definition.isReadOnly() && isSharedReadOnlySession()) {
+				session = getSharedReadOnlySession();
+				shared = (session != null);
+			}
+			if (shared) {
+				logger.debug("Using shared TopLink Session for read-only transaction");
+			}
+			else if (!definition.isReadOnly()) {
 				logger.debug("Creating managed TopLink Session with active UnitOfWork for read-write transaction");
 				session = getSessionFactory().createManagedClientSession();
 			}
@@ -276,13 +399,14 @@ public class TopLinkTransactionManager extends AbstractPlatformTransactionManage
 				logger.debug("Creating plain TopLink Session without active UnitOfWork for read-only transaction");
 				session = getSessionFactory().createSession();
 			}
+			this.metrics.recordSessionAcquisition(System.nanoTime() - startTime);
 
 			if (logger.isDebugEnabled()) {
 				logger.debug("Opened new session [" + session + "] for TopLink transaction");
 			}
 
 			TopLinkTransactionObject txObject = (TopLinkTransactionObject) transaction;
-			txObject.setSessionHolder(new SessionHolder(session));
+			txObject.setSessionHolder(new SessionHolder(session, shared));
 			txObject.getSessionHolder().setSynchronizedWithTransaction(true);
 
 			// Register transaction timeout.
@@ -293,12 +417,30 @@ public class TopLinkTransactionManager extends AbstractPlatformTransactionManage
 
 			// Enforce early database transaction for TopLink read-write transaction,
 			// unless we are explicitly told to use lazy transactions.
-			if (!definition.isReadOnly() && !isLazyDatabaseTransaction()) {
+			if (!definition.isReadOnly() && !isLazyDatabaseTransaction() && !isLazyConnectionExposure()) {
 				session.getActiveUnitOfWork().beginEarlyTransaction();
 			}
 
 			// Register the TopLink Session's JDBC Connection for the DataSource, if set.
-			if (getDataSource() != null) {
+			// A shared Session is not tied to a JDBC Connection: nothing to expose.
+			if (shared) {
+				if (logger.isDebugEnabled()) {
+					logger.debug("Not exposing shared TopLink Session [" + session + "] as JDBC transaction");
+				}
+			}
+			else if (getDataSource() != null && isLazyConnectionExposure() && !definition.isReadOnly()) {
+				// Expose a handle that starts the database transaction on first use.
+				ConnectionHolder conHolder = new ConnectionHolder(new LazyConnectionHandle(session.getActiveUnitOfWork()));
+				if (timeout != TransactionDefinition.TIMEOUT_DEFAULT) {
+					conHolder.setTimeoutInSeconds(timeout);
+				}
+				if (logger.isDebugEnabled()) {
+					logger.debug("Exposing TopLink transaction [" + session + "] as lazy JDBC transaction");
+				}
+				TransactionSynchronizationManager.bindResource(getDataSource(), conHolder);
+				txObject.setConnectionHolder(conHolder);
+			}
+			else if (getDataSource() != null) {
 				Session mostSpecificSession = (!definition.isReadOnly() ? session.getActiveUnitOfWork() : session);
 				Connection con = getJdbcConnection(mostSpecificSession);
 				if (con != null) {
@@ -325,21 +467,52 @@ public class TopLinkTransactionManager extends AbstractPlatformTransactionManage
 		}
 
 		catch (Exception ex) {
-			SessionFactoryUtils.releaseSession(session, getSessionFactory());
+			if (!shared) {
+				SessionFactoryUtils.releaseSession(session, getSessionFactory());
+			}
 			throw new CannotCreateTransactionException("Could not open TopLink Session for transaction", ex);
 		}
 	}
 
+	/**
+	 * Return the shared Session for read-only transactions, if any.
+	 * <p>Default implementation returns the master Session of an
+	 * AbstractSessionFactory, and <code>null</code> for other SessionFactories.
+	 * @return the shared Session, or <code>null</code> to acquire a Session
+	 * for each read-only transaction
+	 * @see #setSharedReadOnlySession
+	 * @see AbstractSessionFactory#getMasterSession()
+	 */
+	protected Session getSharedReadOnlySession() {
+		SessionFactory sf = getSessionFactory();
+		if (sf instanceof DeferredSessionFactory) {
+			sf = ((DeferredSessionFactory) sf).getTargetSessionFactory();
+		}
+		if (sf instanceof AbstractSessionFactory) {
+			return ((AbstractSessionFactory) sf).getMasterSession();
+		}
+		return null;
+	}
+
 	/**
 	 * Extract the underlying JDBC Connection from the given TopLink Session.
 	 * <p>Default implementation casts to <code>oracle.toplink.publicinterface.Session</code>
 	 * and fetches the Connection from the DatabaseAccessor exposed there.
+	 * Session references such as pooled ClientSessions get resolved to
+	 * their target through <code>getActiveSession()</code> first.
 	 * @param session the current TopLink Session
 	 * @return the underlying JDBC Connection, or <code>null</code> if none found
 	 * @see oracle.toplink.publicinterface.Session#getAccessor()
 	 * @see oracle.toplink.internal.databaseaccess.DatabaseAccessor#getConnection()
+	 * @see ServerSessionFactory#setPoolMaxSize
 	 */
 	protected Connection getJdbcConnection(Session session) {
+		if (!(session instanceof oracle.toplink.publicinterface.Session)) {
+			Session activeSession = session.getActiveSession();
+			if (activeSession instanceof oracle.toplink.publicinterface.Session) {
+				session = activeSession;
+			}
+		}
 		if (!(session instanceof oracle.toplink.publicinterface.Session)) {
 			if (logger.isDebugEnabled()) {
 				logger.debug("TopLink Session [" + session +
@@ -382,7 +555,26 @@ public class TopLinkTransactionManager extends AbstractPlatformTransactionManage
 		}
 		try {
 			if (!status.isReadOnly()) {
-				txObject.getSessionHolder().getSession().getActiveUnitOfWork().commit();
+				// Fail fast if the transaction deadline has passed already,
+				// rather than writing changes that nobody waits for anymore.
+				if (txObject.getSessionHolder().hasTimeout()) {
+					txObject.getSessionHolder().getTimeToLiveInMillis();
+				}
+				UnitOfWork uow = txObject.getSessionHolder().getSession().getActiveUnitOfWork();
+				if (this.commitListeners.length > 0) {
+					commitWithReport(uow);
+				}
+				else {
+					long startTime = System.nanoTime();
+					boolean failed = true;
+					try {
+						uow.commit();
+						failed = false;
+					}
+					finally {
+						this.metrics.recordCommit(System.nanoTime() - startTime, failed);
+					}
+				}
 			}
 			txObject.getSessionHolder().clear();
 		}
@@ -391,6 +583,56 @@ public class TopLinkTransactionManager extends AbstractPlatformTransactionManage
 		}
 	}
 
+	/**
+	 * Commit the given UnitOfWork, passing a CommitReport to the registered
+	 * CommitListeners afterwards - also if the commit failed.
+	 * <p>Object counts get taken from the change set that the commit itself
+	 * calculated, so reporting does not cost a change calculation of its own.
+	 */
+	private void commitWithReport(UnitOfWork uow) {
+		oracle.toplink.publicinterface.UnitOfWork uowImpl =
+				(uow instanceof oracle.toplink.publicinterface.UnitOfWork ?
+						(oracle.toplink.publicinterface.UnitOfWork) uow : null);
+		// Objects deleted in the UnitOfWork itself, as opposed to the change set.
+		int deletedCount = (uowImpl != null && uowImpl.getDeletedObjects() != null ?
+				uowImpl.getDeletedObjects().size() : 0);
+		long startTime = System.nanoTime();
+		boolean failed = true;
+		try {
+			uow.commit();
+			failed = false;
+		}
+		finally {
+			long commitTime = System.nanoTime() - startTime;
+			this.metrics.recordCommit(commitTime, failed);
+			int newCount = 0;
+			int changedCount = 0;
+			UnitOfWorkChangeSet changeSet = (uowImpl != null ? uowImpl.getUnitOfWorkChangeSet() : null);
+			if (changeSet != null) {
+				Collection<?> objectChangeSets = changeSet.getAllChangeSets();
+				for (Object element : objectChangeSets) {
+					ObjectChangeSet objectChangeSet = (ObjectChangeSet) element;
+					if (objectChangeSet.isNew()) {
+						newCount++;
+					}
+					else if (objectChangeSet.hasChanges()) {
+						changedCount++;
+					}
+				}
+			}
+			CommitReport report = new CommitReport(TransactionSynchronizationManager.getCurrentTransactionName(),
+					newCount, changedCount, deletedCount, commitTime, failed);
+			for (CommitListener listener : this.commitListeners) {
+				try {
+					listener.commitCompleted(report);
+				}
+				catch (RuntimeException ex) {
+					logger.warn("CommitListener [" + listener + "] failed to process " + report, ex);
+				}
+			}
+		}
+	}
+
 	protected void doRollback(DefaultTransactionStatus status) {
 		TopLinkTransactionObject txObject = (TopLinkTransactionObject) status.getTransaction();
 		if (status.isDebug()) {
@@ -420,6 +662,11 @@ public class TopLinkTransactionManager extends AbstractPlatformTransactionManage
 			TransactionSynchronizationManager.unbindResource(getDataSource());
 		}
 
+		// Leave a shared Session alone.
+		if (txObject.getSessionHolder().isShared()) {
+			return;
+		}
+
 		Session session = txObject.getSessionHolder().getSession();
 		if (logger.isDebugEnabled()) {
 			logger.debug("Releasing TopLink Session [" + session + "] after transaction");
@@ -456,6 +703,40 @@ public class TopLinkTransactionManager extends AbstractPlatformTransactionManage
 	}
 
 
+	/**
+	 * ConnectionHandle that starts the database transaction on the given
+	 * TopLink Session (if it is a UnitOfWork) and retrieves its JDBC Connection
+	 * on first access.
+	 */
+	private class LazyConnectionHandle implements ConnectionHandle {
+
+		private final Session session;
+
+		private boolean transactionBegun = false;
+
+		public LazyConnectionHandle(Session session) {
+			this.session = session;
+		}
+
+		public Connection getConnection() {
+			if (!this.transactionBegun && this.session instanceof UnitOfWork) {
+				((UnitOfWork) this.session).beginEarlyTransaction();
+				this.transactionBegun = true;
+			}
+			Connection con = getJdbcConnection(this.session);
+			if (con == null) {
+				throw new IllegalStateException("Cannot expose TopLink transaction [" + this.session +
+						"] as JDBC transaction because no JDBC Connection could be retrieved from it");
+			}
+			return con;
+		}
+
+		public void releaseConnection(Connection con) {
+			// The Connection is owned by the TopLink Session.
+		}
+	}
+
+
 	/**
 	 * TopLink transaction object, representing a SessionHolder.
 	 * Used as transaction object by TopLinkTransactionManager.
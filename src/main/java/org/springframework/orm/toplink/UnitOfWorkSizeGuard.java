@@ -0,0 +1,99 @@
+/*
+ * Copyright 2002-2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.orm.toplink;
+
+import oracle.toplink.sessions.UnitOfWork;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.springframework.dao.InvalidDataAccessApiUsageException;
+
+/**
+ * Checks the number of objects registered in the UnitOfWork of a "managed"
+ * client Session whenever the UnitOfWork gets accessed, applying the
+ * configured {@link AbstractSessionFactory.UnitOfWorkSizePolicy} once the
+ * threshold has been exceeded.
+ *
+ * <p>One instance per managed client Session. Not thread-safe, just like
+ * the UnitOfWork itself.
+ *
+ * @since 1.1
+ * @see AbstractSessionFactory#setMaxUnitOfWorkSize
+ */
+final class UnitOfWorkSizeGuard {
+
+	private static final Log logger = LogFactory.getLog(UnitOfWorkSizeGuard.class);
+
+	private final UnitOfWork unitOfWork;
+
+	private final int maxSize;
+
+	private final AbstractSessionFactory.UnitOfWorkSizePolicy policy;
+
+	private final TopLinkMetrics metrics;
+
+	private boolean exceeded = false;
+
+
+	public UnitOfWorkSizeGuard(UnitOfWork unitOfWork, int maxSize,
+			AbstractSessionFactory.UnitOfWorkSizePolicy policy, TopLinkMetrics metrics) {
+
+		this.unitOfWork = unitOfWork;
+		this.maxSize = maxSize;
+		this.policy = policy;
+		this.metrics = metrics;
+	}
+
+
+	/**
+	 * Return the guarded UnitOfWork, after checking its size.
+	 * @throws InvalidDataAccessApiUsageException if the threshold has been
+	 * exceeded, with the FAIL policy
+	 */
+	public UnitOfWork getUnitOfWork() {
+		if (!this.exceeded || this.policy == AbstractSessionFactory.UnitOfWorkSizePolicy.FAIL) {
+			checkSize();
+		}
+		return this.unitOfWork;
+	}
+
+	private void checkSize() {
+		if (!(this.unitOfWork instanceof oracle.toplink.publicinterface.UnitOfWork)) {
+			return;
+		}
+		int size = ((oracle.toplink.publicinterface.UnitOfWork) this.unitOfWork).getCloneMapping().size();
+		if (size <= this.maxSize) {
+			return;
+		}
+		boolean fail = (this.policy == AbstractSessionFactory.UnitOfWorkSizePolicy.FAIL);
+		if (!this.exceeded) {
+			this.exceeded = true;
+			this.metrics.recordOperation(AbstractSessionFactory.UNIT_OF_WORK_SIZE_EXCEEDED_OPERATION, null, 0, fail);
+			if (!fail) {
+				logger.warn("TopLink UnitOfWork [" + this.unitOfWork + "] holds " + size +
+						" registered objects, exceeding the threshold of " + this.maxSize +
+						" - consider splitting the work into several transactions");
+			}
+		}
+		if (fail) {
+			throw new InvalidDataAccessApiUsageException("TopLink UnitOfWork holds " + size +
+					" registered objects, exceeding the maximum of " + this.maxSize +
+					" - split the work into several transactions");
+		}
+	}
+
+}
@@ -0,0 +1,394 @@
+/*
+ * Copyright 2002-2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.orm.toplink.support;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import oracle.toplink.logging.AbstractSessionLog;
+import oracle.toplink.logging.SessionLog;
+import oracle.toplink.logging.SessionLogEntry;
+import oracle.toplink.sessions.Session;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.util.Assert;
+
+/**
+ * TopLink 10.1.3+ SessionLog decorator that hands log entries over to a single
+ * background thread, which passes them on to the target SessionLog in batches.
+ * Keeps slow log appenders from adding to the latency of the thread that
+ * executes SQL.
+ *
+ * <p>Entries are buffered in a bounded, lock-free queue of
+ * {@link #setCapacity "capacity"} entries. The {@link OverflowPolicy} determines
+ * what happens once the buffer fills up: dropping further entries (the default),
+ * blocking the logging thread until there is room again, or sampling entries.
+ * The number of dropped entries is available through {@link #getDroppedCount()}.
+ *
+ * <p>Log levels are checked against the target SessionLog on the logging thread,
+ * so entries that would not be logged do not get buffered in the first place.
+ * Note that the target SessionLog formats entries on the background thread:
+ * thread information printed by the target will refer to that thread.
+ *
+ * <p>Specify an instance of this class as "sessionLog" of LocalSessionFactoryBean,
+ * wrapping for example a CommonsLoggingSessionLog. When defined as a bean,
+ * the background thread gets stopped on shutdown of the application context,
+ * after passing on all pending entries.
+ *
+ * @since 1.1
+ * @see CommonsLoggingSessionLog
+ * @see org.springframework.orm.toplink.LocalSessionFactory#setSessionLog
+ */
+public class AsyncSessionLog extends AbstractSessionLog implements DisposableBean {
+
+	/**
+	 * Policies for log entries that arrive while the buffer is full.
+	 */
+	public enum OverflowPolicy {
+
+		/** Drop the entry */
+		DROP,
+
+		/** Block the logging thread until the entry can be buffered */
+		BLOCK,
+
+		/**
+		 * Once the buffer is more than half full, only buffer every n-th entry
+		 * (see {@link AsyncSessionLog#setSampleRate "sampleRate"}); SEVERE and
+		 * WARNING entries always get buffered as long as there is room.
+		 * Drop entries while the buffer is full.
+		 */
+		SAMPLE
+	}
+
+
+	/** Default number of entries to buffer */
+	public static final int DEFAULT_CAPACITY = 8192;
+
+	/** Default maximum number of entries passed on per batch */
+	public static final int DEFAULT_BATCH_SIZE = 256;
+
+	private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+	private static final long BLOCK_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+
+	private static final Log logger = LogFactory.getLog(AsyncSessionLog.class);
+
+	private SessionLog targetSessionLog;
+
+	private int capacity = DEFAULT_CAPACITY;
+
+	private int batchSize = DEFAULT_BATCH_SIZE;
+
+	private OverflowPolicy overflowPolicy = OverflowPolicy.DROP;
+
+	private int sampleRate = 10;
+
+	private final Queue<SessionLogEntry> buffer = new ConcurrentLinkedQueue<SessionLogEntry>();
+
+	private final AtomicInteger bufferedCount = new AtomicInteger();
+
+	private final AtomicLong sampleCounter = new AtomicLong();
+
+	private final AtomicLong droppedCount = new AtomicLong();
+
+	private volatile Thread consumerThread;
+
+	private volatile boolean consumerWaiting;
+
+	private volatile boolean running;
+
+	private boolean stopped;
+
+	private final Object lifecycleMonitor = new Object();
+
+
+	/**
+	 * Create a new AsyncSessionLog instance.
+	 * @see #setTargetSessionLog
+	 */
+	public AsyncSessionLog() {
+	}
+
+	/**
+	 * Create a new AsyncSessionLog instance for the given target.
+	 * @param targetSessionLog the SessionLog to pass entries on to
+	 */
+	public AsyncSessionLog(SessionLog targetSessionLog) {
+		setTargetSessionLog(targetSessionLog);
+	}
+
+
+	/**
+	 * Set the SessionLog to pass log entries on to, for example a
+	 * CommonsLoggingSessionLog.
+	 */
+	public void setTargetSessionLog(SessionLog targetSessionLog) {
+		Assert.notNull(targetSessionLog, "targetSessionLog must not be null");
+		this.targetSessionLog = targetSessionLog;
+		// Keep our own level in sync, for any level checks inherited from AbstractSessionLog.
+		super.setLevel(targetSessionLog.getLevel());
+	}
+
+	/**
+	 * Return the SessionLog that log entries get passed on to.
+	 */
+	public SessionLog getTargetSessionLog() {
+		return this.targetSessionLog;
+	}
+
+	/**
+	 * Set the maximum number of entries to buffer.
+	 * Default is {@link #DEFAULT_CAPACITY}.
+	 */
+	public void setCapacity(int capacity) {
+		Assert.isTrue(capacity > 0, "capacity must be greater than 0");
+		this.capacity = capacity;
+	}
+
+	/**
+	 * Set the maximum number of entries that the background thread
+	 * passes on per batch. Default is {@link #DEFAULT_BATCH_SIZE}.
+	 */
+	public void setBatchSize(int batchSize) {
+		Assert.isTrue(batchSize > 0, "batchSize must be greater than 0");
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * Set the policy for log entries that arrive while the buffer is full.
+	 * Default is {@link OverflowPolicy#DROP}.
+	 */
+	public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+		Assert.notNull(overflowPolicy, "overflowPolicy must not be null");
+		this.overflowPolicy = overflowPolicy;
+	}
+
+	/**
+	 * Set the rate of entries to keep with the {@link OverflowPolicy#SAMPLE}
+	 * policy, once the buffer is more than half full: 10 (the default)
+	 * means that every 10th entry gets buffered.
+	 */
+	public void setSampleRate(int sampleRate) {
+		Assert.isTrue(sampleRate > 0, "sampleRate must be greater than 0");
+		this.sampleRate = sampleRate;
+	}
+
+	/**
+	 * Return the number of entries dropped so far because of a full buffer
+	 * (or because of sampling).
+	 */
+	public long getDroppedCount() {
+		return this.droppedCount.get();
+	}
+
+	/**
+	 * Return the number of entries currently waiting to be passed on.
+	 */
+	public int getBufferedCount() {
+		return this.bufferedCount.get();
+	}
+
+
+	//-------------------------------------------------------------------------
+	// Level handling, delegating to the target SessionLog
+	//-------------------------------------------------------------------------
+
+	public int getLevel() {
+		return getRequiredTargetSessionLog().getLevel();
+	}
+
+	public void setLevel(int level) {
+		super.setLevel(level);
+		getRequiredTargetSessionLog().setLevel(level);
+	}
+
+	public boolean shouldLog(int level) {
+		return getRequiredTargetSessionLog().shouldLog(level);
+	}
+
+	public void setSession(Session session) {
+		super.setSession(session);
+		getRequiredTargetSessionLog().setSession(session);
+	}
+
+
+	//-------------------------------------------------------------------------
+	// Buffering and background processing
+	//-------------------------------------------------------------------------
+
+	public void log(SessionLogEntry entry) {
+		SessionLog target = getRequiredTargetSessionLog();
+		if (!target.shouldLog(entry.getLevel())) {
+			return;
+		}
+		if (!this.running) {
+			start();
+			if (!this.running) {
+				// Already shut down: log synchronously.
+				target.log(entry);
+				return;
+			}
+		}
+		if (offer(entry)) {
+			if (this.consumerWaiting) {
+				LockSupport.unpark(this.consumerThread);
+			}
+			if (!this.running) {
+				// Shut down concurrently: the background thread might have drained
+				// the buffer before our entry arrived, so pass on what is left ourselves.
+				drainBuffer();
+			}
+		}
+		else if (!this.running) {
+			target.log(entry);
+		}
+		else {
+			this.droppedCount.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Try to buffer the given entry, applying the overflow policy.
+	 * @return whether the entry got buffered
+	 */
+	private boolean offer(SessionLogEntry entry) {
+		if (this.overflowPolicy == OverflowPolicy.SAMPLE && this.bufferedCount.get() > this.capacity / 2 &&
+				entry.getLevel() < WARNING && this.sampleCounter.incrementAndGet() % this.sampleRate != 0) {
+			return false;
+		}
+		while (!tryReserve()) {
+			if (this.overflowPolicy != OverflowPolicy.BLOCK || !this.running) {
+				return false;
+			}
+			LockSupport.parkNanos(BLOCK_PARK_NANOS);
+		}
+		this.buffer.add(entry);
+		return true;
+	}
+
+	private boolean tryReserve() {
+		if (this.bufferedCount.incrementAndGet() > this.capacity) {
+			this.bufferedCount.decrementAndGet();
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Start the background thread, unless already started or shut down.
+	 */
+	private void start() {
+		synchronized (this.lifecycleMonitor) {
+			if (this.consumerThread == null && !this.stopped) {
+				Thread thread = new Thread(new Runnable() {
+					public void run() {
+						processEntries();
+					}
+				}, "TopLinkAsyncSessionLog");
+				thread.setDaemon(true);
+				this.consumerThread = thread;
+				this.running = true;
+				thread.start();
+			}
+		}
+	}
+
+	/**
+	 * Main loop of the background thread: pass entries on in batches,
+	 * and drain the buffer once stopped.
+	 */
+	private void processEntries() {
+		List<SessionLogEntry> batch = new ArrayList<SessionLogEntry>(this.batchSize);
+		while (this.running) {
+			if (pollBatch(batch)) {
+				logBatch(batch);
+			}
+			else {
+				this.consumerWaiting = true;
+				if (this.buffer.isEmpty() && this.running) {
+					LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+				}
+				this.consumerWaiting = false;
+			}
+		}
+		drainBuffer();
+	}
+
+	/**
+	 * Pass on all pending entries on the calling thread.
+	 */
+	private void drainBuffer() {
+		List<SessionLogEntry> batch = new ArrayList<SessionLogEntry>(this.batchSize);
+		while (pollBatch(batch)) {
+			logBatch(batch);
+		}
+	}
+
+	private boolean pollBatch(List<SessionLogEntry> batch) {
+		batch.clear();
+		SessionLogEntry entry;
+		while (batch.size() < this.batchSize && (entry = this.buffer.poll()) != null) {
+			this.bufferedCount.decrementAndGet();
+			batch.add(entry);
+		}
+		return !batch.isEmpty();
+	}
+
+	private void logBatch(List<SessionLogEntry> batch) {
+		for (SessionLogEntry entry : batch) {
+			try {
+				this.targetSessionLog.log(entry);
+			}
+			catch (Throwable ex) {
+				logger.warn("Target SessionLog failed to log entry", ex);
+			}
+		}
+	}
+
+	private SessionLog getRequiredTargetSessionLog() {
+		Assert.state(this.targetSessionLog != null, "targetSessionLog is required");
+		return this.targetSessionLog;
+	}
+
+	/**
+	 * Stop the background thread after it has passed on all pending entries.
+	 * Entries logged afterwards get passed on synchronously.
+	 */
+	public void destroy() throws InterruptedException {
+		Thread thread;
+		synchronized (this.lifecycleMonitor) {
+			thread = this.consumerThread;
+			this.running = false;
+			this.stopped = true;
+		}
+		if (thread != null) {
+			LockSupport.unpark(thread);
+			thread.join();
+		}
+	}
+
+}
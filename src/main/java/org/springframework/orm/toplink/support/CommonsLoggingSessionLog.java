@@ -17,6 +17,8 @@
 package org.springframework.orm.toplink.support;
 
 import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import oracle.toplink.internal.databaseaccess.Accessor;
 import oracle.toplink.logging.AbstractSessionLog;
@@ -42,6 +44,10 @@ import org.springframework.util.ReflectionUtils;
  * can be further filtered according to categories: for example, activate Log4J
  * DEBUG logging for category "oracle.toplink.sql" to see the generated SQL.
  *
+ * <p>Commons Logging Log instances are cached per log category, and log levels
+ * are checked before any message String gets built. Messages are assembled in a
+ * per-thread buffer that is reused across log calls.
+ *
  * <p><b>Note:</b> This implementation will only work on TopLink 10.1.3 or higher,
  * as it is built against TopLink's new SessionLog facilities in the
  * <code>oracle.toplink.logging</code> package, supporting log categories.
@@ -61,28 +67,21 @@ public class CommonsLoggingSessionLog extends AbstractSessionLog {
 	public static final String DEFAULT_SEPARATOR = "--";
 
 
-	private static Method getSessionMethod;
-
-	private static Method getExceptionMethod;
+	/** Largest message buffer capacity to keep around for reuse */
+	private static final int MAX_CACHED_BUFFER_CAPACITY = 8192;
 
-	static {
-		try {
-			getSessionMethod = SessionLogEntry.class.getMethod("getSession", new Class[0]);
-		}
-		catch (NoSuchMethodException ex) {
-			throw new IllegalStateException("Could not find method SessionLogEntry.getSession()");
-		}
-		try {
-			getExceptionMethod = SessionLogEntry.class.getMethod("getException", new Class[0]);
+	private static final ThreadLocal<StringBuilder> messageBuffer = new ThreadLocal<StringBuilder>() {
+		protected StringBuilder initialValue() {
+			return new StringBuilder(256);
 		}
-		catch (NoSuchMethodException ex) {
-			throw new IllegalStateException("Could not find method SessionLogEntry.getException()");
-		}
-	}
+	};
 
 
 	private String separator = DEFAULT_SEPARATOR;
 
+	/** Commons Logging Log instances, keyed by TopLink name space */
+	private final ConcurrentMap<String, Log> loggers = new ConcurrentHashMap<String, Log>();
+
 
 	/**
 	 * Specify the separator between TopLink's supplemental details
@@ -102,7 +101,7 @@ public class CommonsLoggingSessionLog extends AbstractSessionLog {
 
 
 	public void log(SessionLogEntry entry) {
-		Log logger = LogFactory.getLog(getCategory(entry));
+		Log logger = getLogger(entry);
 		switch (entry.getLevel()) {
 			case SEVERE:
 				if (logger.isErrorEnabled()) {
@@ -159,8 +158,32 @@ public class CommonsLoggingSessionLog extends AbstractSessionLog {
 		}
 	}
 
+	/**
+	 * Return the Commons Logging Log for the given log entry's name space,
+	 * creating it for the entry's category on first use.
+	 * @see #getCategory(oracle.toplink.logging.SessionLogEntry)
+	 */
+	protected Log getLogger(SessionLogEntry entry) {
+		String namespace = entry.getNameSpace();
+		if (namespace == null) {
+			namespace = DEFAULT_NAMESPACE;
+		}
+		Log logger = this.loggers.get(namespace);
+		if (logger == null) {
+			logger = LogFactory.getLog(getCategory(entry));
+			Log existing = this.loggers.putIfAbsent(namespace, logger);
+			if (existing != null) {
+				logger = existing;
+			}
+		}
+		return logger;
+	}
+
 	/**
 	 * Determine the log category for the given log entry.
+	 * <p>Called for the first log entry of each name space only: the Log for
+	 * the resulting category gets cached per name space, so the category must
+	 * not depend on anything but the entry's name space.
 	 * <p>If the entry carries a name space value, it will be appended
 	 * to the "oracle.toplink." prefix; else, "oracle.toplink.session"
 	 * will be used.
@@ -179,7 +202,8 @@ public class CommonsLoggingSessionLog extends AbstractSessionLog {
 	 * @see #getSeparator()
 	 */
 	protected String getMessageString(SessionLogEntry entry) {
-		StringBuffer buf = new StringBuffer();
+		StringBuilder buf = messageBuffer.get();
+		buf.setLength(0);
 		Session session = getSession(entry);
 		if (session != null) {
 			buf.append(getSessionString(session));
@@ -191,17 +215,22 @@ public class CommonsLoggingSessionLog extends AbstractSessionLog {
 			buf.append(getSeparator());
 		}
 		buf.append(formatMessage(entry));
-		return buf.toString();
+		String message = buf.toString();
+		if (buf.capacity() > MAX_CACHED_BUFFER_CAPACITY) {
+			// Do not hold on to the buffer of an exceptionally large message.
+			messageBuffer.remove();
+		}
+		return message;
 	}
 
 	/**
-	 * Extract the exception from the given log entry.
+	 * Extract the session from the given log entry.
 	 * <p>The default implementation calls <code>SessionLogEntry.getSession</code>
 	 * via reflection: The return type varies between TopLink 10.1.3 and 11
 	 * (<code>Session</code> vs <code>AbstractSession</code>, respectively).
 	 */
 	protected Session getSession(SessionLogEntry entry) {
-		return (Session) ReflectionUtils.invokeMethod(getSessionMethod, entry);
+		return (Session) ReflectionUtils.invokeMethod(LogEntryMethods.getSessionMethod, entry);
 	}
 
 	/**
@@ -211,7 +240,27 @@ public class CommonsLoggingSessionLog extends AbstractSessionLog {
 	 * (<code>Exception</code> vs <code>Throwable</code>, respectively).
 	 */
 	protected Throwable getException(SessionLogEntry entry) {
-		return (Throwable) ReflectionUtils.invokeMethod(getExceptionMethod, entry);
+		return (Throwable) ReflectionUtils.invokeMethod(LogEntryMethods.getExceptionMethod, entry);
+	}
+
+
+	/**
+	 * Holder for the SessionLogEntry accessor methods, looked up once.
+	 */
+	private static class LogEntryMethods {
+
+		private static final Method getSessionMethod = getMethod("getSession");
+
+		private static final Method getExceptionMethod = getMethod("getException");
+
+		private static Method getMethod(String name) {
+			try {
+				return SessionLogEntry.class.getMethod(name, new Class[0]);
+			}
+			catch (NoSuchMethodException ex) {
+				throw new IllegalStateException("Could not find method SessionLogEntry." + name + "()");
+			}
+		}
 	}
 
 }
@@ -0,0 +1,241 @@
+/*
+ * Copyright 2002-2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.orm.toplink.support;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import org.springframework.orm.toplink.CommitListener;
+import org.springframework.orm.toplink.CommitReport;
+import org.springframework.util.Assert;
+
+/**
+ * {@link CommitListener} implementation that aggregates commit reports per
+ * transaction name into <a href="http://hdrhistogram.org">HdrHistogram</a>
+ * histograms: commit latency and objects written per commit.
+ * {@link #getAllStatistics()} lists the transactions with the highest
+ * total commit time first, to find the ones that dominate write latency.
+ *
+ * <p>Requires HdrHistogram 2.1 or higher on the classpath.
+ *
+ * @since 1.1
+ * @see org.springframework.orm.toplink.TopLinkTransactionManager#setCommitListeners
+ */
+public class HdrHistogramCommitListener implements CommitListener {
+
+	/** Key for transactions without name */
+	private static final String UNNAMED_TRANSACTION = "";
+
+
+	private long highestTrackableNanos = TimeUnit.MINUTES.toNanos(1);
+
+	private long highestTrackableObjectCount = 1000000;
+
+	private final ConcurrentMap<String, CommitStatistics> statistics =
+			new ConcurrentHashMap<String, CommitStatistics>();
+
+
+	/**
+	 * Set the highest duration to track precisely, in nanoseconds.
+	 * Default is 1 minute. Takes effect for statistics created afterwards.
+	 */
+	public void setHighestTrackableNanos(long highestTrackableNanos) {
+		Assert.isTrue(highestTrackableNanos > 1, "highestTrackableNanos must be greater than 1");
+		this.highestTrackableNanos = highestTrackableNanos;
+	}
+
+	/**
+	 * Set the highest number of objects per commit to track precisely.
+	 * Default is 1000000. Takes effect for statistics created afterwards.
+	 */
+	public void setHighestTrackableObjectCount(long highestTrackableObjectCount) {
+		Assert.isTrue(highestTrackableObjectCount > 1, "highestTrackableObjectCount must be greater than 1");
+		this.highestTrackableObjectCount = highestTrackableObjectCount;
+	}
+
+
+	public void commitCompleted(CommitReport report) {
+		String name = (report.getTransactionName() != null ? report.getTransactionName() : UNNAMED_TRANSACTION);
+		CommitStatistics stats = this.statistics.get(name);
+		if (stats == null) {
+			stats = new CommitStatistics(report.getTransactionName(), this.highestTrackableNanos,
+					this.highestTrackableObjectCount);
+			CommitStatistics existing = this.statistics.putIfAbsent(name, stats);
+			if (existing != null) {
+				stats = existing;
+			}
+		}
+		stats.record(report);
+	}
+
+	/**
+	 * Return the statistics for the given transaction name.
+	 * @param transactionName the name of the transaction (may be <code>null</code>)
+	 * @return the statistics, or <code>null</code> if none recorded yet
+	 */
+	public CommitStatistics getStatistics(String transactionName) {
+		return this.statistics.get(transactionName != null ? transactionName : UNNAMED_TRANSACTION);
+	}
+
+	/**
+	 * Return the statistics for all transactions recorded so far,
+	 * highest total commit time first.
+	 */
+	public List<CommitStatistics> getAllStatistics() {
+		List<CommitStatistics> result = new ArrayList<CommitStatistics>(this.statistics.values());
+		Collections.sort(result, new Comparator<CommitStatistics>() {
+			public int compare(CommitStatistics stats1, CommitStatistics stats2) {
+				long total1 = stats1.getTotalCommitNanos();
+				long total2 = stats2.getTotalCommitNanos();
+				return (total1 > total2 ? -1 : (total1 < total2 ? 1 : 0));
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * Discard all recorded statistics.
+	 */
+	public void reset() {
+		this.statistics.clear();
+	}
+
+
+	/**
+	 * Commit statistics for a single transaction name.
+	 */
+	public static class CommitStatistics {
+
+		private final String transactionName;
+
+		private final long highestTrackableNanos;
+
+		private final long highestTrackableObjectCount;
+
+		private final Histogram commitLatency;
+
+		private final Histogram objectCount;
+
+		private final AtomicLong totalCommitNanos = new AtomicLong();
+
+		private final AtomicLong failureCount = new AtomicLong();
+
+		private final AtomicLong newObjectCount = new AtomicLong();
+
+		private final AtomicLong changedObjectCount = new AtomicLong();
+
+		private final AtomicLong deletedObjectCount = new AtomicLong();
+
+		private CommitStatistics(String transactionName, long highestTrackableNanos, long highestTrackableObjectCount) {
+			this.transactionName = transactionName;
+			this.highestTrackableNanos = highestTrackableNanos;
+			this.highestTrackableObjectCount = highestTrackableObjectCount;
+			this.commitLatency = new ConcurrentHistogram(highestTrackableNanos, 2);
+			this.objectCount = new ConcurrentHistogram(highestTrackableObjectCount, 2);
+		}
+
+		private void record(CommitReport report) {
+			this.commitLatency.recordValue(clamp(report.getCommitNanos(), this.highestTrackableNanos));
+			int objects = report.getNewObjectCount() + report.getChangedObjectCount() + report.getDeletedObjectCount();
+			this.objectCount.recordValue(clamp(objects, this.highestTrackableObjectCount));
+			this.totalCommitNanos.addAndGet(report.getCommitNanos());
+			this.newObjectCount.addAndGet(report.getNewObjectCount());
+			this.changedObjectCount.addAndGet(report.getChangedObjectCount());
+			this.deletedObjectCount.addAndGet(report.getDeletedObjectCount());
+			if (report.isFailed()) {
+				this.failureCount.incrementAndGet();
+			}
+		}
+
+		private static long clamp(long value, long highestTrackableValue) {
+			return Math.max(0, Math.min(value, highestTrackableValue));
+		}
+
+		/**
+		 * Return the name of the transaction, or <code>null</code> for unnamed transactions.
+		 */
+		public String getTransactionName() {
+			return this.transactionName;
+		}
+
+		/**
+		 * Return the number of commits, including failed ones.
+		 */
+		public long getCommitCount() {
+			return this.commitLatency.getTotalCount();
+		}
+
+		/**
+		 * Return the number of failed commits.
+		 */
+		public long getFailureCount() {
+			return this.failureCount.get();
+		}
+
+		/**
+		 * Return the total time spent committing, in nanoseconds.
+		 */
+		public long getTotalCommitNanos() {
+			return this.totalCommitNanos.get();
+		}
+
+		/**
+		 * Return the total number of new objects inserted.
+		 */
+		public long getNewObjectCount() {
+			return this.newObjectCount.get();
+		}
+
+		/**
+		 * Return the total number of changed objects updated.
+		 */
+		public long getChangedObjectCount() {
+			return this.changedObjectCount.get();
+		}
+
+		/**
+		 * Return the total number of objects deleted.
+		 */
+		public long getDeletedObjectCount() {
+			return this.deletedObjectCount.get();
+		}
+
+		/**
+		 * Return a snapshot of the commit latencies, in nanoseconds.
+		 */
+		public Histogram getCommitLatencyHistogram() {
+			return this.commitLatency.copy();
+		}
+
+		/**
+		 * Return a snapshot of the number of objects written per commit.
+		 */
+		public Histogram getObjectCountHistogram() {
+			return this.objectCount.copy();
+		}
+	}
+
+}
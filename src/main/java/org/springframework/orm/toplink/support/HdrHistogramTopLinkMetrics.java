@@ -0,0 +1,256 @@
+/*
+ * Copyright 2002-2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.orm.toplink.support;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import org.springframework.orm.toplink.TopLinkMetrics;
+import org.springframework.util.Assert;
+
+/**
+ * {@link TopLinkMetrics} implementation that records latencies into
+ * <a href="http://hdrhistogram.org">HdrHistogram</a> histograms:
+ * one per operation and entity class, one for Session acquisition
+ * and one for transaction commits. Also counts failures.
+ *
+ * <p>Histograms have a fixed value range (see {@link #setHighestTrackableNanos}),
+ * so recording does not allocate, except for the first occurrence of an
+ * operation and entity class combination. Longer durations get recorded
+ * as the highest trackable value.
+ *
+ * <p>Requires HdrHistogram 2.1 or higher on the classpath.
+ *
+ * @since 1.1
+ * @see org.springframework.orm.toplink.TopLinkTemplate#setMetrics
+ * @see org.springframework.orm.toplink.TopLinkTransactionManager#setMetrics
+ */
+public class HdrHistogramTopLinkMetrics implements TopLinkMetrics {
+
+	/** Key for operations without known entity class */
+	private static final Class<?> NO_ENTITY_CLASS = void.class;
+
+
+	private long highestTrackableNanos = TimeUnit.MINUTES.toNanos(1);
+
+	private int significantDigits = 2;
+
+	private final ConcurrentMap<String, ConcurrentMap<Class<?>, OperationMetrics>> operationMetrics =
+			new ConcurrentHashMap<String, ConcurrentMap<Class<?>, OperationMetrics>>();
+
+	private volatile Histogram sessionAcquisitionHistogram;
+
+	private volatile Histogram commitHistogram;
+
+	private final AtomicLong commitFailureCount = new AtomicLong();
+
+
+	/**
+	 * Create a new HdrHistogramTopLinkMetrics instance.
+	 */
+	public HdrHistogramTopLinkMetrics() {
+		reset();
+	}
+
+	/**
+	 * Set the highest duration to track precisely, in nanoseconds.
+	 * Default is 1 minute. Takes effect for histograms created afterwards.
+	 */
+	public void setHighestTrackableNanos(long highestTrackableNanos) {
+		Assert.isTrue(highestTrackableNanos > 1, "highestTrackableNanos must be greater than 1");
+		this.highestTrackableNanos = highestTrackableNanos;
+		reset();
+	}
+
+	/**
+	 * Set the number of significant decimal digits to keep for recorded values.
+	 * Default is 2, that is, 1% precision.
+	 */
+	public void setSignificantDigits(int significantDigits) {
+		Assert.isTrue(significantDigits >= 0 && significantDigits <= 5, "significantDigits must be between 0 and 5");
+		this.significantDigits = significantDigits;
+		reset();
+	}
+
+
+	public void recordOperation(String operation, Class<?> entityClass, long durationNanos, boolean failed) {
+		OperationMetrics metrics = getOrCreateOperationMetrics(operation, entityClass);
+		metrics.latency.recordValue(clamp(durationNanos));
+		if (failed) {
+			metrics.failureCount.incrementAndGet();
+		}
+	}
+
+	public void recordSessionAcquisition(long durationNanos) {
+		this.sessionAcquisitionHistogram.recordValue(clamp(durationNanos));
+	}
+
+	public void recordCommit(long durationNanos, boolean failed) {
+		this.commitHistogram.recordValue(clamp(durationNanos));
+		if (failed) {
+			this.commitFailureCount.incrementAndGet();
+		}
+	}
+
+
+	/**
+	 * Return the metrics for the given operation and entity class.
+	 * @param operation the name of the operation
+	 * @param entityClass the entity class (may be <code>null</code>)
+	 * @return the metrics, or <code>null</code> if none recorded yet
+	 */
+	public OperationMetrics getOperationMetrics(String operation, Class<?> entityClass) {
+		ConcurrentMap<Class<?>, OperationMetrics> byClass = this.operationMetrics.get(operation);
+		return (byClass != null ? byClass.get(entityClass != null ? entityClass : NO_ENTITY_CLASS) : null);
+	}
+
+	/**
+	 * Return the metrics for all operation and entity class combinations recorded so far.
+	 */
+	public List<OperationMetrics> getAllOperationMetrics() {
+		List<OperationMetrics> result = new ArrayList<OperationMetrics>();
+		for (ConcurrentMap<Class<?>, OperationMetrics> byClass : this.operationMetrics.values()) {
+			result.addAll(byClass.values());
+		}
+		return result;
+	}
+
+	/**
+	 * Return a snapshot of the Session acquisition latencies, in nanoseconds.
+	 */
+	public Histogram getSessionAcquisitionHistogram() {
+		return this.sessionAcquisitionHistogram.copy();
+	}
+
+	/**
+	 * Return a snapshot of the commit latencies, in nanoseconds.
+	 */
+	public Histogram getCommitHistogram() {
+		return this.commitHistogram.copy();
+	}
+
+	/**
+	 * Return the number of failed commits.
+	 */
+	public long getCommitFailureCount() {
+		return this.commitFailureCount.get();
+	}
+
+	/**
+	 * Discard all recorded metrics.
+	 */
+	public void reset() {
+		this.operationMetrics.clear();
+		this.sessionAcquisitionHistogram = newHistogram();
+		this.commitHistogram = newHistogram();
+		this.commitFailureCount.set(0);
+	}
+
+
+	private OperationMetrics getOrCreateOperationMetrics(String operation, Class<?> entityClass) {
+		Class<?> key = (entityClass != null ? entityClass : NO_ENTITY_CLASS);
+		ConcurrentMap<Class<?>, OperationMetrics> byClass = this.operationMetrics.get(operation);
+		if (byClass == null) {
+			byClass = new ConcurrentHashMap<Class<?>, OperationMetrics>();
+			ConcurrentMap<Class<?>, OperationMetrics> existing = this.operationMetrics.putIfAbsent(operation, byClass);
+			if (existing != null) {
+				byClass = existing;
+			}
+		}
+		OperationMetrics metrics = byClass.get(key);
+		if (metrics == null) {
+			metrics = new OperationMetrics(operation, entityClass, newHistogram());
+			OperationMetrics existing = byClass.putIfAbsent(key, metrics);
+			if (existing != null) {
+				metrics = existing;
+			}
+		}
+		return metrics;
+	}
+
+	private Histogram newHistogram() {
+		return new ConcurrentHistogram(this.highestTrackableNanos, this.significantDigits);
+	}
+
+	private long clamp(long durationNanos) {
+		return Math.max(0, Math.min(durationNanos, this.highestTrackableNanos));
+	}
+
+
+	/**
+	 * Metrics for a single operation and entity class combination.
+	 */
+	public static class OperationMetrics {
+
+		private final String operation;
+
+		private final Class<?> entityClass;
+
+		private final Histogram latency;
+
+		private final AtomicLong failureCount = new AtomicLong();
+
+		private OperationMetrics(String operation, Class<?> entityClass, Histogram latency) {
+			this.operation = operation;
+			this.entityClass = entityClass;
+			this.latency = latency;
+		}
+
+		/**
+		 * Return the name of the operation.
+		 */
+		public String getOperation() {
+			return this.operation;
+		}
+
+		/**
+		 * Return the entity class, or <code>null</code> if not known.
+		 */
+		public Class<?> getEntityClass() {
+			return this.entityClass;
+		}
+
+		/**
+		 * Return the number of calls, including failed ones.
+		 */
+		public long getCallCount() {
+			return this.latency.getTotalCount();
+		}
+
+		/**
+		 * Return the number of failed calls.
+		 */
+		public long getFailureCount() {
+			return this.failureCount.get();
+		}
+
+		/**
+		 * Return a snapshot of the call latencies, in nanoseconds.
+		 */
+		public Histogram getLatencyHistogram() {
+			return this.latency.copy();
+		}
+	}
+
+}
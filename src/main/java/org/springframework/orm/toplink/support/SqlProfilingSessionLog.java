@@ -0,0 +1,405 @@
+/*
+ * Copyright 2002-2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.orm.toplink.support;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import oracle.toplink.logging.AbstractSessionLog;
+import oracle.toplink.logging.SessionLog;
+import oracle.toplink.logging.SessionLogEntry;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.util.Assert;
+
+/**
+ * TopLink 10.1.3+ SessionLog that counts the executions of the SQL statements
+ * logged by TopLink (log category "sql"), per statement with literals and bind
+ * parameters stripped. Useful for spotting hot queries and N+1 select patterns
+ * in production.
+ *
+ * <p>TopLink logs a statement right before executing it, without reporting its
+ * duration or the number of rows, so neither is available here. Use TopLink's
+ * own SessionProfiler facilities for timing statements.
+ *
+ * <p>The top statements can be obtained through the
+ * {@link SqlProfilingSessionLogMBean} management interface, registered with the
+ * platform MBeanServer if an {@link #setObjectName "objectName"} is specified,
+ * and can be logged periodically through {@link #setDumpInterval "dumpInterval"}.
+ * All entries can be passed on to a {@link #setTargetSessionLog target SessionLog},
+ * for example a CommonsLoggingSessionLog.
+ *
+ * <p>The log level defaults to FINE, the level of TopLink's SQL log entries.
+ *
+ * @since 1.1
+ * @see org.springframework.orm.toplink.LocalSessionFactory#setSessionLog
+ */
+public class SqlProfilingSessionLog extends AbstractSessionLog
+		implements SqlProfilingSessionLogMBean, InitializingBean, DisposableBean {
+
+	/** TopLink's log category for SQL statements */
+	public static final String SQL_NAMESPACE = "sql";
+
+	/** Default maximum number of distinct statements to track */
+	public static final int DEFAULT_MAX_STATEMENTS = 1000;
+
+	/** Marker that TopLink appends bind parameters to a logged statement with */
+	private static final String BIND_MARKER = "bind =>";
+
+
+	private static final Log logger = LogFactory.getLog(SqlProfilingSessionLog.class);
+
+	private SessionLog targetSessionLog;
+
+	private int maxStatements = DEFAULT_MAX_STATEMENTS;
+
+	private long dumpInterval = 0;
+
+	private int dumpSize = 10;
+
+	private String objectName;
+
+	private final ConcurrentMap<String, StatementStatistics> statistics =
+			new ConcurrentHashMap<String, StatementStatistics>();
+
+	private final AtomicInteger statementCount = new AtomicInteger();
+
+	private final AtomicLong untrackedExecutionCount = new AtomicLong();
+
+	private Timer dumpTimer;
+
+	private ObjectName registeredObjectName;
+
+
+	/**
+	 * Create a new SqlProfilingSessionLog instance, with log level FINE.
+	 */
+	public SqlProfilingSessionLog() {
+		setLevel(FINE);
+	}
+
+
+	/**
+	 * Set a SessionLog to pass all log entries on to, for example a
+	 * CommonsLoggingSessionLog. Default is none.
+	 */
+	public void setTargetSessionLog(SessionLog targetSessionLog) {
+		this.targetSessionLog = targetSessionLog;
+	}
+
+	/**
+	 * Set the maximum number of distinct statements to track. Default is
+	 * {@link #DEFAULT_MAX_STATEMENTS}. Further statements only get counted
+	 * in total (see {@link #getUntrackedExecutionCount()}).
+	 */
+	public void setMaxStatements(int maxStatements) {
+		Assert.isTrue(maxStatements > 0, "maxStatements must be greater than 0");
+		this.maxStatements = maxStatements;
+	}
+
+	/**
+	 * Set the interval for logging the top statements at INFO level,
+	 * in milliseconds. Default is 0, that is, no periodic logging.
+	 * @see #dumpStatistics()
+	 */
+	public void setDumpInterval(long dumpInterval) {
+		this.dumpInterval = dumpInterval;
+	}
+
+	/**
+	 * Set the number of statements to include when logging
+	 * the top statements. Default is 10.
+	 */
+	public void setDumpSize(int dumpSize) {
+		Assert.isTrue(dumpSize > 0, "dumpSize must be greater than 0");
+		this.dumpSize = dumpSize;
+	}
+
+	/**
+	 * Set the JMX ObjectName to register this SessionLog with the platform
+	 * MBeanServer under, for example "toplink:type=SqlProfiler".
+	 * Default is none, that is, no registration.
+	 */
+	public void setObjectName(String objectName) {
+		this.objectName = objectName;
+	}
+
+	public void afterPropertiesSet() throws Exception {
+		if (this.objectName != null) {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(this.objectName);
+			server.registerMBean(this, name);
+			this.registeredObjectName = name;
+		}
+		if (this.dumpInterval > 0) {
+			this.dumpTimer = new Timer("TopLinkSqlProfilerDump", true);
+			this.dumpTimer.schedule(new TimerTask() {
+				public void run() {
+					dumpStatistics();
+				}
+			}, this.dumpInterval, this.dumpInterval);
+		}
+	}
+
+	public void destroy() throws Exception {
+		if (this.dumpTimer != null) {
+			this.dumpTimer.cancel();
+		}
+		if (this.registeredObjectName != null) {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(this.registeredObjectName);
+		}
+	}
+
+
+	public void log(SessionLogEntry entry) {
+		if (SQL_NAMESPACE.equals(entry.getNameSpace()) && entry.getMessage() != null) {
+			StatementStatistics stats = getStatementStatistics(normalizeSql(entry.getMessage()));
+			if (stats != null) {
+				stats.count.incrementAndGet();
+			}
+			else {
+				this.untrackedExecutionCount.incrementAndGet();
+			}
+		}
+
+		if (this.targetSessionLog != null && this.targetSessionLog.shouldLog(entry.getLevel())) {
+			this.targetSessionLog.log(entry);
+		}
+	}
+
+	private StatementStatistics getStatementStatistics(String sql) {
+		StatementStatistics stats = this.statistics.get(sql);
+		if (stats == null) {
+			if (this.statementCount.incrementAndGet() > this.maxStatements) {
+				this.statementCount.decrementAndGet();
+				return null;
+			}
+			stats = new StatementStatistics(sql);
+			StatementStatistics existing = this.statistics.putIfAbsent(sql, stats);
+			if (existing != null) {
+				this.statementCount.decrementAndGet();
+				stats = existing;
+			}
+		}
+		return stats;
+	}
+
+	/**
+	 * Normalize the given SQL statement, so that executions of the same statement
+	 * with different values get aggregated: strips appended bind parameters,
+	 * replaces string and numeric literals with "?", collapses lists of "?"
+	 * (as in IN clauses) into a single "?", and collapses whitespace.
+	 * @param sql the statement as logged by TopLink
+	 * @return the normalized statement
+	 */
+	protected String normalizeSql(String sql) {
+		int bindIndex = sql.indexOf(BIND_MARKER);
+		int length = (bindIndex != -1 ? bindIndex : sql.length());
+		StringBuilder buf = new StringBuilder(length);
+		int i = 0;
+		while (i < length) {
+			char c = sql.charAt(i);
+			if (c == '\'') {
+				// String literal, with '' as escaped quote.
+				i++;
+				while (i < length) {
+					if (sql.charAt(i) == '\'') {
+						if (i + 1 < length && sql.charAt(i + 1) == '\'') {
+							i += 2;
+							continue;
+						}
+						break;
+					}
+					i++;
+				}
+				i++;
+				appendPlaceholder(buf);
+			}
+			else if (Character.isDigit(c) && !isIdentifierPart(buf)) {
+				// Numeric literal.
+				while (i < length && (Character.isDigit(sql.charAt(i)) || sql.charAt(i) == '.')) {
+					i++;
+				}
+				appendPlaceholder(buf);
+			}
+			else if (c == '?') {
+				i++;
+				appendPlaceholder(buf);
+			}
+			else if (Character.isWhitespace(c)) {
+				while (i < length && Character.isWhitespace(sql.charAt(i))) {
+					i++;
+				}
+				if (buf.length() > 0) {
+					buf.append(' ');
+				}
+			}
+			else {
+				buf.append(c);
+				i++;
+			}
+		}
+		int end = buf.length();
+		while (end > 0 && buf.charAt(end - 1) == ' ') {
+			end--;
+		}
+		buf.setLength(end);
+		return buf.toString();
+	}
+
+	private static boolean isIdentifierPart(StringBuilder buf) {
+		if (buf.length() == 0) {
+			return false;
+		}
+		char last = buf.charAt(buf.length() - 1);
+		return (Character.isLetterOrDigit(last) || last == '_' || last == '$' || last == '#');
+	}
+
+	/**
+	 * Append a "?" placeholder, unless it continues a list of placeholders.
+	 */
+	private static void appendPlaceholder(StringBuilder buf) {
+		int pos = buf.length() - 1;
+		while (pos >= 0 && buf.charAt(pos) == ' ') {
+			pos--;
+		}
+		if (pos >= 1 && buf.charAt(pos) == ',') {
+			int prev = pos - 1;
+			while (prev >= 0 && buf.charAt(prev) == ' ') {
+				prev--;
+			}
+			if (prev >= 0 && buf.charAt(prev) == '?') {
+				buf.setLength(prev + 1);
+				return;
+			}
+		}
+		buf.append('?');
+	}
+
+
+	//-------------------------------------------------------------------------
+	// Access to the gathered statistics
+	//-------------------------------------------------------------------------
+
+	/**
+	 * Return the statistics for all statements tracked, in no particular order.
+	 */
+	public List<StatementStatistics> getStatementStatistics() {
+		return new ArrayList<StatementStatistics>(this.statistics.values());
+	}
+
+	/**
+	 * Return the statistics for the most frequently executed statements, most frequent first.
+	 * @param maxResults the maximum number of statements to return
+	 */
+	public List<StatementStatistics> getTopStatisticsByCount(int maxResults) {
+		List<StatementStatistics> result = getStatementStatistics();
+		Collections.sort(result, new Comparator<StatementStatistics>() {
+			public int compare(StatementStatistics s1, StatementStatistics s2) {
+				long c1 = s1.getCount();
+				long c2 = s2.getCount();
+				return (c1 < c2 ? 1 : (c1 > c2 ? -1 : 0));
+			}
+		});
+		return (result.size() > maxResults ? new ArrayList<StatementStatistics>(result.subList(0, maxResults)) : result);
+	}
+
+	public int getStatementCount() {
+		return this.statistics.size();
+	}
+
+	public long getUntrackedExecutionCount() {
+		return this.untrackedExecutionCount.get();
+	}
+
+	public String[] getTopStatementsByCount(int maxResults) {
+		return toStrings(getTopStatisticsByCount(maxResults));
+	}
+
+	private static String[] toStrings(List<StatementStatistics> statistics) {
+		String[] result = new String[statistics.size()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = statistics.get(i).toString();
+		}
+		return result;
+	}
+
+	public void dumpStatistics() {
+		if (logger.isInfoEnabled() && !this.statistics.isEmpty()) {
+			StringBuilder buf = new StringBuilder("TopLink SQL statements by count:");
+			for (StatementStatistics stats : getTopStatisticsByCount(this.dumpSize)) {
+				buf.append("\n  ").append(stats);
+			}
+			logger.info(buf.toString());
+		}
+	}
+
+	public void reset() {
+		this.statistics.clear();
+		this.statementCount.set(0);
+		this.untrackedExecutionCount.set(0);
+	}
+
+
+	/**
+	 * Statistics for a single normalized SQL statement.
+	 */
+	public static class StatementStatistics {
+
+		private final String sql;
+
+		private final AtomicLong count = new AtomicLong();
+
+		private StatementStatistics(String sql) {
+			this.sql = sql;
+		}
+
+		/**
+		 * Return the normalized SQL statement.
+		 */
+		public String getSql() {
+			return this.sql;
+		}
+
+		/**
+		 * Return the number of executions.
+		 */
+		public long getCount() {
+			return this.count.get();
+		}
+
+		public String toString() {
+			return "count=" + getCount() + ": " + this.sql;
+		}
+	}
+
+}
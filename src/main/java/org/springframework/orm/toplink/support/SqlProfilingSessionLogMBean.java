@@ -0,0 +1,55 @@
+/*
+ * Copyright 2002-2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.orm.toplink.support;
+
+/**
+ * JMX management interface of {@link SqlProfilingSessionLog}.
+ * Statement statistics are exposed as Strings, one per statement,
+ * in the format of {@link SqlProfilingSessionLog.StatementStatistics#toString()}.
+ *
+ * @since 1.1
+ */
+public interface SqlProfilingSessionLogMBean {
+
+	/**
+	 * Return the number of distinct (normalized) statements tracked.
+	 */
+	int getStatementCount();
+
+	/**
+	 * Return the number of executions of statements that were not tracked
+	 * because the maximum number of distinct statements had been reached.
+	 */
+	long getUntrackedExecutionCount();
+
+	/**
+	 * Return the most frequently executed statements, most frequent first.
+	 * @param maxResults the maximum number of statements to return
+	 */
+	String[] getTopStatementsByCount(int maxResults);
+
+	/**
+	 * Log the most frequently executed statements at INFO level.
+	 */
+	void dumpStatistics();
+
+	/**
+	 * Discard all statistics gathered so far.
+	 */
+	void reset();
+
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2002-2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.orm.toplink;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import oracle.toplink.exceptions.TopLinkException;
+import oracle.toplink.sessions.Session;
+
+import org.easymock.EasyMock;
+import org.junit.Test;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.dao.DataAccessException;
+
+public class AsyncTopLinkTemplateTests {
+
+	@Test
+	public void testExecuteWithOwnSession() throws Exception {
+		Session session = EasyMock.createMock(Session.class);
+		session.release();
+		EasyMock.replay(session);
+
+		SessionFactory factory = new SingleSessionFactory(session);
+		AsyncTopLinkTemplate template = new AsyncTopLinkTemplate(factory);
+		try {
+			Future<String> result = template.execute(new TopLinkCallback<String>() {
+				public String doInTopLink(Session session) throws TopLinkException {
+					return "result";
+				}
+			});
+			assertEquals("result", result.get());
+		}
+		finally {
+			template.destroy();
+		}
+		EasyMock.verify(session);
+	}
+
+	@Test
+	public void testExecuteWithTopLinkException() throws Exception {
+		Session session = EasyMock.createNiceMock(Session.class);
+		EasyMock.replay(session);
+
+		AsyncTopLinkTemplate template = new AsyncTopLinkTemplate(new SingleSessionFactory(session));
+		try {
+			Future<Object> result = template.execute(new TopLinkCallback<Object>() {
+				public Object doInTopLink(Session session) throws TopLinkException {
+					throw new TopLinkException("failure") {};
+				}
+			});
+			result.get();
+			fail("Should have thrown ExecutionException");
+		}
+		catch (ExecutionException ex) {
+			assertTrue(ex.getCause() instanceof DataAccessException);
+		}
+		finally {
+			template.destroy();
+		}
+	}
+
+	@Test
+	public void testExecuteAfterDestroy() {
+		Session session = EasyMock.createMock(Session.class);
+		EasyMock.replay(session);
+
+		AsyncTopLinkTemplate template = new AsyncTopLinkTemplate(new SingleSessionFactory(session));
+		template.destroy();
+		try {
+			template.execute(new TopLinkCallback<Object>() {
+				public Object doInTopLink(Session session) throws TopLinkException {
+					return null;
+				}
+			});
+			fail("Should have thrown TaskRejectedException");
+		}
+		catch (TaskRejectedException ex) {
+			// expected: no Future that never completes
+		}
+		EasyMock.verify(session);
+	}
+
+}
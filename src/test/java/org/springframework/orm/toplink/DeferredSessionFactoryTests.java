@@ -0,0 +1,181 @@
+/*
+ * Copyright 2002-2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.orm.toplink;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+import oracle.toplink.sessions.Session;
+
+import org.easymock.EasyMock;
+import org.junit.Test;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.dao.DataAccessResourceFailureException;
+
+public class DeferredSessionFactoryTests {
+
+	@Test
+	public void testCreateSessionAfterInitialization() {
+		Session session = EasyMock.createMock(Session.class);
+		EasyMock.replay(session);
+		final SessionFactory target = new SingleSessionFactory(session);
+
+		FutureTask<SessionFactory> future = new FutureTask<SessionFactory>(new Callable<SessionFactory>() {
+			public SessionFactory call() {
+				return target;
+			}
+		});
+		DeferredSessionFactory sessionFactory = new DeferredSessionFactory(future, 10);
+		assertFalse(sessionFactory.isReady());
+		try {
+			sessionFactory.createSession();
+			fail("Should have thrown DataAccessResourceFailureException");
+		}
+		catch (DataAccessResourceFailureException ex) {
+			// expected: initialization not completed within the timeout
+		}
+
+		future.run();
+		assertTrue(sessionFactory.isReady());
+		assertSame(session, sessionFactory.createSession());
+		EasyMock.verify(session);
+	}
+
+	@Test
+	public void testCloseWaitsBeyondTimeout() throws Exception {
+		Session session = EasyMock.createMock(Session.class);
+		session.release();
+		EasyMock.replay(session);
+		final SessionFactory target = new SingleSessionFactory(session);
+
+		final FutureTask<SessionFactory> future = new FutureTask<SessionFactory>(new Callable<SessionFactory>() {
+			public SessionFactory call() {
+				return target;
+			}
+		});
+		DeferredSessionFactory sessionFactory = new DeferredSessionFactory(future, 10);
+		Thread bootstrapThread = new Thread() {
+			public void run() {
+				try {
+					Thread.sleep(200);
+				}
+				catch (InterruptedException ex) {
+					return;
+				}
+				future.run();
+			}
+		};
+		bootstrapThread.start();
+		// login completes after the bootstrap timeout: target must still get closed
+		sessionFactory.close();
+		bootstrapThread.join();
+		EasyMock.verify(session);
+	}
+
+	@Test
+	public void testCloseBoundedByCloseTimeout() throws Exception {
+		final CountDownLatch loginLatch = new CountDownLatch(1);
+		final CountDownLatch closeLatch = new CountDownLatch(1);
+		final SessionFactory target = new MockSessionFactory(null) {
+			public void close() {
+				closeLatch.countDown();
+			}
+		};
+
+		DeferredSessionFactory sessionFactory = new DeferredSessionFactory(new Callable<SessionFactory>() {
+			public SessionFactory call() {
+				// a login that does not react to interruption
+				boolean loggedIn = false;
+				while (!loggedIn) {
+					try {
+						loggedIn = loginLatch.await(10, TimeUnit.SECONDS);
+					}
+					catch (InterruptedException ex) {
+						// keep waiting
+					}
+				}
+				return target;
+			}
+		}, new SimpleAsyncTaskExecutor(), 0);
+		sessionFactory.setCloseTimeout(10);
+		long startTime = System.currentTimeMillis();
+		sessionFactory.close();
+		assertTrue(System.currentTimeMillis() - startTime < 5000);
+		assertEquals(1, closeLatch.getCount());
+
+		// login completes after shutdown: the target closes itself
+		loginLatch.countDown();
+		assertTrue(closeLatch.await(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testCloseAfterInitializationThroughExecutor() throws Exception {
+		final CountDownLatch closeLatch = new CountDownLatch(1);
+		final SessionFactory target = new MockSessionFactory(null) {
+			public void close() {
+				closeLatch.countDown();
+			}
+		};
+		DeferredSessionFactory sessionFactory = new DeferredSessionFactory(new Callable<SessionFactory>() {
+			public SessionFactory call() {
+				return target;
+			}
+		}, new SimpleAsyncTaskExecutor(), 0);
+		assertSame(target, sessionFactory.getTargetSessionFactory());
+		sessionFactory.close();
+		assertEquals(0, closeLatch.getCount());
+	}
+
+	@Test
+	public void testCloseAfterFailedInitialization() {
+		FutureTask<SessionFactory> future = new FutureTask<SessionFactory>(new Callable<SessionFactory>() {
+			public SessionFactory call() {
+				throw new IllegalStateException("login failed");
+			}
+		});
+		future.run();
+		new DeferredSessionFactory(future, 0).close();
+	}
+
+	@Test
+	public void testCreateSessionAfterFailedInitialization() {
+		FutureTask<SessionFactory> future = new FutureTask<SessionFactory>(new Callable<SessionFactory>() {
+			public SessionFactory call() {
+				throw new IllegalStateException("login failed");
+			}
+		});
+		future.run();
+		DeferredSessionFactory sessionFactory = new DeferredSessionFactory(future, 0);
+		assertFalse(sessionFactory.isReady());
+		try {
+			sessionFactory.createSession();
+			fail("Should have thrown IllegalStateException");
+		}
+		catch (IllegalStateException ex) {
+			// expected
+		}
+	}
+
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2002-2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.orm.toplink;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+
+import oracle.toplink.publicinterface.Descriptor;
+import oracle.toplink.queryframework.ReadAllQuery;
+import oracle.toplink.sessions.DatabaseSession;
+import oracle.toplink.sessions.Record;
+import oracle.toplink.sessions.Session;
+
+import org.easymock.EasyMock;
+import org.junit.Test;
+
+public class LocalSessionFactoryBeanTests {
+
+	@Test
+	public void testPrepareNamedQueriesOnStartupThread() {
+		List<Thread> preparingThreads = new ArrayList<Thread>();
+		Map<Class<?>, Descriptor> descriptors = new Hashtable<Class<?>, Descriptor>();
+		descriptors.put(String.class, newDescriptor(String.class, preparingThreads, "byName", "byCode"));
+		descriptors.put(Integer.class, newDescriptor(Integer.class, preparingThreads, "byValue"));
+
+		DatabaseSession session = EasyMock.createNiceMock(DatabaseSession.class);
+		EasyMock.expect(session.getDescriptors()).andReturn(descriptors).anyTimes();
+		EasyMock.replay(session);
+
+		LocalSessionFactoryBean factoryBean = new LocalSessionFactoryBean();
+		factoryBean.setPrepareNamedQueries(true);
+		factoryBean.postLogin(session);
+
+		assertEquals(3, preparingThreads.size());
+		for (Thread thread : preparingThreads) {
+			assertSame(Thread.currentThread(), thread);
+		}
+	}
+
+
+	private static Descriptor newDescriptor(Class<?> javaClass, final List<Thread> preparingThreads, String... queryNames) {
+		Descriptor descriptor = new Descriptor();
+		descriptor.setJavaClass(javaClass);
+		for (String queryName : queryNames) {
+			descriptor.getQueryManager().addQuery(queryName, new ReadAllQuery(javaClass) {
+				public void prepareCall(Session session, Record translationRow) {
+					preparingThreads.add(Thread.currentThread());
+				}
+			});
+		}
+		return descriptor;
+	}
+
+}
@@ -0,0 +1,256 @@
+/*
+ * Copyright 2002-2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.orm.toplink;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+
+import oracle.toplink.sessions.DatabaseLogin;
+import oracle.toplink.sessions.DatabaseSession;
+import oracle.toplink.sessions.Project;
+import oracle.toplink.sessions.SessionLog;
+
+import org.easymock.EasyMock;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.util.FileCopyUtils;
+
+public class LocalSessionFactoryTests {
+
+	private static final String CONFIG_LOCATION = "cache-test-sessions.xml";
+
+	private static final String SESSIONS_XML =
+			"<toplink-sessions><session><name>Session</name>" +
+			"<primary-project xsi:type=\"xml\">cache-test-project.xml</primary-project></session></toplink-sessions>";
+
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	private File resourceDirectory;
+
+	private File cacheDirectory;
+
+	private ClassLoader classLoader;
+
+
+	@Before
+	public void setUp() throws IOException {
+		this.resourceDirectory = this.tempFolder.newFolder("resources");
+		this.cacheDirectory = new File(this.tempFolder.getRoot(), "cache");
+		this.classLoader = new URLClassLoader(new URL[] {this.resourceDirectory.toURI().toURL()}, getClass().getClassLoader());
+		writeResource(CONFIG_LOCATION, SESSIONS_XML);
+		writeResource("cache-test-project.xml", "<project>v1</project>");
+	}
+
+	@Test
+	public void testConfigCacheRoundTrip() throws Exception {
+		TestLocalSessionFactory factory = newFactory(new DatabaseLogin());
+		factory.createSessionFactory();
+		assertEquals(1, factory.loadCount);
+		assertNull(factory.cachedProject);
+		assertEquals(1, this.cacheDirectory.listFiles().length);
+
+		factory = newFactory(new DatabaseLogin());
+		factory.createSessionFactory();
+		assertEquals(0, factory.loadCount);
+		assertNotNull(factory.cachedProject);
+		assertEquals("cached", factory.cachedProject.getName());
+	}
+
+	@Test
+	public void testConfigCacheKeyedByResourcesAndSessionName() throws Exception {
+		newFactory(new DatabaseLogin()).createSessionFactory();
+		String[] files = this.cacheDirectory.list();
+		assertEquals(1, files.length);
+
+		// changed project resource: new key
+		writeResource("cache-test-project.xml", "<project>v2</project>");
+		TestLocalSessionFactory factory = newFactory(new DatabaseLogin());
+		factory.createSessionFactory();
+		assertEquals(1, factory.loadCount);
+		assertEquals(2, this.cacheDirectory.list().length);
+
+		// different session name: new key
+		factory = newFactory(new DatabaseLogin());
+		factory.setSessionName("OtherSession");
+		factory.createSessionFactory();
+		assertEquals(1, factory.loadCount);
+		assertEquals(3, this.cacheDirectory.list().length);
+
+		// same resources and session name again: same key
+		factory = newFactory(new DatabaseLogin());
+		factory.setSessionName("OtherSession");
+		factory.createSessionFactory();
+		assertEquals(0, factory.loadCount);
+		assertEquals(3, this.cacheDirectory.list().length);
+	}
+
+	@Test
+	public void testCorruptCacheFileDiscarded() throws Exception {
+		newFactory(new DatabaseLogin()).createSessionFactory();
+		File cacheFile = this.cacheDirectory.listFiles()[0];
+		FileCopyUtils.copy("corrupt".getBytes("UTF-8"), cacheFile);
+
+		TestLocalSessionFactory factory = newFactory(new DatabaseLogin());
+		factory.createSessionFactory();
+		assertEquals(1, factory.loadCount);
+		assertNull(factory.cachedProject);
+
+		// rewritten from the freshly loaded configuration
+		factory = newFactory(new DatabaseLogin());
+		factory.createSessionFactory();
+		assertEquals(0, factory.loadCount);
+		assertNotNull(factory.cachedProject);
+	}
+
+	@Test
+	public void testConfigNotCachedWithCredentials() throws Exception {
+		DatabaseLogin login = new DatabaseLogin();
+		login.setUserName("scott");
+		login.setPassword("tiger");
+		newFactory(login).createSessionFactory();
+		assertFalse(this.cacheDirectory.isDirectory() && this.cacheDirectory.list().length > 0);
+	}
+
+	@Test
+	public void testConfigNotCachedWithConnectionPools() throws Exception {
+		writeResource(CONFIG_LOCATION, "<toplink-sessions><session><name>Session</name>" +
+				"<primary-project xsi:type=\"xml\">cache-test-project.xml</primary-project>" +
+				"<connection-pools><read-connection-pool><name>ReadConnectionPool</name></read-connection-pool>" +
+				"</connection-pools></session></toplink-sessions>");
+		TestLocalSessionFactory factory = newFactory(new DatabaseLogin());
+		factory.createSessionFactory();
+		factory = newFactory(new DatabaseLogin());
+		factory.createSessionFactory();
+		assertEquals(1, factory.loadCount);
+		assertFalse(this.cacheDirectory.isDirectory() && this.cacheDirectory.list().length > 0);
+	}
+
+	@Test
+	public void testConfigNotCachedWithServerPlatform() throws Exception {
+		writeResource(CONFIG_LOCATION, "<toplink-sessions><session xsi:type=\"server-session\"><name>Session</name>" +
+				"<server-platform xsi:type=\"oc4j-1013-platform\"/>" +
+				"<primary-project xsi:type=\"xml\">cache-test-project.xml</primary-project></session></toplink-sessions>");
+		newFactory(new DatabaseLogin()).createSessionFactory();
+		assertFalse(this.cacheDirectory.isDirectory() && this.cacheDirectory.list().length > 0);
+	}
+
+	@Test
+	public void testConfigCachedWithLoggingOnlyIfSessionLogSpecified() throws Exception {
+		writeResource(CONFIG_LOCATION, "<toplink-sessions><session><name>Session</name>" +
+				"<primary-project xsi:type=\"xml\">cache-test-project.xml</primary-project>" +
+				"<logging xsi:type=\"toplink-log\"><log-level>fine</log-level></logging></session></toplink-sessions>");
+		newFactory(new DatabaseLogin()).createSessionFactory();
+		assertFalse(this.cacheDirectory.isDirectory() && this.cacheDirectory.list().length > 0);
+
+		TestLocalSessionFactory factory = newFactory(new DatabaseLogin());
+		factory.setSessionLog(EasyMock.createNiceMock(SessionLog.class));
+		factory.createSessionFactory();
+		assertEquals(1, this.cacheDirectory.list().length);
+	}
+
+	@Test
+	public void testSessionNameAppliedOnCacheHit() throws Exception {
+		newFactory(new DatabaseLogin()).createSessionFactory();
+
+		DatabaseSession session = createSession(new DatabaseLogin());
+		session.setName("Session");
+		EasyMock.expectLastCall().times(1);
+		EasyMock.replay(session);
+		TestLocalSessionFactory factory = newFactory(session);
+		factory.createSessionFactory();
+		assertEquals(0, factory.loadCount);
+		EasyMock.verify(session);
+	}
+
+	@Test
+	public void testConfigNotCachedWithEventListeners() throws Exception {
+		writeResource(CONFIG_LOCATION, "<toplink-sessions><session><name>Session</name>" +
+				"<primary-project xsi:type=\"xml\">cache-test-project.xml</primary-project>" +
+				"<event-listener-classes><event-listener-class>test.Listener</event-listener-class>" +
+				"</event-listener-classes></session></toplink-sessions>");
+		newFactory(new DatabaseLogin()).createSessionFactory();
+		assertFalse(this.cacheDirectory.isDirectory() && this.cacheDirectory.list().length > 0);
+	}
+
+
+	private TestLocalSessionFactory newFactory(DatabaseLogin login) {
+		DatabaseSession session = createSession(login);
+		EasyMock.replay(session);
+		return newFactory(session);
+	}
+
+	private TestLocalSessionFactory newFactory(DatabaseSession session) {
+		TestLocalSessionFactory factory = new TestLocalSessionFactory(session);
+		factory.setConfigLocation(CONFIG_LOCATION);
+		factory.setSessionClassLoader(this.classLoader);
+		factory.setConfigCacheDirectory(this.cacheDirectory);
+		return factory;
+	}
+
+	private DatabaseSession createSession(DatabaseLogin login) {
+		Project project = new Project();
+		project.setName("cached");
+		DatabaseSession session = EasyMock.createNiceMock(DatabaseSession.class);
+		EasyMock.expect(session.getProject()).andReturn(project).anyTimes();
+		EasyMock.expect(session.getLogin()).andReturn(login).anyTimes();
+		return session;
+	}
+
+	private void writeResource(String name, String content) throws IOException {
+		FileCopyUtils.copy(content.getBytes("UTF-8"), new File(this.resourceDirectory, name));
+	}
+
+
+	private static class TestLocalSessionFactory extends LocalSessionFactory {
+
+		private final DatabaseSession session;
+
+		private int loadCount;
+
+		private Project cachedProject;
+
+		public TestLocalSessionFactory(DatabaseSession session) {
+			this.session = session;
+		}
+
+		protected DatabaseSession loadDatabaseSession(
+				String configLocation, String sessionName, ClassLoader sessionClassLoader) {
+			this.loadCount++;
+			return this.session;
+		}
+
+		protected DatabaseSession createSessionFromProject(Project project, boolean serverSession) {
+			this.cachedProject = project;
+			return this.session;
+		}
+
+		protected SessionFactory newSessionFactory(DatabaseSession session) {
+			return new SingleSessionFactory(session);
+		}
+	}
+
+}
@@ -0,0 +1,238 @@
+/*
+ * Copyright 2002-2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.orm.toplink;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import oracle.toplink.sessions.DatabaseLogin;
+import oracle.toplink.sessions.Session;
+import oracle.toplink.threetier.ServerSession;
+
+import org.easymock.EasyMock;
+import org.junit.Test;
+
+public class ServerSessionFactoryTests {
+
+	@Test
+	public void testPooledClientSessions() {
+		final Session clientSession = EasyMock.createMock(Session.class);
+		EasyMock.expect(clientSession.getLogin()).andReturn(null).times(2);
+		EasyMock.replay(clientSession);
+
+		ServerSessionFactory factory = new ServerSessionFactory(null) {
+			protected Session createClientSession() {
+				return clientSession;
+			}
+			protected boolean isPooledSessionValid(Session session) {
+				return true;
+			}
+		};
+		factory.setPoolMaxSize(1);
+
+		Session session = factory.createSession();
+		session.getLogin();
+		session.release();
+		session.release();
+		assertEquals(1, factory.getPooledSessionCount());
+
+		session = factory.createSession();
+		session.getLogin();
+		assertEquals(0, factory.getPooledSessionCount());
+		assertEquals(1, factory.getPoolHitCount());
+		assertEquals(1, factory.getPoolMissCount());
+		EasyMock.verify(clientSession);
+	}
+
+	@Test
+	public void testPooledSessionReferenceNotReusedAcrossCheckouts() {
+		final Session clientSession = EasyMock.createMock(Session.class);
+		EasyMock.expect(clientSession.getLogin()).andReturn(null);
+		EasyMock.replay(clientSession);
+
+		ServerSessionFactory factory = new ServerSessionFactory(null) {
+			protected Session createClientSession() {
+				return clientSession;
+			}
+			protected boolean isPooledSessionValid(Session session) {
+				return true;
+			}
+		};
+		factory.setPoolMaxSize(1);
+
+		Session staleSession = factory.createSession();
+		assertSame(clientSession, staleSession.getActiveSession());
+		staleSession.release();
+
+		Session session = factory.createSession();
+		assertNotSame(staleSession, session);
+		assertSame(clientSession, session.getActiveSession());
+
+		// A stale reference must neither return nor drive the current checkout.
+		staleSession.release();
+		assertEquals(0, factory.getPooledSessionCount());
+		try {
+			staleSession.getLogin();
+			fail("Should have thrown IllegalStateException");
+		}
+		catch (IllegalStateException ex) {
+			// expected
+		}
+		session.getLogin();
+		session.release();
+		assertEquals(1, factory.getPooledSessionCount());
+		EasyMock.verify(clientSession);
+	}
+
+	@Test
+	public void testPooledSessionReleasedAfterUnitOfWork() {
+		final Session clientSession = EasyMock.createMock(Session.class);
+		EasyMock.expect(clientSession.acquireUnitOfWork()).andReturn(null);
+		clientSession.release();
+		EasyMock.replay(clientSession);
+
+		ServerSessionFactory factory = new ServerSessionFactory(null) {
+			protected Session createClientSession() {
+				return clientSession;
+			}
+			protected boolean isPooledSessionValid(Session session) {
+				return true;
+			}
+		};
+		factory.setPoolMaxSize(1);
+
+		Session session = factory.createSession();
+		session.acquireUnitOfWork();
+		session.release();
+		assertEquals(0, factory.getPooledSessionCount());
+		EasyMock.verify(clientSession);
+	}
+
+	@Test
+	public void testPooledSessionReleasedAfterNonSelectingSQL() {
+		final Session clientSession = EasyMock.createNiceMock(Session.class);
+		clientSession.release();
+		EasyMock.expectLastCall().times(1);
+		EasyMock.replay(clientSession);
+
+		ServerSessionFactory factory = new ServerSessionFactory(null) {
+			protected Session createClientSession() {
+				return clientSession;
+			}
+			protected boolean isPooledSessionValid(Session session) {
+				return true;
+			}
+		};
+		factory.setPoolMaxSize(1);
+
+		Session session = factory.createSession();
+		session.executeNonSelectingSQL("UPDATE T SET C = 1");
+		session.release();
+		assertEquals(0, factory.getPooledSessionCount());
+		EasyMock.verify(clientSession);
+	}
+
+	@Test
+	public void testPooledSessionReleasedWhileInTransaction() {
+		final AtomicInteger released = new AtomicInteger();
+		final Session clientSession = new ServerSession(new DatabaseLogin()) {
+			public boolean isInTransaction() {
+				return true;
+			}
+			public void release() {
+				released.incrementAndGet();
+			}
+		};
+
+		ServerSessionFactory factory = new ServerSessionFactory(null) {
+			protected Session createClientSession() {
+				return clientSession;
+			}
+			protected boolean isPooledSessionValid(Session session) {
+				return true;
+			}
+		};
+		factory.setPoolMaxSize(1);
+
+		Session session = factory.createSession();
+		session.release();
+		assertEquals(0, factory.getPooledSessionCount());
+		assertEquals(1, released.get());
+	}
+
+	@Test
+	public void testConcurrentCheckoutAndClose() throws Exception {
+		final AtomicInteger acquired = new AtomicInteger();
+		final AtomicInteger released = new AtomicInteger();
+		ServerSession serverSession = new ServerSession(new DatabaseLogin()) {
+			public void logout() {
+			}
+			public void release() {
+			}
+		};
+		final ServerSessionFactory factory = new ServerSessionFactory(serverSession) {
+			protected Session createClientSession() {
+				acquired.incrementAndGet();
+				return (Session) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {Session.class},
+						new InvocationHandler() {
+							public Object invoke(Object proxy, Method method, Object[] args) {
+								if (method.getName().equals("release")) {
+									released.incrementAndGet();
+								}
+								return null;
+							}
+						});
+			}
+			protected boolean isPooledSessionValid(Session session) {
+				return true;
+			}
+		};
+		factory.setPoolMaxSize(4);
+
+		int threadCount = 8;
+		final CountDownLatch started = new CountDownLatch(threadCount);
+		Thread[] threads = new Thread[threadCount];
+		for (int i = 0; i < threadCount; i++) {
+			threads[i] = new Thread() {
+				public void run() {
+					started.countDown();
+					for (int j = 0; j < 1000; j++) {
+						factory.createSession().release();
+					}
+				}
+			};
+			threads[i].start();
+		}
+		started.await();
+		factory.close();
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		assertEquals(0, factory.getPooledSessionCount());
+		assertEquals(acquired.get(), released.get());
+	}
+
+}
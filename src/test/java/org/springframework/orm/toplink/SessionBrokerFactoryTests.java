@@ -17,15 +17,25 @@
 package org.springframework.orm.toplink;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
 import oracle.toplink.exceptions.ValidationException;
 import oracle.toplink.publicinterface.UnitOfWork;
+import oracle.toplink.queryframework.DataReadQuery;
+import oracle.toplink.queryframework.DatabaseQuery;
 import oracle.toplink.sessionbroker.SessionBroker;
 import oracle.toplink.sessions.Session;
 
 import org.junit.Test;
 
+import org.springframework.core.task.support.TaskExecutorAdapter;
+
 /**
  * @author <a href="mailto:james.x.clark@oracle.com">James Clark</a>
  */
@@ -52,6 +62,75 @@ public class SessionBrokerFactoryTests {
 		}
 	}
 
+	@Test
+	public void testClientSessionPolicies() {
+		SessionBroker broker = new MockSingleSessionBroker();
+		SessionBrokerSessionFactory factory = new SessionBrokerSessionFactory(broker);
+		assertEquals(broker, factory.createSession());
+		assertEquals(1, factory.getFallbackCount());
+
+		factory.setClientSessionPolicy(SessionBrokerSessionFactory.ClientSessionPolicy.FAIL_FAST);
+		try {
+			factory.createSession();
+			fail("Should have thrown ValidationException");
+		}
+		catch (ValidationException ex) {
+			// expected
+		}
+
+		factory.setClientSessionPolicy(SessionBrokerSessionFactory.ClientSessionPolicy.WAIT);
+		factory.setClientSessionWaitTimeout(20);
+		try {
+			factory.createSession();
+			fail("Should have thrown ValidationException");
+		}
+		catch (ValidationException ex) {
+			// expected
+		}
+		assertEquals(0, factory.getWaitCount());
+		assertEquals(1, factory.getFallbackCount());
+	}
+
+	@Test
+	public void testWaitWhileSessionBrokerNotConnected() {
+		final SessionBroker client = new MockClientSessionBroker();
+		SessionBroker broker = new SessionBroker() {
+			private int attempts;
+			public boolean isConnected() {
+				return this.attempts >= 3;
+			}
+			public SessionBroker acquireClientSessionBroker() {
+				if (++this.attempts < 3) {
+					throw new ValidationException();
+				}
+				return client;
+			}
+		};
+		SessionBrokerSessionFactory factory = new SessionBrokerSessionFactory(broker);
+		factory.setClientSessionPolicy(SessionBrokerSessionFactory.ClientSessionPolicy.WAIT);
+		factory.setClientSessionWaitTimeout(5000);
+		assertEquals(client, factory.createSession());
+		assertEquals(1, factory.getWaitCount());
+		assertEquals(0, factory.getFallbackCount());
+
+		SessionBroker notConnected = new MockSingleSessionBroker() {
+			public boolean isConnected() {
+				return false;
+			}
+		};
+		factory = new SessionBrokerSessionFactory(notConnected);
+		factory.setClientSessionPolicy(SessionBrokerSessionFactory.ClientSessionPolicy.WAIT);
+		factory.setClientSessionWaitTimeout(20);
+		try {
+			factory.createSession();
+			fail("Should have thrown ValidationException");
+		}
+		catch (ValidationException ex) {
+			// expected
+		}
+		assertEquals(1, factory.getWaitCount());
+	}
+
     /**
      * Insure that the managed TopLink Session proxy is behaving correctly
      * when it has been initialized with a SessionBroker.  
@@ -70,12 +149,66 @@ public class SessionBrokerFactoryTests {
 		assertEquals(session.getActiveUnitOfWork(), session.getActiveUnitOfWork());
 	}
 
+	/**
+	 * Same as above, with a CGLIB-generated managed Session instead of a JDK proxy.
+	 */
+	@Test
+	public void testManagedSessionBrokerWithOptimizedProxies() {
+		SessionBroker client = new MockClientSessionBroker();
+		SessionBroker broker = new MockServerSessionBroker(client);
+		SessionBrokerSessionFactory factory = new SessionBrokerSessionFactory(broker);
+		factory.setOptimizeSessionProxies(true);
+
+		Session session = factory.createManagedClientSession();
+		assertEquals(client, session.getActiveSession());
+		assertNotNull(session.getActiveUnitOfWork());
+		assertEquals(session.getActiveUnitOfWork(), session.getActiveUnitOfWork());
+		assertEquals(session, session);
+		assertFalse(session.equals(factory.createManagedClientSession()));
+		assertEquals(System.identityHashCode(session), session.hashCode());
+	}
+
+	@Test
+	public void testExecuteQueriesWithScatterGatherExecutor() {
+		final List<DatabaseQuery> executed = new ArrayList<DatabaseQuery>();
+		SessionBroker client = new MockClientSessionBroker() {
+			public Object executeQuery(DatabaseQuery query) {
+				executed.add(query);
+				return query.getName();
+			}
+		};
+		SessionBroker broker = new MockServerSessionBroker(client);
+		SessionBrokerSessionFactory factory = new SessionBrokerSessionFactory(broker);
+		factory.setScatterGatherExecutor(new TaskExecutorAdapter(new Executor() {
+			public void execute(Runnable task) {
+				task.run();
+			}
+		}));
+
+		List<DatabaseQuery> queries = new ArrayList<DatabaseQuery>();
+		for (int i = 0; i < 3; i++) {
+			DataReadQuery query = new DataReadQuery();
+			query.setName("query" + i);
+			queries.add(query);
+		}
+		List<Object> results = factory.executeQueries(queries);
+		assertEquals(3, executed.size());
+		assertEquals(3, results.size());
+		assertEquals("query0", results.get(0));
+		assertEquals("query1", results.get(1));
+		assertEquals("query2", results.get(2));
+	}
+
 
 	private class MockSingleSessionBroker extends SessionBroker {
 
 		public MockSingleSessionBroker() {
 		}
 
+		public boolean isConnected() {
+			return true;
+		}
+
 		public SessionBroker acquireClientSessionBroker() {
 			throw new ValidationException();
 		}
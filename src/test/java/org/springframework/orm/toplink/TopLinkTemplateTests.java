@@ -5,14 +5,34 @@
 
 package org.springframework.orm.toplink;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.Executor;
+
 import oracle.toplink.exceptions.TopLinkException;
+import oracle.toplink.expressions.Expression;
+import oracle.toplink.publicinterface.Descriptor;
+import oracle.toplink.queryframework.CursoredStream;
+import oracle.toplink.queryframework.DatabaseQuery;
+import oracle.toplink.queryframework.ReadAllQuery;
+import oracle.toplink.queryframework.ReadObjectQuery;
+import oracle.toplink.sessions.IdentityMapAccessor;
+import oracle.toplink.sessions.ObjectCopyingPolicy;
 import oracle.toplink.sessions.Session;
+import oracle.toplink.sessions.UnitOfWork;
 
 import org.easymock.EasyMock;
+import org.easymock.IArgumentMatcher;
 import org.junit.Test;
+import org.springframework.core.task.support.TaskExecutorAdapter;
+import org.springframework.transaction.support.TransactionSynchronization;
 import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 /**
@@ -117,4 +137,396 @@ public class TopLinkTemplateTests {
 		EasyMock.verify(session);
 		TransactionSynchronizationManager.unbindResource(factory);
 	}
+
+	@Test
+	public void testRegisterAllNewInChunks() {
+		Session session = EasyMock.createNiceMock(Session.class);
+		UnitOfWork uow = EasyMock.createMock(UnitOfWork.class);
+
+		SessionFactory factory = new SingleSessionFactory(session);
+
+		EasyMock.expect(session.acquireUnitOfWork()).andReturn(uow).times(3);
+		EasyMock.expect(uow.registerNewObject(EasyMock.anyObject())).andReturn(null).times(5);
+		uow.commit();
+		EasyMock.expectLastCall().times(3);
+		uow.release();
+		EasyMock.expectLastCall().times(3);
+		EasyMock.replay(session, uow);
+
+		TopLinkTemplate template = new TopLinkTemplate(factory);
+		BulkOperationStatistics statistics =
+				template.registerAllNew(Arrays.asList("a", "b", "c", "d", "e"), 2);
+		assertEquals(3, statistics.getChunkCount());
+		assertEquals(5, statistics.getObjectCount());
+		assertEquals(2, statistics.getChunks().get(0).getObjectCount());
+		assertEquals(1, statistics.getChunks().get(2).getObjectCount());
+		EasyMock.verify(session, uow);
+	}
+
+	@Test
+	public void testReadAllByIdFromIdentityMap() {
+		Session session = EasyMock.createMock(Session.class);
+		IdentityMapAccessor accessor = EasyMock.createMock(IdentityMapAccessor.class);
+
+		SessionFactory factory = new SingleSessionFactory(session);
+
+		EasyMock.expect(session.getActiveUnitOfWork()).andReturn(null);
+		EasyMock.expect(session.getIdentityMapAccessor()).andReturn(accessor);
+		EasyMock.expect(accessor.getFromIdentityMap(new Vector(Arrays.asList(2)), String.class)).andReturn("two");
+		EasyMock.expect(accessor.getFromIdentityMap(new Vector(Arrays.asList(1)), String.class)).andReturn("one");
+		EasyMock.expect(accessor.isValid("two")).andReturn(true);
+		EasyMock.expect(accessor.isValid("one")).andReturn(true);
+		session.release();
+		EasyMock.replay(session, accessor);
+
+		TopLinkTemplate template = new TopLinkTemplate(factory);
+		List<String> result = template.readAllById(String.class, Arrays.asList(2, 1, 2));
+		assertEquals(Arrays.asList("two", "one", "two"), result);
+		EasyMock.verify(session, accessor);
+	}
+
+	@Test
+	public void testReadAllByIdInChunkedInLists() {
+		Session session = EasyMock.createNiceMock(Session.class);
+		IdentityMapAccessor accessor = EasyMock.createNiceMock(IdentityMapAccessor.class);
+
+		SessionFactory factory = new SingleSessionFactory(session);
+
+		Descriptor descriptor = new Descriptor();
+		descriptor.setJavaClass(String.class);
+		descriptor.addPrimaryKeyFieldName("ID");
+		EasyMock.expect(session.getIdentityMapAccessor()).andReturn(accessor);
+		EasyMock.expect(session.getDescriptor(String.class)).andReturn(descriptor);
+		// 3 missing ids with an IN list size of 2: two database reads
+		EasyMock.expect(session.readAllObjects(EasyMock.eq(String.class), (Expression) EasyMock.anyObject()))
+				.andReturn(new Vector(Arrays.asList("three", "one"))).andReturn(new Vector(Arrays.asList("two")));
+		EasyMock.expect(session.keyFromObject("one")).andReturn(new Vector(Arrays.asList(1)));
+		EasyMock.expect(session.keyFromObject("two")).andReturn(new Vector(Arrays.asList(2)));
+		EasyMock.expect(session.keyFromObject("three")).andReturn(new Vector(Arrays.asList(3)));
+		EasyMock.replay(session, accessor);
+
+		TopLinkTemplate template = new TopLinkTemplate(factory);
+		template.setMaxInListSize(2);
+		List<String> result = template.readAllById(String.class, Arrays.asList(1, 3, 2, 1));
+		assertEquals(Arrays.asList("one", "three", "two", "one"), result);
+		EasyMock.verify(session);
+	}
+
+	@Test
+	public void testReadAllByIdWithCompositeKeys() {
+		Session session = EasyMock.createNiceMock(Session.class);
+		IdentityMapAccessor accessor = EasyMock.createNiceMock(IdentityMapAccessor.class);
+
+		SessionFactory factory = new SingleSessionFactory(session);
+
+		Descriptor descriptor = new Descriptor();
+		descriptor.setJavaClass(String.class);
+		descriptor.addPrimaryKeyFieldName("ID");
+		descriptor.addPrimaryKeyFieldName("CODE");
+		List<DatabaseQuery> executed = new ArrayList<DatabaseQuery>();
+		EasyMock.expect(session.getIdentityMapAccessor()).andReturn(accessor);
+		EasyMock.expect(session.getDescriptor(String.class)).andReturn(descriptor);
+		// composite keys: one ReadObjectQuery per missing key, no IN list
+		EasyMock.expect(session.executeQuery(captureQuery(executed))).andReturn("1a").andReturn("2b");
+		EasyMock.replay(session, accessor);
+
+		TopLinkTemplate template = new TopLinkTemplate(factory);
+		List<String> result = template.readAllById(String.class,
+				Arrays.asList(new Object[] {1, "a"}, new Object[] {2, "b"}));
+		assertEquals(Arrays.asList("1a", "2b"), result);
+		assertEquals(2, executed.size());
+		assertEquals(new Vector(Arrays.asList(1, "a")), ((ReadObjectQuery) executed.get(0)).getSelectionKey());
+		assertEquals(new Vector(Arrays.asList(2, "b")), ((ReadObjectQuery) executed.get(1)).getSelectionKey());
+		EasyMock.verify(session);
+	}
+
+	@Test
+	public void testExecuteNamedQueryWithResultCache() {
+		Session session = EasyMock.createNiceMock(Session.class);
+
+		SessionFactory factory = new SingleSessionFactory(session);
+
+		EasyMock.expect(session.executeQuery("byCode", String.class, new Vector(Arrays.asList("a"))))
+				.andReturn(new Vector(Arrays.asList("result"))).times(2);
+		UnitOfWork uow = EasyMock.createNiceMock(UnitOfWork.class);
+		EasyMock.expect(session.acquireUnitOfWork()).andReturn(uow);
+		EasyMock.replay(session, uow);
+
+		QueryResultCache cache = new QueryResultCache();
+		TopLinkTemplate template = new TopLinkTemplate(factory);
+		template.setQueryResultCache(cache);
+		assertEquals(Arrays.asList("result"), template.executeNamedQuery(String.class, "byCode", new Object[] {"a"}));
+		assertEquals(Arrays.asList("result"), template.executeNamedQuery(String.class, "byCode", new Object[] {"a"}));
+		assertEquals(1, cache.getHitCount());
+		assertEquals(1, cache.getMissCount());
+
+		template.delete("written");
+		assertEquals(0, cache.size());
+		assertEquals(Arrays.asList("result"), template.executeNamedQuery(String.class, "byCode", new Object[] {"a"}));
+		EasyMock.verify(session);
+	}
+
+	@Test
+	public void testQueryResultInvalidationWithinTransaction() {
+		Session session = EasyMock.createNiceMock(Session.class);
+		UnitOfWork uow = EasyMock.createNiceMock(UnitOfWork.class);
+		EasyMock.expect(session.acquireUnitOfWork()).andReturn(uow).anyTimes();
+		EasyMock.replay(session, uow);
+
+		SessionFactory factory = new SingleSessionFactory(session);
+		QueryResultCache cache = new QueryResultCache();
+		TopLinkTemplate template = new TopLinkTemplate(factory);
+		template.setQueryResultCache(cache);
+
+		TransactionSynchronizationManager.initSynchronization();
+		try {
+			template.delete("a");
+			int synchronizationCount = TransactionSynchronizationManager.getSynchronizations().size();
+			assertTrue(TransactionSynchronizationManager.hasResource(cache));
+			template.delete("b");
+			template.delete("c");
+			assertEquals(synchronizationCount, TransactionSynchronizationManager.getSynchronizations().size());
+
+			// re-cached by another thread before commit
+			cache.put(String.class, "byCode", new Object[] {"a"}, "result");
+			for (TransactionSynchronization synchronization : TransactionSynchronizationManager.getSynchronizations()) {
+				synchronization.afterCompletion(TransactionSynchronization.STATUS_COMMITTED);
+			}
+			assertEquals(0, cache.size());
+			assertFalse(TransactionSynchronizationManager.hasResource(cache));
+		}
+		finally {
+			TransactionSynchronizationManager.clearSynchronization();
+			TransactionSynchronizationManager.unbindResourceIfPossible(factory);
+		}
+	}
+
+	@Test
+	public void testCopyAllInParallel() {
+		Session session = EasyMock.createMock(Session.class);
+
+		SessionFactory factory = new SingleSessionFactory(session);
+
+		EasyMock.expect(session.copyObject(EasyMock.eq("a"), (ObjectCopyingPolicy) EasyMock.anyObject())).andReturn("A");
+		EasyMock.expect(session.copyObject(EasyMock.eq("b"), (ObjectCopyingPolicy) EasyMock.anyObject())).andReturn("B");
+		EasyMock.expect(session.copyObject(EasyMock.eq("c"), (ObjectCopyingPolicy) EasyMock.anyObject())).andReturn("C");
+		// one Session per partition
+		session.release();
+		EasyMock.expectLastCall().times(2);
+		EasyMock.replay(session);
+
+		TopLinkTemplate template = new TopLinkTemplate(factory);
+		template.setParallelExecutor(new TaskExecutorAdapter(new Executor() {
+			public void execute(Runnable task) {
+				task.run();
+			}
+		}));
+		List<?> result = template.copyAllInParallel(Arrays.asList("a", "b", "c"), 2);
+		assertEquals(Arrays.asList("A", "B", "C"), result);
+		EasyMock.verify(session);
+	}
+
+	@Test
+	public void testRefreshAllInBatches() {
+		Session session = createRefreshSession();
+		List<DatabaseQuery> executed = new ArrayList<DatabaseQuery>();
+		// 3 entities with an IN list size of 2: two database reads
+		EasyMock.expect(session.executeQuery(captureQuery(executed)))
+				.andReturn(new Vector(Arrays.asList("B", "A"))).andReturn(new Vector());
+		EasyMock.replay(session);
+
+		TopLinkTemplate template = new TopLinkTemplate(new SingleSessionFactory(session));
+		template.setBatchRefresh(true);
+		template.setMaxInListSize(2);
+		List<?> result = template.refreshAll(Arrays.asList("a", "b", "c"));
+		assertEquals(Arrays.asList("A", "B", null), result);
+		assertEquals(2, executed.size());
+		for (DatabaseQuery query : executed) {
+			assertEquals(String.class, ((ReadAllQuery) query).getReferenceClass());
+			assertTrue(((ReadAllQuery) query).shouldRefreshIdentityMapResult());
+		}
+		EasyMock.verify(session);
+	}
+
+	@Test
+	public void testRefreshAllInBatchesWithCompositeKeys() {
+		Session session = EasyMock.createNiceMock(Session.class);
+		Descriptor descriptor = new Descriptor();
+		descriptor.setJavaClass(String.class);
+		descriptor.addPrimaryKeyFieldName("ID");
+		descriptor.addPrimaryKeyFieldName("CODE");
+		EasyMock.expect(session.getDescriptor(String.class)).andReturn(descriptor);
+		// composite keys: one refresh per entity, no IN list
+		EasyMock.expect(session.refreshObject("a")).andReturn("A");
+		EasyMock.expect(session.refreshObject("b")).andReturn("B");
+		EasyMock.replay(session);
+
+		TopLinkTemplate template = new TopLinkTemplate(new SingleSessionFactory(session));
+		template.setBatchRefresh(true);
+		assertEquals(Arrays.asList("A", "B"), template.refreshAll(Arrays.asList("a", "b")));
+		EasyMock.verify(session);
+	}
+
+	@Test
+	public void testRefreshAllInParallel() {
+		Session session = createRefreshSession();
+		EasyMock.expect(session.executeQuery((DatabaseQuery) EasyMock.anyObject()))
+				.andReturn(new Vector(Arrays.asList("A"))).andReturn(new Vector(Arrays.asList("C")));
+		EasyMock.replay(session);
+
+		TopLinkTemplate template = new TopLinkTemplate(new SingleSessionFactory(session));
+		template.setParallelExecutor(new TaskExecutorAdapter(new Executor() {
+			public void execute(Runnable task) {
+				task.run();
+			}
+		}));
+		List<?> result = template.refreshAllInParallel(Arrays.asList("a", "b", "c"), 2);
+		// "b" no longer exists
+		assertEquals(Arrays.asList("A", null, "C"), result);
+		EasyMock.verify(session);
+	}
+
+	@Test
+	public void testRefreshAllInParallelWithoutExecutor() {
+		Session session = createRefreshSession();
+		EasyMock.expect(session.executeQuery((DatabaseQuery) EasyMock.anyObject()))
+				.andReturn(new Vector(Arrays.asList("C", "A")));
+		EasyMock.replay(session);
+
+		TopLinkTemplate template = new TopLinkTemplate(new SingleSessionFactory(session));
+		List<?> result = template.refreshAllInParallel(Arrays.asList("a", "b", "c"), 2);
+		// same result as the parallel path: null instead of an exception
+		assertEquals(Arrays.asList("A", null, "C"), result);
+		EasyMock.verify(session);
+	}
+
+	@Test
+	public void testForEachReleasesPagesWithoutMaintainingCache() {
+		Session session = EasyMock.createMock(Session.class);
+
+		SessionFactory factory = new SingleSessionFactory(session);
+
+		List<DatabaseQuery> executed = new ArrayList<DatabaseQuery>();
+		MockCursoredStream stream = new MockCursoredStream(Arrays.asList("a", "b", "c", "d", "e"));
+		EasyMock.expect(session.executeQuery(captureQuery(executed))).andReturn(stream);
+		session.release();
+		EasyMock.replay(session);
+
+		ReadAllQuery query = new ReadAllQuery(String.class);
+		final List<String> processed = new ArrayList<String>();
+		TopLinkTemplate template = new TopLinkTemplate(factory);
+		int count = template.forEach(query, 2, new ObjectCallbackHandler<String>() {
+			public void processObject(String object) {
+				processed.add(object);
+			}
+		});
+
+		assertEquals(5, count);
+		assertEquals(Arrays.asList("a", "b", "c", "d", "e"), processed);
+		// pages of 2 released after the 2nd and the 4th object
+		assertEquals(2, stream.releaseCount);
+		assertTrue(stream.closed);
+		assertEquals(1, executed.size());
+		ReadAllQuery queryToUse = (ReadAllQuery) executed.get(0);
+		assertTrue(queryToUse != query);
+		assertFalse(queryToUse.shouldMaintainCache());
+		assertTrue(query.shouldMaintainCache());
+		EasyMock.verify(session);
+	}
+
+	@Test
+	public void testForEachClosesCursorOnCallbackException() {
+		Session session = EasyMock.createMock(Session.class);
+
+		SessionFactory factory = new SingleSessionFactory(session);
+
+		MockCursoredStream stream = new MockCursoredStream(Arrays.asList("a", "b", "c"));
+		EasyMock.expect(session.executeQuery(captureQuery(new ArrayList<DatabaseQuery>()))).andReturn(stream);
+		session.release();
+		EasyMock.replay(session);
+
+		TopLinkTemplate template = new TopLinkTemplate(factory);
+		try {
+			template.forEach(new ReadAllQuery(String.class), 10, new ObjectCallbackHandler<String>() {
+				public void processObject(String object) {
+					if (object.equals("b")) {
+						throw new IllegalStateException("callback failure");
+					}
+				}
+			});
+			fail("Should have thrown IllegalStateException");
+		}
+		catch (IllegalStateException ex) {
+			// expected
+		}
+		assertTrue(stream.closed);
+		EasyMock.verify(session);
+	}
+
+
+	/**
+	 * Create a Session mock for refreshing the String entities "a", "b" and "c"
+	 * (primary keys 1, 2 and 3) into "A", "B" and "C".
+	 */
+	private static Session createRefreshSession() {
+		Session session = EasyMock.createNiceMock(Session.class);
+		Descriptor descriptor = new Descriptor();
+		descriptor.setJavaClass(String.class);
+		descriptor.addPrimaryKeyFieldName("ID");
+		EasyMock.expect(session.getDescriptor(String.class)).andReturn(descriptor).anyTimes();
+		EasyMock.expect(session.keyFromObject("a")).andReturn(new Vector(Arrays.asList(1))).anyTimes();
+		EasyMock.expect(session.keyFromObject("b")).andReturn(new Vector(Arrays.asList(2))).anyTimes();
+		EasyMock.expect(session.keyFromObject("c")).andReturn(new Vector(Arrays.asList(3))).anyTimes();
+		EasyMock.expect(session.keyFromObject("A")).andReturn(new Vector(Arrays.asList(1))).anyTimes();
+		EasyMock.expect(session.keyFromObject("B")).andReturn(new Vector(Arrays.asList(2))).anyTimes();
+		EasyMock.expect(session.keyFromObject("C")).andReturn(new Vector(Arrays.asList(3))).anyTimes();
+		return session;
+	}
+
+	/**
+	 * Argument matcher that accepts any query, recording it in the given list.
+	 */
+	private static DatabaseQuery captureQuery(final List<DatabaseQuery> captured) {
+		EasyMock.reportMatcher(new IArgumentMatcher() {
+			public boolean matches(Object argument) {
+				captured.add((DatabaseQuery) argument);
+				return true;
+			}
+			public void appendTo(StringBuffer buffer) {
+				buffer.append("captureQuery()");
+			}
+		});
+		return null;
+	}
+
+
+	private static class MockCursoredStream extends CursoredStream {
+
+		private final Iterator<?> objects;
+
+		private int releaseCount;
+
+		private boolean closed;
+
+		public MockCursoredStream(List<?> objects) {
+			this.objects = objects.iterator();
+		}
+
+		public boolean hasMoreElements() {
+			return this.objects.hasNext();
+		}
+
+		public Object nextElement() {
+			return this.objects.next();
+		}
+
+		public void releasePrevious() {
+			this.releaseCount++;
+		}
+
+		public void close() {
+			this.closed = true;
+		}
+	}
+
 }
@@ -5,22 +5,36 @@
 
 package org.springframework.orm.toplink;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.sql.Connection;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Vector;
+
+import javax.sql.DataSource;
+import oracle.toplink.changesets.ObjectChangeSet;
+import oracle.toplink.changesets.UnitOfWorkChangeSet;
+import oracle.toplink.exceptions.ValidationException;
+import oracle.toplink.sessionbroker.SessionBroker;
 
 import oracle.toplink.sessions.Session;
 import oracle.toplink.sessions.UnitOfWork;
 
 import org.easymock.EasyMock;
 import org.junit.Test;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.InvalidDataAccessApiUsageException;
+import org.springframework.jdbc.datasource.DataSourceUtils;
 import org.springframework.jdbc.support.SQLStateSQLExceptionTranslator;
 import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.TransactionDefinition;
 import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.TransactionTimedOutException;
 import org.springframework.transaction.UnexpectedRollbackException;
 import org.springframework.transaction.support.TransactionCallback;
 import org.springframework.transaction.support.TransactionSynchronizationManager;
@@ -478,6 +492,324 @@ public class TopLinkTransactionManagerTests {
 		EasyMock.verify(uow);
 	}
 
+	@Test
+	public void testTransactionCommitWithCommitListener() {
+		Session session = EasyMock.createNiceMock(Session.class);
+		final UnitOfWorkChangeSet changeSet = EasyMock.createNiceMock(UnitOfWorkChangeSet.class);
+		ObjectChangeSet newObject = EasyMock.createNiceMock(ObjectChangeSet.class);
+		ObjectChangeSet changedObject = EasyMock.createNiceMock(ObjectChangeSet.class);
+		final List<String> calls = new ArrayList<String>();
+		// The change set must be the one calculated by the commit itself.
+		UnitOfWork uow = new oracle.toplink.publicinterface.UnitOfWork(new SessionBroker()) {
+			public void beginEarlyTransaction() {
+			}
+			public void commit() {
+				calls.add("commit");
+			}
+			public UnitOfWorkChangeSet getUnitOfWorkChangeSet() {
+				calls.add("getUnitOfWorkChangeSet");
+				return (calls.contains("commit") ? changeSet : null);
+			}
+		};
+
+		final SessionFactory sf = new MockSessionFactory(session);
+
+		EasyMock.expect(session.getActiveUnitOfWork()).andReturn(uow).anyTimes();
+		Vector<ObjectChangeSet> objectChangeSets = new Vector<ObjectChangeSet>();
+		objectChangeSets.add(newObject);
+		objectChangeSets.add(changedObject);
+		EasyMock.expect(changeSet.getAllChangeSets()).andReturn(objectChangeSets);
+		EasyMock.expect(newObject.isNew()).andReturn(true);
+		EasyMock.expect(changedObject.hasChanges()).andReturn(true);
+
+		EasyMock.replay(session, changeSet, newObject, changedObject);
+
+		final List<CommitReport> reports = new ArrayList<CommitReport>();
+		TopLinkTransactionManager tm = new TopLinkTransactionManager(sf);
+		tm.setCommitListeners(new CommitListener[] {new CommitListener() {
+			public void commitCompleted(CommitReport report) {
+				reports.add(report);
+			}
+		}});
+		TransactionTemplate tt = new TransactionTemplate(tm);
+		tt.setName("myTransaction");
+		tt.execute(new TransactionCallback() {
+			public Object doInTransaction(TransactionStatus status) {
+				return null;
+			}
+		});
+
+		assertEquals(1, reports.size());
+		CommitReport report = reports.get(0);
+		assertEquals("myTransaction", report.getTransactionName());
+		assertEquals(1, report.getNewObjectCount());
+		assertEquals(1, report.getChangedObjectCount());
+		assertFalse(report.isFailed());
+		assertEquals("commit", calls.get(0));
+		EasyMock.verify(changeSet);
+	}
+
+	@Test
+	public void testTransactionCommitWithCommitListenerAndFailedCommit() {
+		Session session = EasyMock.createNiceMock(Session.class);
+		UnitOfWork uow = EasyMock.createNiceMock(UnitOfWork.class);
+
+		final SessionFactory sf = new MockSessionFactory(session);
+
+		EasyMock.expect(session.getActiveUnitOfWork()).andReturn(uow).anyTimes();
+		uow.commit();
+		EasyMock.expectLastCall().andThrow(new ValidationException());
+		EasyMock.replay(session, uow);
+
+		final List<CommitReport> reports = new ArrayList<CommitReport>();
+		TopLinkTransactionManager tm = new TopLinkTransactionManager(sf);
+		tm.setCommitListeners(new CommitListener[] {new CommitListener() {
+			public void commitCompleted(CommitReport report) {
+				reports.add(report);
+			}
+		}});
+		TransactionTemplate tt = new TransactionTemplate(tm);
+		try {
+			tt.execute(new TransactionCallback() {
+				public Object doInTransaction(TransactionStatus status) {
+					return null;
+				}
+			});
+			fail("Should have thrown DataAccessException");
+		}
+		catch (DataAccessException ex) {
+			// expected
+		}
+
+		assertEquals(1, reports.size());
+		CommitReport report = reports.get(0);
+		assertEquals(0, report.getNewObjectCount());
+		assertTrue(report.isFailed());
+		EasyMock.verify(uow);
+	}
+
+	@Test
+	public void testTransactionCommitAfterDeadline() {
+		Session session = EasyMock.createNiceMock(Session.class);
+		UnitOfWork uow = EasyMock.createNiceMock(UnitOfWork.class);
+
+		final SessionFactory sf = new MockSessionFactory(session);
+
+		EasyMock.expect(session.getActiveUnitOfWork()).andReturn(uow).anyTimes();
+		session.release();
+		EasyMock.expectLastCall().times(1);
+
+		EasyMock.replay(session, uow);
+
+		TopLinkTransactionManager tm = new TopLinkTransactionManager(sf);
+		TransactionTemplate tt = new TransactionTemplate(tm);
+		tt.setTimeout(10);
+		try {
+			tt.execute(new TransactionCallback() {
+				public Object doInTransaction(TransactionStatus status) {
+					SessionHolder sessionHolder = (SessionHolder) TransactionSynchronizationManager.getResource(sf);
+					sessionHolder.setTimeoutInMillis(1);
+					try {
+						Thread.sleep(10);
+					}
+					catch (InterruptedException ex) {
+						throw new IllegalStateException(ex);
+					}
+					return null;
+				}
+			});
+			fail("Should have thrown TransactionTimedOutException");
+		}
+		catch (TransactionTimedOutException ex) {
+			// expected
+		}
+
+		assertTrue("Hasn't thread session", !TransactionSynchronizationManager.hasResource(sf));
+		EasyMock.verify(session);
+	}
+
+	@Test
+	public void testTransactionCommitWithSharedReadOnlySession() {
+		// Strict mock: neither release() nor any other call expected.
+		final Session session = EasyMock.createMock(Session.class);
+		EasyMock.replay(session);
+
+		final SessionFactory sf = new MockSessionFactory(null);
+		TopLinkTransactionManager tm = new TopLinkTransactionManager(sf) {
+			protected Session getSharedReadOnlySession() {
+				return session;
+			}
+		};
+		tm.setSharedReadOnlySession(true);
+		TransactionTemplate tt = new TransactionTemplate(tm);
+		tt.setReadOnly(true);
+
+		Object result = tt.execute(new TransactionCallback() {
+			public Object doInTransaction(TransactionStatus status) {
+				assertSame(session, ((SessionHolder) TransactionSynchronizationManager.getResource(sf)).getSession());
+				TopLinkTemplate ht = new TopLinkTemplate(sf);
+				return ht.execute(new TopLinkCallback() {
+					public Object doInTopLink(Session s) {
+						return s;
+					}
+				});
+			}
+		});
+		assertSame(session, result);
+
+		assertTrue("Hasn't thread session", !TransactionSynchronizationManager.hasResource(sf));
+		EasyMock.verify(session);
+	}
+
+	@Test
+	public void testUnitOfWorkCallbackWithSharedReadOnlySession() {
+		// Strict mock: in particular, no acquireUnitOfWork() call expected.
+		final Session session = EasyMock.createMock(Session.class);
+		EasyMock.replay(session);
+
+		final SessionFactory sf = new MockSessionFactory(null);
+		TopLinkTransactionManager tm = new TopLinkTransactionManager(sf) {
+			protected Session getSharedReadOnlySession() {
+				return session;
+			}
+		};
+		tm.setSharedReadOnlySession(true);
+		TransactionTemplate tt = new TransactionTemplate(tm);
+		tt.setReadOnly(true);
+
+		try {
+			tt.execute(new TransactionCallback() {
+				public Object doInTransaction(TransactionStatus status) {
+					TopLinkTemplate ht = new TopLinkTemplate(sf);
+					return ht.execute(new UnitOfWorkCallback() {
+						protected Object doInUnitOfWork(UnitOfWork uow) {
+							fail("Should not have been called");
+							return null;
+						}
+					});
+				}
+			});
+			fail("Should have thrown InvalidDataAccessApiUsageException");
+		}
+		catch (InvalidDataAccessApiUsageException ex) {
+			// expected
+		}
+
+		assertTrue("Hasn't thread session", !TransactionSynchronizationManager.hasResource(sf));
+		EasyMock.verify(session);
+	}
+
+	@Test
+	public void testChunkedBulkOperationWithSharedReadOnlySession() {
+		// Strict mock: in particular, no acquireUnitOfWork() call expected.
+		final Session session = EasyMock.createMock(Session.class);
+		EasyMock.replay(session);
+
+		final SessionFactory sf = new MockSessionFactory(null);
+		TopLinkTransactionManager tm = new TopLinkTransactionManager(sf) {
+			protected Session getSharedReadOnlySession() {
+				return session;
+			}
+		};
+		tm.setSharedReadOnlySession(true);
+		TransactionTemplate tt = new TransactionTemplate(tm);
+		tt.setReadOnly(true);
+
+		try {
+			tt.execute(new TransactionCallback() {
+				public Object doInTransaction(TransactionStatus status) {
+					TopLinkTemplate ht = new TopLinkTemplate(sf);
+					List<String> entities = new ArrayList<String>();
+					entities.add("a");
+					return ht.mergeAll(entities.iterator(), 10);
+				}
+			});
+			fail("Should have thrown InvalidDataAccessApiUsageException");
+		}
+		catch (InvalidDataAccessApiUsageException ex) {
+			// expected
+		}
+
+		assertTrue("Hasn't thread session", !TransactionSynchronizationManager.hasResource(sf));
+		EasyMock.verify(session);
+	}
+
+	@Test
+	public void testTransactionCommitWithLazyConnectionExposure() {
+		Session session = EasyMock.createNiceMock(Session.class);
+		UnitOfWork uow = EasyMock.createNiceMock(UnitOfWork.class);
+		DataSource ds = EasyMock.createMock(DataSource.class);
+		final Connection con = EasyMock.createMock(Connection.class);
+
+		final SessionFactory sf = new MockSessionFactory(session);
+
+		EasyMock.expect(session.getActiveUnitOfWork()).andReturn(uow).anyTimes();
+		// database transaction must only be started on first JDBC access
+		uow.beginEarlyTransaction();
+		EasyMock.expectLastCall().times(1);
+		uow.commit();
+		EasyMock.expectLastCall().times(1);
+		session.release();
+		EasyMock.expectLastCall().times(1);
+		EasyMock.replay(session, uow, ds, con);
+
+		TopLinkTransactionManager tm = new TopLinkTransactionManager() {
+			protected Connection getJdbcConnection(Session session) {
+				return con;
+			}
+		};
+		tm.setSessionFactory(sf);
+		tm.setDataSource(ds);
+		tm.setLazyConnectionExposure(true);
+		TransactionTemplate tt = new TransactionTemplate(tm);
+
+		final DataSource dataSource = ds;
+		tt.execute(new TransactionCallback() {
+			public Object doInTransaction(TransactionStatus status) {
+				assertTrue("Has thread connection", TransactionSynchronizationManager.hasResource(dataSource));
+				assertSame(con, DataSourceUtils.getConnection(dataSource));
+				assertSame(con, DataSourceUtils.getConnection(dataSource));
+				return null;
+			}
+		});
+		assertTrue("Hasn't thread connection", !TransactionSynchronizationManager.hasResource(ds));
+		EasyMock.verify(session, uow, ds, con);
+	}
+
+	@Test
+	public void testTransactionCommitWithReadOnlyAndLazyConnectionExposure() {
+		Session session = EasyMock.createNiceMock(Session.class);
+		DataSource ds = EasyMock.createMock(DataSource.class);
+
+		final SessionFactory sf = new MockSessionFactory(session);
+
+		session.release();
+		EasyMock.expectLastCall().times(1);
+		EasyMock.replay(session, ds);
+
+		TopLinkTransactionManager tm = new TopLinkTransactionManager() {
+			protected Connection getJdbcConnection(Session session) {
+				// plain Session without JDBC Connection
+				return null;
+			}
+		};
+		tm.setSessionFactory(sf);
+		tm.setDataSource(ds);
+		tm.setLazyConnectionExposure(true);
+		TransactionTemplate tt = new TransactionTemplate(tm);
+		tt.setReadOnly(true);
+
+		final DataSource dataSource = ds;
+		tt.execute(new TransactionCallback() {
+			public Object doInTransaction(TransactionStatus status) {
+				// no lazy handle that would fail on first access
+				assertTrue("Hasn't thread connection", !TransactionSynchronizationManager.hasResource(dataSource));
+				return null;
+			}
+		});
+		EasyMock.verify(session, ds);
+	}
+
 	protected void tearDown() {
 		assertTrue(TransactionSynchronizationManager.getResourceMap().isEmpty());
 		assertFalse(TransactionSynchronizationManager.isSynchronizationActive());
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2002-2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.orm.toplink;
+
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import oracle.toplink.publicinterface.UnitOfWork;
+import oracle.toplink.sessionbroker.SessionBroker;
+import oracle.toplink.sessions.Session;
+
+import org.easymock.EasyMock;
+import org.junit.Test;
+
+import org.springframework.dao.InvalidDataAccessApiUsageException;
+
+public class UnitOfWorkSizeGuardTests {
+
+	@Test
+	public void testWarnReportsOnce() {
+		UnitOfWork uow = createUnitOfWork(3);
+		TopLinkMetrics metrics = EasyMock.createMock(TopLinkMetrics.class);
+		metrics.recordOperation(AbstractSessionFactory.UNIT_OF_WORK_SIZE_EXCEEDED_OPERATION, null, 0, false);
+		EasyMock.expectLastCall().times(1);
+		EasyMock.replay(metrics);
+
+		Session session = createManagedClientSession(
+				uow, 2, AbstractSessionFactory.UnitOfWorkSizePolicy.WARN, metrics, false);
+		assertSame(uow, session.getActiveUnitOfWork());
+		assertSame(uow, session.getActiveUnitOfWork());
+		uow.getCloneMapping().put(new Object(), new Object());
+		assertSame(uow, session.getActiveUnitOfWork());
+		EasyMock.verify(metrics);
+	}
+
+	@Test
+	public void testWithinThreshold() {
+		UnitOfWork uow = createUnitOfWork(2);
+		TopLinkMetrics metrics = EasyMock.createMock(TopLinkMetrics.class);
+		EasyMock.replay(metrics);
+
+		Session session = createManagedClientSession(
+				uow, 2, AbstractSessionFactory.UnitOfWorkSizePolicy.FAIL, metrics, false);
+		assertSame(uow, session.getActiveUnitOfWork());
+		EasyMock.verify(metrics);
+	}
+
+	@Test
+	public void testFailOnEachAccess() {
+		doTestFailOnEachAccess(false);
+	}
+
+	@Test
+	public void testFailOnEachAccessWithOptimizedProxies() {
+		doTestFailOnEachAccess(true);
+	}
+
+	private void doTestFailOnEachAccess(boolean optimizeSessionProxies) {
+		UnitOfWork uow = createUnitOfWork(3);
+		TopLinkMetrics metrics = EasyMock.createMock(TopLinkMetrics.class);
+		metrics.recordOperation(AbstractSessionFactory.UNIT_OF_WORK_SIZE_EXCEEDED_OPERATION, null, 0, true);
+		EasyMock.expectLastCall().times(1);
+		EasyMock.replay(metrics);
+
+		Session session = createManagedClientSession(
+				uow, 2, AbstractSessionFactory.UnitOfWorkSizePolicy.FAIL, metrics, optimizeSessionProxies);
+		for (int i = 0; i < 3; i++) {
+			try {
+				session.getActiveUnitOfWork();
+				fail("Should have thrown InvalidDataAccessApiUsageException");
+			}
+			catch (InvalidDataAccessApiUsageException ex) {
+				// expected
+			}
+		}
+		EasyMock.verify(metrics);
+	}
+
+	@Test
+	public void testWarnWithOptimizedProxies() {
+		UnitOfWork uow = createUnitOfWork(3);
+		TopLinkMetrics metrics = EasyMock.createMock(TopLinkMetrics.class);
+		metrics.recordOperation(AbstractSessionFactory.UNIT_OF_WORK_SIZE_EXCEEDED_OPERATION, null, 0, false);
+		EasyMock.expectLastCall().times(1);
+		EasyMock.replay(metrics);
+
+		Session session = createManagedClientSession(
+				uow, 2, AbstractSessionFactory.UnitOfWorkSizePolicy.WARN, metrics, true);
+		assertSame(uow, session.getActiveUnitOfWork());
+		assertSame(uow, session.getActiveUnitOfWork());
+		EasyMock.verify(metrics);
+	}
+
+	@Test
+	public void testSessionBrokerSessionFactoryReportsToMetrics() {
+		final UnitOfWork uow = createUnitOfWork(3);
+		final Session clientSession = EasyMock.createNiceMock(Session.class);
+		EasyMock.expect(clientSession.acquireUnitOfWork()).andReturn(uow);
+		EasyMock.replay(clientSession);
+		TopLinkMetrics metrics = EasyMock.createMock(TopLinkMetrics.class);
+		metrics.recordOperation(AbstractSessionFactory.UNIT_OF_WORK_SIZE_EXCEEDED_OPERATION, null, 0, false);
+		EasyMock.expectLastCall().times(1);
+		EasyMock.replay(metrics);
+
+		SessionBrokerSessionFactory factory = new SessionBrokerSessionFactory(new SessionBroker()) {
+			protected Session createClientSession() {
+				return clientSession;
+			}
+		};
+		factory.setMaxUnitOfWorkSize(2);
+		factory.setMetrics(metrics);
+		assertSame(uow, factory.createManagedClientSession().getActiveUnitOfWork());
+		EasyMock.verify(metrics);
+	}
+
+
+	private UnitOfWork createUnitOfWork(int registeredObjects) {
+		UnitOfWork uow = new UnitOfWork(new SessionBroker());
+		for (int i = 0; i < registeredObjects; i++) {
+			uow.getCloneMapping().put(new Object(), new Object());
+		}
+		return uow;
+	}
+
+	private Session createManagedClientSession(UnitOfWork uow, int maxSize,
+			AbstractSessionFactory.UnitOfWorkSizePolicy policy, TopLinkMetrics metrics, boolean optimizeSessionProxies) {
+
+		final Session clientSession = EasyMock.createNiceMock(Session.class);
+		EasyMock.expect(clientSession.acquireUnitOfWork()).andReturn(uow);
+		EasyMock.replay(clientSession);
+
+		AbstractSessionFactory factory = new AbstractSessionFactory() {
+			protected Session getMasterSession() {
+				return clientSession;
+			}
+			protected Session createClientSession() {
+				return clientSession;
+			}
+			public void close() {
+			}
+		};
+		factory.setMaxUnitOfWorkSize(maxSize);
+		factory.setUnitOfWorkSizePolicy(policy);
+		factory.setMetrics(metrics);
+		factory.setOptimizeSessionProxies(optimizeSessionProxies);
+		return factory.createManagedClientSession();
+	}
+
+}
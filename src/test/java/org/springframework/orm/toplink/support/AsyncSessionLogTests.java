@@ -0,0 +1,147 @@
+/*
+ * Copyright 2002-2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.orm.toplink.support;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import oracle.toplink.logging.AbstractSessionLog;
+import oracle.toplink.logging.SessionLog;
+import oracle.toplink.logging.SessionLogEntry;
+
+import org.junit.Test;
+
+public class AsyncSessionLogTests {
+
+	@Test
+	public void testEntriesPassedOnInOrderAndDrainedOnDestroy() throws Exception {
+		CollectingSessionLog target = new CollectingSessionLog();
+		AsyncSessionLog log = new AsyncSessionLog(target);
+		log.setBatchSize(7);
+		List<SessionLogEntry> entries = new ArrayList<SessionLogEntry>();
+		for (int i = 0; i < 100; i++) {
+			SessionLogEntry entry = newEntry(SessionLog.INFO, "message " + i);
+			entries.add(entry);
+			log.log(entry);
+		}
+		log.destroy();
+		assertEquals(entries, target.getEntries());
+		assertEquals(0, log.getBufferedCount());
+		assertEquals(0, log.getDroppedCount());
+	}
+
+	@Test
+	public void testLogAfterDestroyIsSynchronous() throws Exception {
+		CollectingSessionLog target = new CollectingSessionLog();
+		AsyncSessionLog log = new AsyncSessionLog(target);
+		log.log(newEntry(SessionLog.INFO, "before"));
+		log.destroy();
+
+		SessionLogEntry entry = newEntry(SessionLog.INFO, "after");
+		log.log(entry);
+		assertEquals(2, target.getEntries().size());
+		assertSame(entry, target.getEntries().get(1));
+	}
+
+	@Test
+	public void testDestroyWithoutEntries() throws Exception {
+		CollectingSessionLog target = new CollectingSessionLog();
+		AsyncSessionLog log = new AsyncSessionLog(target);
+		log.destroy();
+		log.log(newEntry(SessionLog.INFO, "after"));
+		assertEquals(1, target.getEntries().size());
+	}
+
+	@Test
+	public void testEntriesBelowTargetLevelAreNotBuffered() throws Exception {
+		CollectingSessionLog target = new CollectingSessionLog();
+		target.setLevel(SessionLog.WARNING);
+		AsyncSessionLog log = new AsyncSessionLog(target);
+		log.log(newEntry(SessionLog.FINE, "fine"));
+		assertEquals(0, log.getBufferedCount());
+		log.log(newEntry(SessionLog.SEVERE, "severe"));
+		log.destroy();
+		assertEquals(1, target.getEntries().size());
+	}
+
+	@Test
+	public void testDropWhenFull() throws Exception {
+		final CountDownLatch entered = new CountDownLatch(1);
+		final CountDownLatch proceed = new CountDownLatch(1);
+		CollectingSessionLog target = new CollectingSessionLog() {
+			public void log(SessionLogEntry entry) {
+				entered.countDown();
+				try {
+					proceed.await();
+				}
+				catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+				}
+				super.log(entry);
+			}
+		};
+		AsyncSessionLog log = new AsyncSessionLog(target);
+		log.setCapacity(1);
+
+		SessionLogEntry first = newEntry(SessionLog.INFO, "first");
+		SessionLogEntry second = newEntry(SessionLog.INFO, "second");
+		log.log(first);
+		entered.await();
+		// background thread is busy with the first entry
+		log.log(second);
+		log.log(newEntry(SessionLog.INFO, "third"));
+		assertEquals(1, log.getDroppedCount());
+
+		proceed.countDown();
+		log.destroy();
+		List<SessionLogEntry> entries = target.getEntries();
+		assertEquals(2, entries.size());
+		assertSame(first, entries.get(0));
+		assertSame(second, entries.get(1));
+	}
+
+
+	private static SessionLogEntry newEntry(int level, String message) {
+		SessionLogEntry entry = new SessionLogEntry();
+		entry.setLevel(level);
+		entry.setMessage(message);
+		return entry;
+	}
+
+
+	private static class CollectingSessionLog extends AbstractSessionLog {
+
+		private final List<SessionLogEntry> entries =
+				Collections.synchronizedList(new ArrayList<SessionLogEntry>());
+
+		public void log(SessionLogEntry entry) {
+			this.entries.add(entry);
+		}
+
+		public List<SessionLogEntry> getEntries() {
+			synchronized (this.entries) {
+				return new ArrayList<SessionLogEntry>(this.entries);
+			}
+		}
+	}
+
+}
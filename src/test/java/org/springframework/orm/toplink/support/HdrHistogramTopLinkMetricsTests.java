@@ -0,0 +1,100 @@
+/*
+ * Copyright 2002-2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.orm.toplink.support;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.HdrHistogram.Histogram;
+import org.junit.Test;
+
+public class HdrHistogramTopLinkMetricsTests {
+
+	@Test
+	public void testOperationMetricsPerOperationAndEntityClass() {
+		HdrHistogramTopLinkMetrics metrics = new HdrHistogramTopLinkMetrics();
+		metrics.recordOperation("readAll", String.class, 100, false);
+		metrics.recordOperation("readAll", String.class, 200, true);
+		metrics.recordOperation("readAll", Integer.class, 300, false);
+		metrics.recordOperation("merge", null, 400, false);
+
+		HdrHistogramTopLinkMetrics.OperationMetrics readAllStrings = metrics.getOperationMetrics("readAll", String.class);
+		assertEquals("readAll", readAllStrings.getOperation());
+		assertSame(String.class, readAllStrings.getEntityClass());
+		assertEquals(2, readAllStrings.getCallCount());
+		assertEquals(1, readAllStrings.getFailureCount());
+
+		assertEquals(1, metrics.getOperationMetrics("readAll", Integer.class).getCallCount());
+		assertEquals(0, metrics.getOperationMetrics("readAll", Integer.class).getFailureCount());
+
+		HdrHistogramTopLinkMetrics.OperationMetrics merge = metrics.getOperationMetrics("merge", null);
+		assertNull(merge.getEntityClass());
+		assertEquals(1, merge.getCallCount());
+
+		assertNull(metrics.getOperationMetrics("merge", String.class));
+		assertNull(metrics.getOperationMetrics("delete", null));
+		assertEquals(3, metrics.getAllOperationMetrics().size());
+	}
+
+	@Test
+	public void testValuesGetClamped() {
+		HdrHistogramTopLinkMetrics metrics = new HdrHistogramTopLinkMetrics();
+		metrics.setHighestTrackableNanos(1000);
+		metrics.recordOperation("readAll", String.class, 5000, false);
+		metrics.recordOperation("readAll", String.class, -1, false);
+		metrics.recordSessionAcquisition(Long.MAX_VALUE);
+		metrics.recordCommit(-100, false);
+
+		Histogram latency = metrics.getOperationMetrics("readAll", String.class).getLatencyHistogram();
+		assertEquals(2, latency.getTotalCount());
+		assertTrue(latency.valuesAreEquivalent(1000, latency.getMaxValue()));
+		assertEquals(0, latency.getMinValue());
+
+		Histogram acquisition = metrics.getSessionAcquisitionHistogram();
+		assertTrue(acquisition.valuesAreEquivalent(1000, acquisition.getMaxValue()));
+		assertEquals(0, metrics.getCommitHistogram().getMaxValue());
+	}
+
+	@Test
+	public void testReset() {
+		HdrHistogramTopLinkMetrics metrics = new HdrHistogramTopLinkMetrics();
+		metrics.recordOperation("readAll", String.class, 100, true);
+		metrics.recordSessionAcquisition(100);
+		metrics.recordCommit(100, true);
+		assertEquals(1, metrics.getCommitFailureCount());
+
+		metrics.reset();
+		assertNull(metrics.getOperationMetrics("readAll", String.class));
+		assertTrue(metrics.getAllOperationMetrics().isEmpty());
+		assertEquals(0, metrics.getSessionAcquisitionHistogram().getTotalCount());
+		assertEquals(0, metrics.getCommitHistogram().getTotalCount());
+		assertEquals(0, metrics.getCommitFailureCount());
+	}
+
+	@Test
+	public void testSnapshotsAreDetached() {
+		HdrHistogramTopLinkMetrics metrics = new HdrHistogramTopLinkMetrics();
+		metrics.recordCommit(100, false);
+		Histogram snapshot = metrics.getCommitHistogram();
+		metrics.recordCommit(200, false);
+		assertEquals(1, snapshot.getTotalCount());
+		assertEquals(2, metrics.getCommitHistogram().getTotalCount());
+	}
+
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2002-2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.orm.toplink.support;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import oracle.toplink.logging.AbstractSessionLog;
+import oracle.toplink.logging.SessionLog;
+import oracle.toplink.logging.SessionLogEntry;
+
+import org.junit.Test;
+
+public class SqlProfilingSessionLogTests {
+
+	@Test
+	public void testNormalizeSqlReplacesLiterals() {
+		SqlProfilingSessionLog log = new SqlProfilingSessionLog();
+		assertEquals("SELECT ID, NAME FROM EMP WHERE ((ID = ?) AND (NAME = ?))",
+				log.normalizeSql("SELECT ID, NAME FROM EMP WHERE ((ID = 42) AND (NAME = 'O''Brien'))"));
+		assertEquals("UPDATE EMP SET SALARY = ? WHERE (ID = ?)",
+				log.normalizeSql("UPDATE EMP SET SALARY = 1234.50 WHERE (ID = 7)"));
+	}
+
+	@Test
+	public void testNormalizeSqlKeepsDigitsInIdentifiers() {
+		SqlProfilingSessionLog log = new SqlProfilingSessionLog();
+		assertEquals("SELECT T1.ID FROM EMP2 T1 WHERE (T1.ID = ?)",
+				log.normalizeSql("SELECT T1.ID FROM EMP2 T1 WHERE (T1.ID = 3)"));
+	}
+
+	@Test
+	public void testNormalizeSqlCollapsesInListsAndWhitespace() {
+		SqlProfilingSessionLog log = new SqlProfilingSessionLog();
+		assertEquals("SELECT ID FROM EMP WHERE ID IN (?)",
+				log.normalizeSql("SELECT  ID\n FROM EMP WHERE ID IN (1, 2,3)"));
+		assertEquals("SELECT ID FROM EMP WHERE ID IN (?)",
+				log.normalizeSql("SELECT ID FROM EMP WHERE ID IN (?, ?, ?, ?)"));
+	}
+
+	@Test
+	public void testNormalizeSqlStripsBindParameters() {
+		SqlProfilingSessionLog log = new SqlProfilingSessionLog();
+		assertEquals("SELECT ID FROM EMP WHERE (ID = ?)",
+				log.normalizeSql("SELECT ID FROM EMP WHERE (ID = ?)\n\tbind => [42]"));
+	}
+
+	@Test
+	public void testCountsAggregatedPerNormalizedStatement() {
+		final List<SessionLogEntry> passedOn = new ArrayList<SessionLogEntry>();
+		SqlProfilingSessionLog log = new SqlProfilingSessionLog();
+		log.setTargetSessionLog(new AbstractSessionLog() {
+			{
+				setLevel(SessionLog.FINE);
+			}
+			public void log(SessionLogEntry entry) {
+				passedOn.add(entry);
+			}
+		});
+		log.setMaxStatements(2);
+
+		log.log(newEntry("sql", "SELECT ID FROM EMP WHERE (ID = 1)"));
+		log.log(newEntry("sql", "SELECT ID FROM EMP WHERE (ID = 2)"));
+		log.log(newEntry("sql", "SELECT ID FROM EMP WHERE (ID = 3)"));
+		log.log(newEntry("sql", "SELECT ID FROM DEPT"));
+		log.log(newEntry("transaction", "begin transaction"));
+		log.log(newEntry("sql", "SELECT ID FROM PROJECT"));
+
+		assertEquals(2, log.getStatementCount());
+		assertEquals(1, log.getUntrackedExecutionCount());
+		List<SqlProfilingSessionLog.StatementStatistics> top = log.getTopStatisticsByCount(1);
+		assertEquals(1, top.size());
+		assertEquals("SELECT ID FROM EMP WHERE (ID = ?)", top.get(0).getSql());
+		assertEquals(3, top.get(0).getCount());
+		assertEquals("count=3: SELECT ID FROM EMP WHERE (ID = ?)", log.getTopStatementsByCount(2)[0]);
+		assertEquals(6, passedOn.size());
+
+		log.reset();
+		assertEquals(0, log.getStatementCount());
+		assertEquals(0, log.getUntrackedExecutionCount());
+	}
+
+
+	private static SessionLogEntry newEntry(String nameSpace, String message) {
+		SessionLogEntry entry = new SessionLogEntry();
+		entry.setLevel(SessionLog.FINE);
+		entry.setNameSpace(nameSpace);
+		entry.setMessage(message);
+		return entry;
+	}
+
+}